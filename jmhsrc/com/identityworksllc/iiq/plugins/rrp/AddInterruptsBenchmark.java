@@ -0,0 +1,35 @@
+package com.identityworksllc.iiq.plugins.rrp;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks {@link RuleRunnerResource#addInterrupts(String)}, which runs on every rule execution
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class AddInterruptsBenchmark {
+    @Param({"50", "1000", "10000"})
+    public int lines;
+
+    private String script;
+
+    @Setup
+    public void setup() {
+        script = BenchmarkScripts.script(lines, false);
+    }
+
+    @Benchmark
+    public String addInterrupts() {
+        return RuleRunnerResource.addInterrupts(script);
+    }
+}
@@ -0,0 +1,71 @@
+package com.identityworksllc.iiq.plugins.rrp;
+
+/**
+ * Generates representative Beanshell sources of a given size for the benchmarks
+ */
+final class BenchmarkScripts {
+    /**
+     * Generates a rule library of roughly the given number of lines, made of helper
+     * methods named libraryHelper0, libraryHelper1, and so on
+     *
+     * @param lines The approximate number of lines
+     * @return The library source
+     */
+    static String library(int lines) {
+        StringBuilder source = new StringBuilder();
+        source.append("import java.util.*;\n");
+        source.append("import sailpoint.object.Identity;\n");
+        int line = 2;
+        for(int i = 0; line < lines; i++) {
+            source.append("public String libraryHelper").append(i).append("(Identity identity, int count) {\n");
+            source.append("    StringBuilder sb = new StringBuilder();\n");
+            source.append("    for (int j = 0; j < count; j++) {\n");
+            source.append("        sb.append(identity.getName()).append(\"-\").append(j);\n");
+            source.append("    }\n");
+            source.append("    return sb.toString();\n");
+            source.append("}\n");
+            line += 7;
+        }
+        return source.toString();
+    }
+
+    /**
+     * Generates a script of roughly the given number of lines, mixing methods, loops,
+     * and standalone statements
+     *
+     * @param lines The approximate number of lines
+     * @param callLibrary True if the script should call a method from {@link #library(int)}
+     * @return The script source
+     */
+    static String script(int lines, boolean callLibrary) {
+        StringBuilder source = new StringBuilder();
+        source.append("import java.util.*;\n");
+        source.append("import sailpoint.object.Identity;\n");
+        source.append("List results = new ArrayList();\n");
+        int line = 3;
+        if (callLibrary) {
+            source.append("results.add(libraryHelper0(context.getObjectByName(Identity.class, \"spadmin\"), 2));\n");
+            line++;
+        }
+        for(int i = 0; line < lines; i++) {
+            source.append("public String helper").append(i).append("(String input, int count) {\n");
+            source.append("    StringBuilder sb = new StringBuilder();\n");
+            source.append("    for (int j = 0; j < count; j++) {\n");
+            source.append("        sb.append(input).append(\"-\").append(j);\n");
+            source.append("    }\n");
+            source.append("    return sb.toString();\n");
+            source.append("}\n");
+            source.append("String value").append(i).append(" = helper").append(i).append("(\"x\", 3);\n");
+            source.append("if (value").append(i).append(".length() > 0) {\n");
+            source.append("    results.add(value").append(i).append(");\n");
+            source.append("}\n");
+            line += 11;
+        }
+        source.append("return results;\n");
+        return source.toString();
+    }
+
+    private BenchmarkScripts() {
+        /* Utility class */
+    }
+}
@@ -0,0 +1,51 @@
+package com.identityworksllc.iiq.plugins.rrp;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks the parsing of uploaded CSV files into rule inputs by
+ * {@link RuleRunnerResource#parseCsvInput(String, String, boolean, boolean, Map)}
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class CsvInputBenchmark {
+    @Param({"1000", "100000"})
+    public int rows;
+
+    @Param({"false", "true"})
+    public boolean hasHeader;
+
+    private String csv;
+
+    @Setup
+    public void setup() {
+        StringBuilder content = new StringBuilder();
+        if (hasHeader) {
+            content.append("id,name,email,department,notes\n");
+        }
+        for(int i = 0; i < rows; i++) {
+            content.append(i).append(",user").append(i).append(",user").append(i).append("@example.com,");
+            content.append("\"Department ").append(i % 20).append("\",\"Notes, with a comma and \"\"quotes\"\"\"\n");
+        }
+        csv = content.toString();
+    }
+
+    @Benchmark
+    public Map<String, Object> parseCsvInput() throws Exception {
+        Map<String, Object> ruleInputs = new HashMap<>();
+        RuleRunnerResource.parseCsvInput(csv, "benchmark.csv", hasHeader, false, ruleInputs);
+        return ruleInputs;
+    }
+}
@@ -0,0 +1,49 @@
+package com.identityworksllc.iiq.plugins.rrp;
+
+import org.apache.commons.logging.impl.NoOpLog;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks the capture of log messages by {@link LogStreamWrapper}, which happens on the
+ * rule's own thread, and their retrieval by the browser's polling, both by clients that
+ * track a log sequence number and by clients that do not
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class LogStreamWrapperBenchmark {
+    @Param({"100", "10000"})
+    public int messages;
+
+    private LogStreamWrapper logMessages() {
+        LogStreamWrapper wrapper = new LogStreamWrapper(new NoOpLog());
+        for(int i = 0; i < messages; i++) {
+            wrapper.info("Processed identity " + i);
+        }
+        return wrapper;
+    }
+
+    @Benchmark
+    public LogStreamWrapper queue() {
+        return logMessages();
+    }
+
+    @Benchmark
+    public List<LogMessageVO> queueAndGetMessages() {
+        return logMessages().getMessages(null);
+    }
+
+    @Benchmark
+    public LogStreamWrapper.MessageBatch queueAndGetMessagesAfter() {
+        return logMessages().getMessagesAfter(LogStreamWrapper.Level.Info, -1);
+    }
+}
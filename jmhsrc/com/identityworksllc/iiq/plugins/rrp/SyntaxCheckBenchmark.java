@@ -0,0 +1,72 @@
+package com.identityworksllc.iiq.plugins.rrp;
+
+import com.identityworksllc.iiq.common.logging.SLogger;
+import org.apache.commons.logging.impl.NoOpLog;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import sailpoint.object.Rule;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks {@link BeanshellSyntaxChecker#parse()}, as invoked by the parse endpoint on
+ * each lint. The 'parse' benchmark changes the source on every invocation, so that it
+ * measures a real compilation rather than a {@link ParseResultCache} hit.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class SyntaxCheckBenchmark {
+    @Param({"50", "1000", "10000"})
+    public int lines;
+
+    @Param({"false", "true"})
+    public boolean withLibraries;
+
+    private long invocation;
+
+    private RuleLibraryStubCache.Stub library;
+
+    private SLogger log;
+
+    private String script;
+
+    private BeanshellSyntaxChecker createChecker(String source) {
+        BeanshellSyntaxChecker checker = new BeanshellSyntaxChecker(source, new ArrayList<>(), log);
+        if (library != null) {
+            checker.addLibraryStub(library);
+        }
+        return checker;
+    }
+
+    @Setup
+    public void setup() throws Exception {
+        log = new SLogger(new NoOpLog());
+        script = BenchmarkScripts.script(lines, withLibraries);
+        if (withLibraries) {
+            Rule rule = new Rule();
+            rule.setName("Benchmark Library");
+            rule.setSource(BenchmarkScripts.library(1000));
+            library = RuleLibraryStubCache.getInstance().getStub(rule, log);
+        }
+    }
+
+    @Benchmark
+    public List<Map<String, Object>> parse() throws Exception {
+        return createChecker(script + "\n// " + (invocation++)).parse();
+    }
+
+    @Benchmark
+    public List<Map<String, Object>> parseCached() throws Exception {
+        return createChecker(script).parse();
+    }
+}
@@ -0,0 +1,53 @@
+package com.identityworksllc.iiq.plugins.rrp;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks {@link RuleRunnerResource#transformResult(Object)} on large collection outputs
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class TransformResultBenchmark {
+    @Param({"1000", "100000"})
+    public int size;
+
+    @Param({"strings", "maps"})
+    public String shape;
+
+    private List<Object> result;
+
+    @Setup
+    public void setup() {
+        result = new ArrayList<>();
+        for(int i = 0; i < size; i++) {
+            if (shape.equals("maps")) {
+                Map<String, Object> row = new HashMap<>();
+                row.put("name", "user" + i);
+                row.put("index", i);
+                row.put("active", i % 2 == 0);
+                result.add(row);
+            } else {
+                result.add("value " + i);
+            }
+        }
+    }
+
+    @Benchmark
+    public Map<String, Object> transformResult() throws Exception {
+        return RuleRunnerResource.transformResult(result);
+    }
+}
@@ -0,0 +1,281 @@
+package com.identityworksllc.iiq.plugins.rrp;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.MultivaluedHashMap;
+import javax.ws.rs.core.StreamingOutput;
+import javax.ws.rs.ext.MessageBodyWriter;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.lang.annotation.Annotation;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Streams the progress of a background rule to the browser as Server-Sent Events, so
+ * that a browser watching a long run receives new log messages and progress as they
+ * happen, instead of polling for the full state of the rule every few seconds.
+ *
+ * Each 'update' event is a partial {@link RunRuleOutcome}, holding the new log messages,
+ * and the progress statistics only when they have changed. A final 'done' event holds
+ * the output. The id of each event is the log sequence number, so a browser that
+ * reconnects resumes after the last message it received. Each stream ends after
+ * {@link #MAX_STREAM_MILLIS}, and the browser reconnects on its own.
+ *
+ * Between events, the stream sleeps on the rule's {@link ChangeSignal}, which is raised
+ * when the rule logs, reports progress, moves in the queue, starts, or finishes, so an
+ * idle rule costs nothing but a parked thread. Changes in quick succession, including
+ * messages below the requested level, are gathered for {@link #BATCH_MILLIS} before the
+ * stream looks again, so a chatty rule wakes it at most a few times a second.
+ *
+ * Every stream still holds a request thread while it is open, so the number open at once
+ * on each server is limited by the maxEventStreams plugin setting. Beyond that, the stream
+ * sends a single 'busy' event, and the browser falls back to polling.
+ *
+ * The events are serialized by the container's JSON message body writer, the same one
+ * that serializes the {@link RunRuleOutcome} returned by the asyncUpdate endpoint, so
+ * a streaming and a polling browser receive the same JSON.
+ */
+public final class AsyncRuleStream implements StreamingOutput {
+    /**
+     * How long the stream waits after a change for further changes, so that a chatty rule
+     * sends its messages in batches rather than one event per message
+     */
+    private static final long BATCH_MILLIS = 250L;
+
+    /**
+     * The default maximum number of streams open at once
+     */
+    public static final int DEFAULT_MAX_STREAMS = 16;
+
+    /**
+     * The longest the stream goes without writing anything, before sending a comment to
+     * keep proxies from closing it
+     */
+    private static final long HEARTBEAT_MILLIS = TimeUnit.SECONDS.toMillis(15);
+
+    /**
+     * The longest a single stream stays open
+     */
+    public static final long MAX_STREAM_MILLIS = TimeUnit.MINUTES.toMillis(5);
+
+    /**
+     * The reconnection delay suggested to the browser, in milliseconds
+     */
+    private static final long RETRY_MILLIS = 1000L;
+
+    /**
+     * The number of streams currently open
+     */
+    private static final AtomicInteger active = new AtomicInteger();
+
+    /**
+     * Logger
+     */
+    private static final Log log = LogFactory.getLog(AsyncRuleStream.class);
+
+    /**
+     * The number of streams opened
+     */
+    private static final AtomicLong opened = new AtomicLong();
+
+    /**
+     * The number of streams refused because too many were open
+     */
+    private static final AtomicLong refused = new AtomicLong();
+
+    /**
+     * Gets the stream counters, for display to administrators
+     * @return The statistics, keyed by name
+     */
+    public static Map<String, Object> getStatistics() {
+        Map<String, Object> stats = new TreeMap<>();
+        stats.put("active", active.get());
+        stats.put("opened", opened.get());
+        stats.put("refused", refused.get());
+        return stats;
+    }
+
+    /**
+     * The sequence number of the last log message the browser has, or null for the
+     * messages not yet delivered to any client
+     */
+    private final Long afterSequence;
+
+    /**
+     * The container's JSON writer, which serializes the event data
+     */
+    private final MessageBodyWriter<RunRuleOutcome> jsonWriter;
+
+    /**
+     * The maximum number of streams open at once, including this one
+     */
+    private final int maxStreams;
+
+    /**
+     * The minimum log level to send, or null for all
+     */
+    private final LogStreamWrapper.Level minimumLevel;
+
+    /**
+     * The UUID of the background rule
+     */
+    private final String uuid;
+
+    /**
+     * The background rule
+     */
+    private final RuleRunnerResource.RuleRunnerAsyncWorker worker;
+
+    /**
+     * @param worker The background rule
+     * @param uuid The UUID of the background rule
+     * @param minimumLevel The minimum log level to send, or null for all
+     * @param afterSequence The sequence number of the last log message the browser has, or null
+     * @param maxStreams The maximum number of streams open at once, including this one
+     * @param jsonWriter The container's JSON writer for {@link RunRuleOutcome}
+     */
+    public AsyncRuleStream(RuleRunnerResource.RuleRunnerAsyncWorker worker, String uuid, LogStreamWrapper.Level minimumLevel, Long afterSequence, int maxStreams, MessageBodyWriter<RunRuleOutcome> jsonWriter) {
+        this.worker = worker;
+        this.jsonWriter = jsonWriter;
+        this.maxStreams = maxStreams;
+        this.uuid = uuid;
+        this.minimumLevel = minimumLevel;
+        this.afterSequence = afterSequence;
+    }
+
+    @Override
+    public void write(OutputStream output) throws IOException {
+        Writer writer = new OutputStreamWriter(output, StandardCharsets.UTF_8);
+        if (active.incrementAndGet() > maxStreams) {
+            active.decrementAndGet();
+            refused.incrementAndGet();
+            writeEvent(writer, "busy", null, new RunRuleOutcome());
+            return;
+        }
+        opened.incrementAndGet();
+        try {
+            stream(writer);
+        } finally {
+            active.decrementAndGet();
+        }
+    }
+
+    /**
+     * Sends events until the rule finishes, the stream times out, or the browser goes away
+     *
+     * @param writer The writer for the response
+     * @throws IOException if the browser has gone away
+     */
+    private void stream(Writer writer) throws IOException {
+        writer.write("retry: " + RETRY_MILLIS + "\n\n");
+        writer.flush();
+
+        LogStreamWrapper wrappedLog = worker.getLog();
+        ChangeSignal changes = wrappedLog.getChangeSignal();
+        long after = (afterSequence == null) ? wrappedLog.getDeliveredSequence() : afterSequence;
+        long deadline = System.currentTimeMillis() + MAX_STREAM_MILLIS;
+        long lastWrite = System.currentTimeMillis();
+        Map<String, Object> lastStats = null;
+        int lastQueuePosition = -1;
+
+        while(true) {
+            // Read before the state, so that a change made while the event is built wakes the next wait
+            long version = changes.getVersion();
+            // Checked before reading the logs, so the final event includes every message
+            boolean done = worker.isDone();
+
+            RunRuleOutcome outcome = new RunRuleOutcome();
+            outcome.setAsync(true);
+            outcome.setUuid(uuid);
+            outcome.setElapsed(worker.getElapsedMillis());
+            int queuePosition = RuleRunnerExecutor.getInstance().getQueuePosition(worker);
+            outcome.setQueuePosition(queuePosition);
+
+            RuleRunnerResource.setLogs(outcome, wrappedLog, minimumLevel, after);
+            after = outcome.getLogSequence();
+
+            Map<String, Object> stats = worker.getTaskMonitor().toMap();
+            boolean statsChanged = !stats.equals(lastStats);
+            if (statsChanged || done) {
+                outcome.setStats(stats);
+            }
+
+            long now = System.currentTimeMillis();
+            if (done) {
+                try {
+                    outcome.setOutput(RuleRunnerResource.transformResult(worker.getOutput()));
+                } catch(Exception e) {
+                    log.warn("Unable to transform the output of background rule " + uuid, e);
+                    outcome.setError(true);
+                }
+                outcome.setTerminated(true);
+                writeEvent(writer, "done", after, outcome);
+                return;
+            }
+            if (!outcome.getLogs().isEmpty() || statsChanged || queuePosition != lastQueuePosition) {
+                writeEvent(writer, "update", after, outcome);
+                lastWrite = now;
+            } else if (now - lastWrite >= HEARTBEAT_MILLIS) {
+                writer.write(": keepalive\n\n");
+                writer.flush();
+                lastWrite = now;
+            }
+            lastStats = stats;
+            lastQueuePosition = queuePosition;
+
+            if (now >= deadline) {
+                return;
+            }
+
+            try {
+                // Wakes as soon as anything changes, including the rule finishing
+                if (changes.await(version, Math.min(HEARTBEAT_MILLIS, deadline - now)) != version) {
+                    // Let a burst of changes accumulate into one event, unless the rule finishes first
+                    worker.getCompletion().get(BATCH_MILLIS, TimeUnit.MILLISECONDS);
+                }
+            } catch(TimeoutException | ExecutionException | CancellationException e) {
+                /* Checked again at the top of the loop */
+            } catch(InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    /**
+     * Writes one event and flushes it to the browser
+     *
+     * @param writer The writer for the response
+     * @param event The event name
+     * @param id The event id, or null for none
+     * @param outcome The event data
+     * @throws IOException if the browser has gone away
+     */
+    private void writeEvent(Writer writer, String event, Long id, RunRuleOutcome outcome) throws IOException {
+        ByteArrayOutputStream json = new ByteArrayOutputStream();
+        jsonWriter.writeTo(outcome, RunRuleOutcome.class, RunRuleOutcome.class, new Annotation[0], MediaType.APPLICATION_JSON_TYPE, new MultivaluedHashMap<>(), json);
+        if (id != null) {
+            writer.write("id: " + id + "\n");
+        }
+        writer.write("event: " + event + "\n");
+        // A writer configured to indent would produce several lines, each of which needs its own prefix
+        for(String line : new String(json.toByteArray(), StandardCharsets.UTF_8).split("\r?\n")) {
+            writer.write("data: " + line + "\n");
+        }
+        writer.write("\n");
+        writer.flush();
+    }
+}
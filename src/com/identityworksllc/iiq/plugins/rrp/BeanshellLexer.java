@@ -0,0 +1,496 @@
+package com.identityworksllc.iiq.plugins.rrp;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * A single-pass, linear-time tokenizer for Beanshell source code. It understands string
+ * and character literals, line and block comments, identifiers, and numbers, so that
+ * braces, parentheses, and comment markers inside literals or comments are never mistaken
+ * for code.
+ *
+ * On top of the token stream, {@link #toLogicalLines()} produces the collapsed lines,
+ * brace and parenthesis depths, and method boundaries needed by
+ * {@link BeanshellSyntaxChecker} in the same pass.
+ *
+ * Only '\n' is treated as a line break, matching the line numbering used by the syntax
+ * checker, which splits the source on '\n'.
+ */
+public final class BeanshellLexer {
+
+	/**
+	 * One or more physical lines of source, collapsed into a single line because a
+	 * parenthesized expression or a block comment spans them
+	 */
+	public static final class LogicalLine {
+		/**
+		 * The net change in curly brace depth across this line, ignoring literals and comments
+		 */
+		private int braceDelta;
+
+		/**
+		 * True if this line contains no code, only whitespace and comments
+		 */
+		private boolean commentOnly;
+
+		/**
+		 * True if the line contains any '(' or '{' outside of literals and comments, or the 'return' keyword
+		 */
+		private boolean complex;
+
+		/**
+		 * True if the line begins with a method declaration whose body opens on this line
+		 */
+		private boolean methodStart;
+
+		/**
+		 * The zero-based index of the first physical line in this logical line
+		 */
+		private final int originalLine;
+
+		/**
+		 * The net change in parenthesis depth across this line, ignoring literals and comments
+		 */
+		private int parenDelta;
+
+		/**
+		 * True if the line is a simple variable declaration like 'String x;' or 'static int y = 5;'
+		 */
+		private boolean simpleDeclaration;
+
+		/**
+		 * The text of the line. Physical lines are joined without a line break, and line
+		 * comments are dropped from every physical line but the last.
+		 */
+		private String text;
+
+		LogicalLine(int originalLine) {
+			this.originalLine = originalLine;
+		}
+
+		public int getBraceDelta() {
+			return braceDelta;
+		}
+
+		public int getOriginalLine() {
+			return originalLine;
+		}
+
+		public int getParenDelta() {
+			return parenDelta;
+		}
+
+		public String getText() {
+			return text;
+		}
+
+		public boolean isCommentOnly() {
+			return commentOnly;
+		}
+
+		/**
+		 * @return True if the line contains any '(' or '{' outside of literals and comments, or the 'return' keyword
+		 */
+		public boolean isComplex() {
+			return complex;
+		}
+
+		public boolean isMethodStart() {
+			return methodStart;
+		}
+
+		public boolean isSimpleDeclaration() {
+			return simpleDeclaration;
+		}
+	}
+
+	/**
+	 * A single token, referencing a range of the source
+	 */
+	public static final class Token {
+		private final int end;
+		private final String source;
+		private final int start;
+		private final TokenType type;
+
+		Token(TokenType type, String source, int start, int end) {
+			this.type = type;
+			this.source = source;
+			this.start = start;
+			this.end = end;
+		}
+
+		/**
+		 * @return The offset just past the end of this token in the source
+		 */
+		public int getEnd() {
+			return end;
+		}
+
+		/**
+		 * @return The offset of the start of this token in the source
+		 */
+		public int getStart() {
+			return start;
+		}
+
+		public String getText() {
+			return source.substring(start, end);
+		}
+
+		public TokenType getType() {
+			return type;
+		}
+
+		/**
+		 * @param symbol The symbol to check
+		 * @return True if this token is the given single-character symbol
+		 */
+		public boolean is(char symbol) {
+			return type == TokenType.Symbol && source.charAt(start) == symbol;
+		}
+
+		/**
+		 * @param word The word to check
+		 * @return True if this token is an identifier or keyword with the given text
+		 */
+		public boolean isWord(String word) {
+			return type == TokenType.Identifier && (end - start) == word.length() && source.startsWith(word, start);
+		}
+
+		/**
+		 * @return True if this token is code, rather than whitespace or a comment
+		 */
+		public boolean isCode() {
+			return type != TokenType.Whitespace && type != TokenType.Newline && type != TokenType.LineComment && type != TokenType.BlockComment;
+		}
+	}
+
+	public enum TokenType {
+		BlockComment,
+		CharLiteral,
+		Identifier,
+		LineComment,
+		Newline,
+		Number,
+		StringLiteral,
+		Symbol,
+		Whitespace
+	}
+
+	/**
+	 * Keywords that can precede a '(' but never name a method being declared
+	 */
+	private static final Set<String> NON_METHOD_KEYWORDS = new HashSet<>(Arrays.asList(
+			"catch", "do", "else", "for", "if", "new", "return", "switch", "synchronized", "throw", "try", "while"
+	));
+
+	/**
+	 * States of the method declaration detector in {@link #toLogicalLines()}
+	 */
+	private enum HeaderState {
+		None,
+		Parameters,
+		AfterParameters
+	}
+
+	/**
+	 * The current position in the source
+	 */
+	private int position;
+
+	/**
+	 * The source being tokenized
+	 */
+	private final String source;
+
+	public BeanshellLexer(String source) {
+		this.source = source;
+		this.position = 0;
+	}
+
+	/**
+	 * Returns the next token, or null at the end of the source
+	 * @return The next token
+	 */
+	public Token next() {
+		int length = source.length();
+		if (position >= length) {
+			return null;
+		}
+		int start = position;
+		char c = source.charAt(position);
+		TokenType type;
+		if (c == '\n') {
+			position++;
+			type = TokenType.Newline;
+		} else if (c == '"' || c == '\'') {
+			// Beanshell literals cannot span lines, so an unterminated one ends at the newline
+			position++;
+			while (position < length) {
+				char ch = source.charAt(position);
+				if (ch == '\\' && position + 1 < length && source.charAt(position + 1) != '\n') {
+					position += 2;
+				} else if (ch == '\n') {
+					break;
+				} else {
+					position++;
+					if (ch == c) {
+						break;
+					}
+				}
+			}
+			type = (c == '"') ? TokenType.StringLiteral : TokenType.CharLiteral;
+		} else if (c == '/' && position + 1 < length && source.charAt(position + 1) == '/') {
+			while (position < length && source.charAt(position) != '\n') {
+				position++;
+			}
+			type = TokenType.LineComment;
+		} else if (c == '/' && position + 1 < length && source.charAt(position + 1) == '*') {
+			int close = source.indexOf("*/", position + 2);
+			position = (close < 0) ? length : close + 2;
+			type = TokenType.BlockComment;
+		} else if (Character.isWhitespace(c)) {
+			while (position < length && source.charAt(position) != '\n' && Character.isWhitespace(source.charAt(position))) {
+				position++;
+			}
+			type = TokenType.Whitespace;
+		} else if (Character.isJavaIdentifierStart(c)) {
+			while (position < length && Character.isJavaIdentifierPart(source.charAt(position))) {
+				position++;
+			}
+			type = TokenType.Identifier;
+		} else if (Character.isDigit(c)) {
+			while (position < length && (Character.isJavaIdentifierPart(source.charAt(position)) || source.charAt(position) == '.')) {
+				position++;
+			}
+			type = TokenType.Number;
+		} else {
+			position++;
+			type = TokenType.Symbol;
+		}
+		return new Token(type, source, start, position);
+	}
+
+	/**
+	 * Tokenizes the entire source
+	 * @return The list of tokens, including whitespace and comments
+	 */
+	public List<Token> tokenize() {
+		List<Token> tokens = new ArrayList<>();
+		for (Token token = next(); token != null; token = next()) {
+			tokens.add(token);
+		}
+		return tokens;
+	}
+
+	/**
+	 * Splits the source into logical lines in a single pass over the tokens. A line break
+	 * only ends a logical line when every parenthesis opened so far has been closed, so
+	 * that multi-line argument lists become a single line. Block comments are single tokens,
+	 * so a block comment spanning lines is flattened onto the line where it starts. Outside
+	 * of parentheses, the logical line then ends with the comment, and any code after the
+	 * comment starts a new logical line on the comment's last physical line, so that errors
+	 * in that code are reported on the right line.
+	 *
+	 * @return The logical lines
+	 */
+	public List<LogicalLine> toLogicalLines() {
+		List<LogicalLine> lines = new ArrayList<>();
+
+		int physicalLine = 0;
+		int braceDepth = 0;
+		int parenDepth = 0;
+
+		LogicalLine current = new LogicalLine(0);
+		StringBuilder text = new StringBuilder();
+		StringBuilder segment = new StringBuilder();
+		int segmentCommentStart = -1;
+
+		// The first few code tokens in the line, to detect simple declarations
+		List<Token> leadingTokens = new ArrayList<>();
+		Token lastCodeToken = null;
+		boolean hasCode = false;
+
+		HeaderState headerState = HeaderState.None;
+		Token previous = null;
+		Token beforePrevious = null;
+
+		for (Token token = next(); token != null; token = next()) {
+			boolean endOfLine = false;
+			if (token.getType() == TokenType.Newline) {
+				if (parenDepth > 0) {
+					// Join the next physical line onto this one
+					if (segmentCommentStart >= 0) {
+						segment.setLength(segmentCommentStart);
+					}
+					appendSegment(text, segment);
+					segment.setLength(0);
+					segmentCommentStart = -1;
+					physicalLine++;
+					continue;
+				}
+				physicalLine++;
+				endOfLine = true;
+			} else if (token.getType() == TokenType.BlockComment) {
+				// Flatten the comment onto one line, so each logical line is one line of output
+				boolean spansLines = false;
+				for (int i = token.getStart(); i < token.getEnd(); i++) {
+					char c = source.charAt(i);
+					if (c == '\n') {
+						physicalLine++;
+						spansLines = true;
+						segment.append(' ');
+					} else {
+						segment.append(c);
+					}
+				}
+				endOfLine = spansLines && parenDepth == 0;
+			}
+
+			if (endOfLine) {
+				appendSegment(text, segment);
+				finishLine(current, text, leadingTokens, lastCodeToken, hasCode);
+				lines.add(current);
+
+				current = new LogicalLine(physicalLine);
+				text.setLength(0);
+				segment.setLength(0);
+				segmentCommentStart = -1;
+				leadingTokens.clear();
+				lastCodeToken = null;
+				hasCode = false;
+				headerState = HeaderState.None;
+				previous = null;
+				beforePrevious = null;
+				continue;
+			}
+
+			if (token.getType() == TokenType.LineComment) {
+				segmentCommentStart = segment.length();
+				segment.append(source, token.getStart(), token.getEnd());
+			} else if (token.getType() != TokenType.BlockComment) {
+				segment.append(source, token.getStart(), token.getEnd());
+			}
+
+			if (!token.isCode()) {
+				continue;
+			}
+
+			hasCode = true;
+			lastCodeToken = token;
+			if (leadingTokens.size() < 4) {
+				leadingTokens.add(token);
+			}
+			if (token.is('(') || token.is('{') || token.isWord("return")) {
+				current.complex = true;
+			}
+
+			boolean topLevel = (braceDepth == 0 && parenDepth == 0);
+
+			// Detect method declarations of the form 'type name(...) throws X, Y {'
+			if (topLevel && token.is('(')) {
+				if (isMethodName(previous) && isReturnType(beforePrevious)) {
+					headerState = HeaderState.Parameters;
+				} else {
+					headerState = HeaderState.None;
+				}
+			} else if (headerState == HeaderState.AfterParameters && topLevel) {
+				if (token.is('{')) {
+					current.methodStart = true;
+					headerState = HeaderState.None;
+				} else if (!(token.getType() == TokenType.Identifier || token.is('.') || token.is(','))) {
+					headerState = HeaderState.None;
+				}
+			}
+
+			if (token.is('{')) {
+				braceDepth++;
+				current.braceDelta++;
+			} else if (token.is('}')) {
+				braceDepth = Math.max(0, braceDepth - 1);
+				current.braceDelta--;
+			} else if (token.is('(')) {
+				parenDepth++;
+				current.parenDelta++;
+			} else if (token.is(')')) {
+				// A stray ')' in half-typed code must not leave the rest of the script unsplittable
+				parenDepth = Math.max(0, parenDepth - 1);
+				current.parenDelta--;
+				if (parenDepth == 0 && braceDepth == 0 && headerState == HeaderState.Parameters) {
+					headerState = HeaderState.AfterParameters;
+				}
+			}
+
+			if (topLevel) {
+				beforePrevious = previous;
+				previous = token;
+			}
+		}
+
+		if (segment.length() > 0 || text.length() > 0 || lines.isEmpty()) {
+			appendSegment(text, segment);
+			finishLine(current, text, leadingTokens, lastCodeToken, hasCode);
+			lines.add(current);
+		}
+
+		return lines;
+	}
+
+	/**
+	 * Appends a physical line segment to the logical line text, adding a space only if
+	 * the join would otherwise fuse two words together
+	 */
+	private static void appendSegment(StringBuilder text, StringBuilder segment) {
+		if (text.length() > 0 && segment.length() > 0
+				&& Character.isJavaIdentifierPart(text.charAt(text.length() - 1))
+				&& Character.isJavaIdentifierPart(segment.charAt(0))) {
+			text.append(' ');
+		}
+		text.append(segment);
+	}
+
+	/**
+	 * Fills in the remaining properties of a logical line once all of its tokens are seen
+	 */
+	private static void finishLine(LogicalLine line, StringBuilder text, List<Token> leadingTokens, Token lastCodeToken, boolean hasCode) {
+		line.text = text.toString();
+		line.commentOnly = !hasCode;
+
+		// Matches '[static] Type name;' or '[static] Type name = value;'
+		int index = 0;
+		if (leadingTokens.size() > index && leadingTokens.get(index).isWord("static")) {
+			index++;
+		}
+		line.simpleDeclaration = leadingTokens.size() > index + 2
+				&& leadingTokens.get(index).getType() == TokenType.Identifier
+				&& leadingTokens.get(index + 1).getType() == TokenType.Identifier
+				&& (leadingTokens.get(index + 2).is(';') || leadingTokens.get(index + 2).is('='))
+				&& lastCodeToken != null && lastCodeToken.is(';');
+	}
+
+	/**
+	 * @param token The token before a top-level '('
+	 * @return True if the token could be the name of a declared method
+	 */
+	static boolean isMethodName(Token token) {
+		return token != null && token.getType() == TokenType.Identifier && !NON_METHOD_KEYWORDS.contains(token.getText());
+	}
+
+	/**
+	 * @param token The token before a candidate method name
+	 * @return True if the token could end the return type of a declared method
+	 */
+	static boolean isReturnType(Token token) {
+		if (token == null) {
+			return false;
+		}
+		if (token.is('>') || token.is(']')) {
+			return true;
+		}
+		return token.getType() == TokenType.Identifier && !NON_METHOD_KEYWORDS.contains(token.getText());
+	}
+}
@@ -14,6 +14,8 @@ import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.eclipse.jdt.core.compiler.CategorizedProblem;
 import org.eclipse.jdt.core.compiler.CharOperation;
+import org.eclipse.jdt.core.compiler.CompilationProgress;
+import org.eclipse.jdt.internal.compiler.ClassFile;
 import org.eclipse.jdt.internal.compiler.Compiler;
 import org.eclipse.jdt.internal.compiler.DefaultErrorHandlingPolicies;
 import org.eclipse.jdt.internal.compiler.ICompilerRequestor;
@@ -25,6 +27,7 @@ import org.eclipse.jdt.internal.compiler.env.NameEnvironmentAnswer;
 import org.eclipse.jdt.internal.compiler.impl.CompilerOptions;
 import org.eclipse.jdt.internal.compiler.problem.DefaultProblemFactory;
 import sailpoint.object.Plugin;
+import sailpoint.object.Rule;
 import sailpoint.plugin.PluginsCache;
 import sailpoint.server.Environment;
 import sailpoint.tools.GeneralException;
@@ -42,9 +45,16 @@ import java.nio.charset.Charset;
 import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.CancellationException;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -76,8 +86,27 @@ public class BeanshellSyntaxChecker {
 		 */
 		private final List<ICompilationUnit> units;
 
+		/**
+		 * The precompiled rule library classes available to this compilation, keyed by name
+		 */
+		private final Map<String, ClassFileReader> libraryTypes;
+
+		/**
+		 * Set to true if any type was resolved from a plugin's exported script packages
+		 */
+		private boolean pluginClassesReferenced;
+
 		public BeanshellNameEnvironment(List<ICompilationUnit> units) {
+			this(units, new HashMap<>());
+		}
+
+		/**
+		 * @param units The compilation units to check
+		 * @param libraryTypes The precompiled rule library classes the units may reference
+		 */
+		public BeanshellNameEnvironment(List<ICompilationUnit> units, Map<String, ClassFileReader> libraryTypes) {
 			this.units = units;
+			this.libraryTypes = libraryTypes;
 		}
 
 		@Override
@@ -86,44 +115,35 @@ public class BeanshellSyntaxChecker {
 		}
 
 		/**
-		 * Finds a class by name. This will first check the root classloader for the class,
-		 * and then check the plugin classloader for the class.
+		 * Gets the plugins cache, or null if IIQ has not been started, such as when the
+		 * syntax checker is run from {@link BeanshellSyntaxChecker#main(String[])} or the benchmarks
+		 *
+		 * @return The plugins cache, or null
+		 */
+		private PluginsCache getPluginsCache() {
+			Environment environment = Environment.getEnvironment();
+			return environment == null ? null : environment.getPluginsCache();
+		}
+
+		/**
+		 * Finds a class by name in the plugin classloader, by way of the {@link PluginClassCache}.
+		 * Plugins can only export classes with a package, and only from their script packages.
 		 *
 		 * @param name The name of the class
-		 * @return The contents of the class file
-		 * @throws Exception on failures
+		 * @return The contents of the class file, or null if no plugin exports it
+		 * @throws GeneralException on failures reading the plugin
 		 */
-		private byte[] findClass(String name) throws Exception {
-			final String resourceName = name.replace('.', '/') + ".class";
-			final InputStream is = this.getClass().getClassLoader().getResourceAsStream(resourceName);
-			if (is != null) {
-				try {
-					byte[] buf = new byte[1024 * 32];
-					ByteArrayOutputStream baos = new ByteArrayOutputStream(buf.length);
-					int count;
-					while ((count = is.read(buf, 0, buf.length)) > 0) {
-						baos.write(buf, 0, count);
-					}
-					baos.flush();
-					return baos.toByteArray();
-				} finally {
-					try {
-						is.close();
-					} catch (IOException ignore) {}
-				}
-			} else {
-				PluginsCache cache = Environment.getEnvironment().getPluginsCache();
-				if (name.contains(".")) {
-					// Plugins can only export classes with a package
-					String packageName = name.substring(0, name.lastIndexOf('.'));
-					for (String pluginName : cache.getCachedPlugins()) {
-						if (cache.isScriptPackage(pluginName, packageName)) {
-							PluginClassCache pluginClassCache = PluginClassCache.getInstance();
-							byte[] bytes = pluginClassCache.findPluginClass(pluginName, name);
-
-							if (bytes != null) {
-								return bytes;
-							}
+		private byte[] findPluginClass(String name) throws GeneralException {
+			PluginsCache cache = getPluginsCache();
+			if (cache != null && name.contains(".")) {
+				String packageName = name.substring(0, name.lastIndexOf('.'));
+				for (String pluginName : cache.getCachedPlugins()) {
+					if (cache.isScriptPackage(pluginName, packageName)) {
+						PluginClassCache pluginClassCache = PluginClassCache.getInstance();
+						byte[] bytes = pluginClassCache.findPluginClass(pluginName, name);
+
+						if (bytes != null) {
+							return bytes;
 						}
 					}
 				}
@@ -132,10 +152,30 @@ public class BeanshellSyntaxChecker {
 		}
 
 		/**
-		 * Finds a type by name, via {@link #findClass(String)}.
+		 * Finds a class by name in the root classloader.
+		 *
+		 * @param name The name of the class
+		 * @return The contents of the class file, or null if it is not on the classpath
+		 * @throws IOException on failures reading the class
+		 */
+		private byte[] findRootClass(String name) throws IOException {
+			final String resourceName = name.replace('.', '/') + ".class";
+			try (InputStream is = this.getClass().getClassLoader().getResourceAsStream(resourceName)) {
+				if (is == null) {
+					return null;
+				}
+				return is.readAllBytes();
+			}
+		}
+
+		/**
+		 * Finds a type by name. The type will be returned from the shared {@link ClassFileReaderCache}
+		 * if possible. Otherwise, the root classloader will be checked for the class, followed by
+		 * the script packages exported by plugins, and the parsed class will be cached.
 		 *
 		 * If the name is "_Test", it will return the first compilation unit, which is the Beanshell
-		 * script being syntax-checked.
+		 * script being syntax-checked. Names in the {@link #LIBRARY_PACKAGE} are answered only from
+		 * the precompiled rule libraries supplied for this compilation.
 		 *
 		 * @param compoundTypeName The name of the type
 		 * @return The type, if found
@@ -146,14 +186,40 @@ public class BeanshellSyntaxChecker {
 			if (fqn.equals("_Test")) {
 				return new NameEnvironmentAnswer(units.get(0), null);
 			}
+			if (fqn.startsWith(LIBRARY_PACKAGE + ".")) {
+				ClassFileReader libraryType = libraryTypes.get(fqn);
+				return libraryType == null ? null : new NameEnvironmentAnswer(libraryType, null);
+			}
+
+			NameLookupCache lookupCache = NameLookupCache.getInstance();
+			int lookupVersion = lookupCache.getPluginVersion();
+			if (lookupCache.isKnownMissing(fqn)) {
+				return null;
+			}
 
 			try {
-				byte[] bytes = findClass(fqn);
-				if (bytes == null) {
-					return null;
+				ClassFileReaderCache readerCache = ClassFileReaderCache.getInstance();
+				int readerVersion = readerCache.getPluginVersion();
+				ClassFileReaderCache.CachedType cached = readerCache.get(fqn);
+				if (cached == null) {
+					boolean fromPlugin = false;
+					byte[] bytes = findRootClass(fqn);
+					if (bytes == null) {
+						bytes = findPluginClass(fqn);
+						fromPlugin = true;
+					}
+					if (bytes == null) {
+						lookupCache.putMissing(fqn, lookupVersion);
+						return null;
+					}
+					ClassFileReader classFileReader = new ClassFileReader(bytes, fqn.toCharArray(), true);
+					cached = new ClassFileReaderCache.CachedType(classFileReader, fromPlugin, bytes.length);
+					readerCache.put(fqn, cached, readerVersion);
+				}
+				if (cached.isFromPlugin()) {
+					pluginClassesReferenced = true;
 				}
-				ClassFileReader classFileReader = new ClassFileReader(bytes, fqn.toCharArray(), true);
-				return new NameEnvironmentAnswer(classFileReader, null);
+				return new NameEnvironmentAnswer(cached.getReader(), null);
 			} catch (Exception e) {
 				return null;
 			}
@@ -164,6 +230,38 @@ public class BeanshellSyntaxChecker {
 			return findType(CharOperation.arrayConcat(packageName, typeName));
 		}
 
+		/**
+		 * @return True if any type was resolved from a plugin's exported script packages
+		 */
+		public boolean isPluginClassesReferenced() {
+			return pluginClassesReferenced;
+		}
+
+		/**
+		 * Check to see if this is a package. The answer is taken from the shared
+		 * {@link NameLookupCache} if possible, and otherwise computed by
+		 * {@link #computeIsPackage(String)} and cached.
+		 *
+		 * @param candidate The name to test
+		 * @return True if this is a package
+		 */
+		private boolean isPackage(final String candidate) {
+			NameLookupCache lookupCache = NameLookupCache.getInstance();
+			int lookupVersion = lookupCache.getPluginVersion();
+			Boolean cached = lookupCache.getPackage(candidate);
+			if (cached != null) {
+				return cached;
+			}
+			try {
+				boolean answer = computeIsPackage(candidate);
+				lookupCache.putPackage(candidate, answer, lookupVersion);
+				return answer;
+			} catch (IOException | GeneralException e) {
+				// Transient failures are not cached
+				return false;
+			}
+		}
+
 		/**
 		 * Check to see if this is a package. If we can load it as a resource, then
 		 * it's a class. If a plugin exports it, it's a class. Otherwise, it's a
@@ -171,13 +269,15 @@ public class BeanshellSyntaxChecker {
 		 *
 		 * @param candidate The name to test
 		 * @return True if this is a package
+		 * @throws IOException if the classpath cannot be read
+		 * @throws GeneralException if the plugin classes cannot be read
 		 */
-		private boolean isPackage(final String candidate) {
+		private boolean computeIsPackage(final String candidate) throws IOException, GeneralException {
 			String resourceName = candidate.replace('.', '/') + ".class";
 			try (InputStream is = Util.class.getClassLoader().getResourceAsStream(resourceName)) {
 				if (is == null) {
-					PluginsCache cache = Environment.getEnvironment().getPluginsCache();
-					for(String pluginName : cache.getCachedPlugins()) {
+					PluginsCache cache = getPluginsCache();
+					for(String pluginName : (cache == null ? Collections.<String>emptyList() : cache.getCachedPlugins())) {
 						if (cache.isScriptPackage(pluginName, candidate)) {
 							return true;
 						}
@@ -210,8 +310,6 @@ public class BeanshellSyntaxChecker {
 					// This is a class, so not a package
 					return false;
 				}
-			} catch (IOException | GeneralException e) {
-				return false;
 			}
 		}
 
@@ -219,7 +317,8 @@ public class BeanshellSyntaxChecker {
 		 * Check to see if this is a package, by forwarding to {@link #isPackage(String)}.
 		 *
 		 * If the input is simply "_Test", then it is not a package, because it is our current
-		 * Beanshell script.
+		 * Beanshell script. The {@link #LIBRARY_PACKAGE} is a package, and nothing inside of
+		 * it is.
 		 *
 		 * @param parentPackageName The parent package name
 		 * @param packageName The name to test
@@ -231,6 +330,12 @@ public class BeanshellSyntaxChecker {
 			if (fqn.equals("_Test")) {
 				return false;
 			}
+			if (fqn.equals(LIBRARY_PACKAGE)) {
+				return true;
+			}
+			if (fqn.startsWith(LIBRARY_PACKAGE + ".")) {
+				return false;
+			}
 			return isPackage(fqn);
 		}
 	}
@@ -241,16 +346,123 @@ public class BeanshellSyntaxChecker {
 	}
 
 	public static class SourceLine {
+		boolean methodStart;
 		int originalLine;
 		String sourceLine;
+		boolean topLevel;
 	}
 
+	/**
+	 * The package into which rule libraries are compiled by {@link #compileLibraryStub(String, Date, String, SLogger)}.
+	 * Java forbids importing from the default package, so the libraries cannot live there.
+	 */
+	public static final String LIBRARY_PACKAGE = "_rrp_libraries";
+
+	/**
+	 * The access modifiers replaced with 'public static' on rule library members
+	 */
+	private static final Pattern LIBRARY_MEMBER_MODIFIERS = Pattern.compile("^\\s*((public|protected|private|static)\\s+)*");
+
+	/**
+	 * Matches a typed variable declaration at the start of a line, capturing the type and the name
+	 */
+	private static final Pattern TYPED_DECLARATION = Pattern.compile("^\\s*(?:(?:final|static|public|protected|private|transient|volatile)\\s+)*([A-Za-z_$][\\w$]*(?:\\s*\\.\\s*[A-Za-z_$][\\w$]*)*(?:\\s*<.*?>)?(?:\\s*\\[\\s*\\])*)\\s+([A-Za-z_$][\\w$]*)\\s*(?:=(?!=)|;)");
+
+	/**
+	 * Matches a line that begins with a 'return' statement
+	 */
+	private static final Pattern RETURN_STATEMENT = Pattern.compile("^\\s*return\\b");
+
+	/**
+	 * Matches an untyped Beanshell assignment at the start of a line, capturing the name
+	 */
+	private static final Pattern UNTYPED_ASSIGNMENT = Pattern.compile("^\\s*([A-Za-z_$][\\w$]*)\\s*=(?!=)");
+
+	/**
+	 * Keywords that {@link #TYPED_DECLARATION} and {@link #UNTYPED_ASSIGNMENT} would otherwise mistake for a type or a name
+	 */
+	private static final Set<String> DECLARATION_KEYWORDS = new HashSet<>(Arrays.asList(
+			"assert", "case", "do", "else", "goto", "import", "instanceof", "new", "package", "return", "throw", "throws", "yield"
+	));
+
 	protected static final String RR_GENERIC_TYPE = "// RR generic type:";
 
 	/**
-	 * Used to detect function / method header blocks
+	 * Compiles a rule library on its own into a class in the {@link #LIBRARY_PACKAGE}, whose
+	 * fields and methods are all public and static. Scripts then reference the library by way
+	 * of a static import, so that the library does not need to be recompiled for every lint.
+	 *
+	 * Top-level statements in the library are not run, but the variables they declare or
+	 * assign become public static fields, so that a script may reference them. Errors within
+	 * the library are ignored, since ECJ still produces the signatures that the script needs.
+	 *
+	 * @param libraryName The name of the rule library
+	 * @param modified The modification date of the rule library
+	 * @param source The source code of the rule library
+	 * @param log The logger
+	 * @return The compiled library
+	 * @throws Exception if a parse error occurs
 	 */
-	private static final Pattern functionHeaderPattern = Pattern.compile("(public|private|static)*\\s*(\\w+)\\s+(\\w+)\\s*\\(.*?\\)\\s*(throws .*?)?\\s*\\{");
+	public static RuleLibraryStubCache.Stub compileLibraryStub(String libraryName, Date modified, String source, SLogger log) throws Exception {
+		return compileLibraryStub(libraryName, modified, source, log, null);
+	}
+
+	/**
+	 * Compiles a rule library as in {@link #compileLibraryStub(String, Date, String, SLogger)},
+	 * on behalf of the given syntax check, so that canceling the check also abandons the
+	 * library's compilation
+	 *
+	 * @param libraryName The name of the rule library
+	 * @param modified The modification date of the rule library
+	 * @param source The source code of the rule library
+	 * @param log The logger
+	 * @param owner The syntax check needing the library, or null
+	 * @return The compiled library
+	 * @throws CancellationException if the owning check was canceled
+	 * @throws Exception if a parse error occurs
+	 */
+	static RuleLibraryStubCache.Stub compileLibraryStub(String libraryName, Date modified, String source, SLogger log, BeanshellSyntaxChecker owner) throws Exception {
+		String simpleName = "_RuleLibrary_" + libraryName.replaceAll("[^A-Za-z0-9_]", "_") + "_" + Integer.toHexString(libraryName.hashCode());
+		BeanshellSyntaxChecker checker = new BeanshellSyntaxChecker(source, null, log);
+		checker.owner = owner;
+		// No line in a library is reported, so nothing needs to be translated back
+		checker.highestNonLibraryLine = -1;
+
+		List<Import> imports = new ArrayList<>();
+		String newSource = checker.mangleLibrary(simpleName, imports);
+		checker.compile(newSource, simpleName + ".java");
+		if (checker.isCanceled()) {
+			// An abandoned compilation is incomplete, so it must not be cached
+			throw new CancellationException("Syntax check canceled");
+		}
+
+		Map<String, ClassFileReader> classFiles = new HashMap<>();
+		int size = 0;
+		for(Map.Entry<String, byte[]> classFile : checker.classFiles.entrySet()) {
+			classFiles.put(classFile.getKey(), new ClassFileReader(classFile.getValue(), classFile.getKey().toCharArray(), true));
+			size += classFile.getValue().length;
+		}
+		List<String> importLines = new ArrayList<>();
+		for(Import imp : imports) {
+			importLines.add(imp.importLine);
+		}
+		return new RuleLibraryStubCache.Stub(LIBRARY_PACKAGE + "." + simpleName, modified, importLines, classFiles, size);
+	}
+
+	/**
+	 * Creates the options used for every compilation
+	 * @return The compiler options
+	 */
+	private static CompilerOptions createCompilerOptions() {
+		CompilerOptions options = new CompilerOptions();
+		options.targetJDK = CompilerOptions.releaseToJDKLevel(CompilerOptions.VERSION_11);
+		options.complianceLevel = CompilerOptions.releaseToJDKLevel(CompilerOptions.VERSION_11);
+		options.sourceLevel = CompilerOptions.releaseToJDKLevel("6");
+		options.suppressWarnings = true;
+		options.enableJdtDebugCompileMode = true;
+		options.produceReferenceInfo = true;
+		return options;
+	}
 
 	/**
 	 * Demo main method
@@ -285,6 +497,37 @@ public class BeanshellSyntaxChecker {
 		System.out.println(checker.parse());
 	}
 
+	/**
+	 * Set to true by {@link #cancel()} when this check has been superseded
+	 */
+	private volatile boolean canceled;
+
+	/**
+	 * The check on whose behalf this checker compiles a rule library, if any
+	 */
+	private BeanshellSyntaxChecker owner;
+
+	/**
+	 * The rule libraries still to be resolved to precompiled stubs when the check runs
+	 */
+	private final List<Rule> pendingLibraries;
+
+	/**
+	 * The class files produced by the most recent compilation, keyed by binary name
+	 */
+	private final Map<String, byte[]> classFiles;
+
+	/**
+	 * True if the most recent compilation produced any errors, including suppressed ones
+	 */
+	private boolean compilationErrors;
+
+	/**
+	 * Why the most recently mangled source would not behave like the script if it were
+	 * executed, or null if it would. Set by {@link #classifyLines(List, List, List, List)}.
+	 */
+	private String executionBlocker;
+
 	/**
 	 * A map of expected injected variables for the given rule type
 	 */
@@ -293,6 +536,10 @@ public class BeanshellSyntaxChecker {
 	 * The highest line number not associated with a library
 	 */
 	private int highestNonLibraryLine;
+	/**
+	 * The precompiled rule libraries referenced by the script
+	 */
+	private final List<RuleLibraryStubCache.Stub> libraryStubs;
 	/**
 	 * Logger
 	 */
@@ -333,6 +580,9 @@ public class BeanshellSyntaxChecker {
 		}
 		this.sourceLineConversionMap = new HashMap<>();
 		this.expectedInjectedVariables = new HashMap<>();
+		this.classFiles = new HashMap<>();
+		this.libraryStubs = new ArrayList<>();
+		this.pendingLibraries = new ArrayList<>();
 	}
 
 	public void addExpectedVariable(String variableName, String type) {
@@ -343,6 +593,40 @@ public class BeanshellSyntaxChecker {
 		this.expectedInjectedVariables.put(variableName, type.getName().replace("$", "."));
 	}
 
+	/**
+	 * Cancels this check, from any thread. A compilation in progress is abandoned at ECJ's
+	 * next progress check, and {@link #parse()} then throws a {@link CancellationException}.
+	 */
+	public void cancel() {
+		this.canceled = true;
+	}
+
+	/**
+	 * Adds a rule library, whose methods and fields the script may reference. The library
+	 * is taken from the {@link RuleLibraryStubCache}, or compiled, when {@link #parse()} runs,
+	 * so that the compilation happens on the lint pool and is canceled with the check.
+	 *
+	 * @param library The rule library
+	 */
+	public void addLibrary(Rule library) {
+		this.pendingLibraries.add(library);
+	}
+
+	/**
+	 * Adds a precompiled rule library, whose methods and fields the script may reference
+	 * @param stub The compiled library, from {@link RuleLibraryStubCache}
+	 */
+	public void addLibraryStub(RuleLibraryStubCache.Stub stub) {
+		this.libraryStubs.add(stub);
+	}
+
+	/**
+	 * @return True if this check, or the check on whose behalf it compiles a library, has been canceled
+	 */
+	private boolean isCanceled() {
+		return canceled || (owner != null && owner.isCanceled());
+	}
+
 	/**
 	 * Compiles the given source code using the standalone EclipseCompiler (ECJ), which produces
 	 * much better error messages than the built-in Java compiler.
@@ -353,7 +637,15 @@ public class BeanshellSyntaxChecker {
 	 */
 	public List<Map<String, Object>> compile(String code, String filename) {
 		List<Map<String, Object>> messages = new ArrayList<>();
+		classFiles.clear();
+		compilationErrors = false;
 		ICompilerRequestor requestor = result -> {
+			if (result.hasErrors()) {
+				compilationErrors = true;
+			}
+			for(ClassFile classFile : result.getClassFiles()) {
+				classFiles.put(CharOperation.toString(classFile.getCompoundName()), classFile.getBytes());
+			}
 			if (result.hasProblems()) {
 				for(CategorizedProblem problem : result.getErrors()) {
 					if (problem.getMessage() != null && problem.getMessage().contains("cannot convert from element type Object")) {
@@ -405,31 +697,238 @@ public class BeanshellSyntaxChecker {
 				}
 			}
 		};
-		CompilerOptions options = new CompilerOptions();
-		options.targetJDK = CompilerOptions.releaseToJDKLevel(CompilerOptions.VERSION_11);
-		options.complianceLevel = CompilerOptions.releaseToJDKLevel(CompilerOptions.VERSION_11);
-		options.sourceLevel = CompilerOptions.releaseToJDKLevel("6");
-		options.suppressWarnings = true;
-		options.enableJdtDebugCompileMode = true;
-		options.produceReferenceInfo = true;
 		CompilationUnit[] units = new CompilationUnit[] { new CompilationUnit(code.toCharArray(), filename, null) };
-		BeanshellNameEnvironment bne = new BeanshellNameEnvironment(Arrays.asList(units));
 		if (log.isDebugEnabled()) {
 			log.debug("Compiling source code " + code);
 		}
-		Compiler compiler = new Compiler(bne, DefaultErrorHandlingPolicies.exitAfterAllProblems(), options, requestor, new DefaultProblemFactory());
+		Map<String, ClassFileReader> libraryTypes = new HashMap<>();
+		for(RuleLibraryStubCache.Stub stub : libraryStubs) {
+			libraryTypes.putAll(stub.getClassFiles());
+		}
+		CompilationProgress progress = new CompilationProgress() {
+			@Override
+			public void begin(int remainingWork) {
+				/* Nothing to do */
+			}
+
+			@Override
+			public void done() {
+				/* Nothing to do */
+			}
+
+			@Override
+			public boolean isCanceled() {
+				return BeanshellSyntaxChecker.this.isCanceled();
+			}
+
+			@Override
+			public void setTaskName(String name) {
+				/* Nothing to do */
+			}
+
+			@Override
+			public void worked(int workIncrement, int remainingWork) {
+				/* Nothing to do */
+			}
+		};
+		BeanshellNameEnvironment bne = new BeanshellNameEnvironment(Arrays.asList(units), libraryTypes);
+		Compiler compiler = new Compiler(bne, DefaultErrorHandlingPolicies.exitAfterAllProblems(), createCompilerOptions(), requestor, new DefaultProblemFactory());
+		// ECJ polls the progress monitor between compilation phases and abandons the compilation quietly once it is canceled
+		compiler.progress = progress;
 		compiler.compile(units);
+		if (bne.isPluginClassesReferenced()) {
+			// The compiled class could not resolve these at runtime, so never execute it
+			compilationErrors = true;
+		}
 		if (log.isDebugEnabled()) {
 			log.debug("Error results are: " + messages);
 		}
 		return messages;
 	}
 
+	/**
+	 * Mangles and compiles the source code for execution rather than linting. Unlike
+	 * {@link #parse()}, no errors are suppressed here; any error at all, including one in
+	 * a rule library, means the script cannot be run as compiled code. If the same source,
+	 * with the same libraries and variables, was recently compiled, the result is taken
+	 * from the {@link CompiledScriptCache} instead.
+	 *
+	 * @return The compiled script, or null if the source is not valid Java
+	 * @throws CancellationException if the compilation was canceled by {@link #cancel()}
+	 * @throws Exception if a parse error occurs
+	 */
+	public CompiledScript compileForExecution() throws Exception {
+		if (canceled) {
+			throw new CancellationException("Compilation canceled");
+		}
+		String newSource = mangleSource();
+		if (executionBlocker != null) {
+			if (log.isDebugEnabled()) {
+				log.debug("Script cannot be executed as compiled code: " + executionBlocker);
+			}
+			return null;
+		}
+		// Never answered from the ParseResultCache, since the class files are needed
+		String cacheKey = parseCacheKey(newSource);
+		CompiledScriptCache compiledScriptCache = CompiledScriptCache.getInstance();
+		Optional<CompiledScript> cached = compiledScriptCache.get(cacheKey);
+		if (cached != null) {
+			if (log.isDebugEnabled()) {
+				log.debug("Returning cached compiled script for " + cacheKey);
+			}
+			return cached.orElse(null);
+		}
+		compile(newSource, "_RuleRunnerEmbedded.java");
+		if (canceled) {
+			// The result of an abandoned compilation is incomplete, so it must not be cached
+			throw new CancellationException("Compilation canceled");
+		}
+		if (compilationErrors || !classFiles.containsKey(CompiledScript.CLASS_NAME)) {
+			if (log.isDebugEnabled()) {
+				log.debug("Script did not compile cleanly; it cannot be executed as compiled code");
+			}
+			compiledScriptCache.put(cacheKey, null);
+			return null;
+		}
+		CompiledScript compiledScript = new CompiledScript(classFiles);
+		compiledScriptCache.put(cacheKey, compiledScript);
+		return compiledScript;
+	}
+
+	/**
+	 * Sorts each logical line of the raw source into an import line, a method line
+	 * (including the lines of a method body), a simple field declaration, or a standalone
+	 * line, as described in {@link #mangleSource()}.
+	 *
+	 * Along the way, this records in {@link #executionBlocker} anything that makes the
+	 * mangled source unfit to execute: a rewrite made only for linting, a rule library
+	 * statement that would run after the script rather than before it, or a script that
+	 * does not end in a top-level 'return', whose value Beanshell would take from its
+	 * last statement instead.
+	 *
+	 * @param imports The list to receive the import lines
+	 * @param blockLines The list to receive the method lines
+	 * @param staticLines The list to receive the simple field declarations
+	 * @param standaloneLines The list to receive every other line
+	 */
+	private void classifyLines(List<Import> imports, List<SourceLine> blockLines, List<SourceLine> staticLines, List<SourceLine> standaloneLines) {
+		this.originalLines = rawSource.split("\n");
+		boolean inBlock = false;
+		long curlyBraceBalance = 0;
+		long parensBalance = 0;
+
+		// A single pass over the source produces the collapsed lines, along with their
+		// brace and parenthesis counts and method boundaries, ignoring literals and comments
+		List<BeanshellLexer.LogicalLine> collapsedLines = new BeanshellLexer(rawSource).toLogicalLines();
+
+		String lastGenericSignature = null;
+		String lastGenericReplace = null;
+
+		this.executionBlocker = null;
+		boolean inLibraries = false;
+		SourceLine lastStatement = null;
+
+		for(BeanshellLexer.LogicalLine collapsedLine : collapsedLines) {
+			int lineNumber = collapsedLine.getOriginalLine();
+			String line = collapsedLine.getText();
+
+			// The marker is appended to the script's last line, so the libraries start on the next
+			boolean markerLine = line.contains("__RULE_LIBRARIES__");
+			if (markerLine) {
+				this.highestNonLibraryLine = lineNumber;
+			}
+			if (line.trim().startsWith("import ")) {
+				Import imp = new Import();
+				imp.originalLine = lineNumber;
+				imp.importLine = line;
+				imports.add(imp);
+			} else {
+
+				if (line.contains("void ==") || line.contains("== void") || line.contains("void !=") || line.contains("!= void")) {
+					line = line.replace("void", "\"\"");
+					blockExecution("a comparison with 'void' was rewritten for linting");
+				}
+
+				if (line.trim().startsWith(RR_GENERIC_TYPE)) {
+					lastGenericSignature = line.trim().substring(RR_GENERIC_TYPE.length()).trim() + " ";
+					lastGenericReplace = lastGenericSignature.substring(0, lastGenericSignature.indexOf("<")) + " ";
+				} else if (lastGenericReplace != null){
+					if (line.contains(lastGenericReplace)) {
+						line = line.replaceFirst(Pattern.quote(lastGenericReplace), Matcher.quoteReplacement(lastGenericSignature));
+						lastGenericReplace = null;
+						lastGenericSignature = null;
+						blockExecution("a declaration was rewritten with its generic type for linting");
+					}
+				}
+
+				if (line.trim().startsWith("// Expect: ")) {
+					String expectContent = line.trim().substring("// Expect: ".length()).trim();
+					String name = expectContent.substring(expectContent.lastIndexOf(" ") + 1);
+					String type = expectContent.substring(0, expectContent.lastIndexOf(" "));
+
+					expectedInjectedVariables.put(name, type);
+				}
+
+				SourceLine sourceLine = new SourceLine();
+				sourceLine.originalLine = lineNumber;
+				sourceLine.sourceLine = line;
+
+				boolean topLevel = (curlyBraceBalance == 0 && parensBalance == 0);
+				sourceLine.topLevel = topLevel;
+				if (!inBlock && topLevel && collapsedLine.isMethodStart()) {
+					inBlock = true;
+					sourceLine.methodStart = true;
+				}
+
+				if (inBlock) {
+					blockLines.add(sourceLine);
+				} else if (topLevel && collapsedLine.isSimpleDeclaration() && !collapsedLine.isComplex()) {
+					staticLines.add(sourceLine);
+				} else {
+					standaloneLines.add(sourceLine);
+					if (!collapsedLine.isCommentOnly()) {
+						if (inLibraries) {
+							blockExecution("a rule library has top-level statements, which would run after the script");
+						} else {
+							lastStatement = sourceLine;
+						}
+					}
+				}
+
+				curlyBraceBalance += collapsedLine.getBraceDelta();
+				parensBalance += collapsedLine.getParenDelta();
+
+				if (inBlock && curlyBraceBalance == 0) {
+					inBlock = false;
+				}
+			}
+			if (markerLine) {
+				inLibraries = true;
+			}
+		}
+
+		if (lastStatement == null || !lastStatement.topLevel || !RETURN_STATEMENT.matcher(lastStatement.sourceLine).find()) {
+			blockExecution("the script does not end with a top-level 'return'");
+		}
+	}
+
+	/**
+	 * Records the first reason the mangled source cannot be executed
+	 * @param reason The reason
+	 */
+	private void blockExecution(String reason) {
+		if (this.executionBlocker == null) {
+			this.executionBlocker = reason;
+		}
+	}
+
 	/**
 	 * Takes the given Beanshell source code and forces it into a Java class structure
 	 * to be compiled. This does a bunch of interesting operations on the source code.
 	 *
-	 * First, it collapses parentheses blocks across multiple lines into a single line.
+	 * First, it tokenizes the source with a {@link BeanshellLexer}, which ignores string
+	 * literals and comments, and collapses parentheses blocks across multiple lines into
+	 * a single line.
 	 * For example, a function call like:
 	 *
 	 *   f(
@@ -450,7 +949,7 @@ public class BeanshellSyntaxChecker {
 	 * latter is compatible with the IIQDA Eclipse plugin. The former works around the
 	 * generic type limitations of Beanshell.
 	 *
-	 * Fourth, it chops comments off the end of lines.
+	 * Fourth, it chops comments off the end of lines that are collapsed into the next.
 	 *
 	 * Fifth, it rearranges the source so that methods are outside of the main source
 	 * code by identifying each line of code as either an "import line", "method line"
@@ -472,7 +971,7 @@ public class BeanshellSyntaxChecker {
 	 *
 	 *   	 // INPUT: Specific static variables expected for rule inputs
 	 *
-	 *       // INPUT: Rule library methods
+	 *       // INPUT: Rule library methods, unless precompiled
 	 *
 	 *       // INPUT: Your Beanshell script methods
 	 *
@@ -481,6 +980,10 @@ public class BeanshellSyntaxChecker {
 	 *       }
 	 *   }
 	 *
+	 * Rule libraries added by {@link #addLibraryStub(RuleLibraryStubCache.Stub)} are not
+	 * included in the class at all. Instead, the library's imports and a static import of
+	 * its precompiled class are added to the imports.
+	 *
 	 * Original line numbers and character positions are retained so that the error can
 	 * be appropriately swapped back to its position in Beanshell.
 	 *
@@ -492,147 +995,8 @@ public class BeanshellSyntaxChecker {
 		List<SourceLine> blockLines = new ArrayList<>();
 		List<SourceLine> standaloneLines = new ArrayList<>();
 		List<SourceLine> staticLines = new ArrayList<>();
-		List<SourceLine> collapsedBlockLines = new ArrayList<>();
-
-		this.originalLines = rawSource.split("\n");
-		boolean inBlock = false;
-		long curlyBraceBalance = 0;
-		long parensBalance = 0;
-
-		String lineContent = "";
-		int lastStartLine = 0;
-
-		for (int lineNumber = 0; lineNumber < originalLines.length; lineNumber++) {
-			lineContent += originalLines[lineNumber];
-
-			long openParens = lineContent.chars().filter(ch -> ch == '(').count();
-			long closeParens = lineContent.chars().filter(ch -> ch == ')').count();
-			parensBalance = openParens - closeParens;
-
-			if (lineContent.trim().startsWith("//") || parensBalance == 0) {
-				SourceLine sourceLine = new SourceLine();
-				sourceLine.originalLine = lastStartLine;
-				sourceLine.sourceLine = lineContent;
-
-				collapsedBlockLines.add(sourceLine);
-
-				lineContent = "";
-				lastStartLine = lineNumber + 1;
-			}
-		}
-
-		parensBalance = 0;
-
-		String lastGenericSignature = null;
-		String lastGenericReplace = null;
-
-		for(SourceLine collapsedLine : collapsedBlockLines) {
-			int lineNumber = collapsedLine.originalLine;
-			String line = collapsedLine.sourceLine;
-
-			if (line.contains("__RULE_LIBRARIES__")) {
-				this.highestNonLibraryLine = lineNumber;
-			}
-			if (line.trim().startsWith("import ")) {
-				Import imp = new Import();
-				imp.originalLine = lineNumber;
-				imp.importLine = line;
-				imports.add(imp);
-			} else {
-
-				if (line.contains("void ==") || line.contains("== void") || line.contains("void !=") || line.contains("!= void")) {
-					line = line.replace("void", "\"\"");
-				}
-
-				if (line.trim().startsWith(RR_GENERIC_TYPE)) {
-					lastGenericSignature = line.trim().substring(RR_GENERIC_TYPE.length()).trim() + " ";
-					lastGenericReplace = lastGenericSignature.substring(0, lastGenericSignature.indexOf("<")) + " ";
-				} else if (lastGenericReplace != null){
-					if (line.contains(lastGenericReplace)) {
-						line = line.replaceFirst(Pattern.quote(lastGenericReplace), Matcher.quoteReplacement(lastGenericSignature));
-						lastGenericReplace = null;
-						lastGenericSignature = null;
-					}
-				}
-
-				if (line.trim().startsWith("// Expect: ")) {
-					String expectContent = line.trim().substring("// Expect: ".length()).trim();
-					String name = expectContent.substring(expectContent.lastIndexOf(" ") + 1);
-					String type = expectContent.substring(0, expectContent.lastIndexOf(" "));
-
-					expectedInjectedVariables.put(name, type);
-				}
-
-				SourceLine sourceLine = new SourceLine();
-				sourceLine.originalLine = lineNumber;
-				sourceLine.sourceLine = line;
-
-				if (!inBlock) {
-					if (curlyBraceBalance == 0 && parensBalance == 0) {
-						Matcher matcher = functionHeaderPattern.matcher(line);
-						if (matcher.find()) {
-							String linePart = matcher.group().trim();
-							if (!(linePart.startsWith("catch ") || linePart.startsWith("catch(") || linePart.startsWith("if") || linePart.startsWith("while") || linePart.startsWith("for"))) {
-								//System.out.println("In method " + matcher.group());
-								inBlock = true;
-							}
-						}
-					}
-					if (inBlock) {
-						blockLines.add(sourceLine);
-					} else {
-						if (parensBalance == 0 && curlyBraceBalance == 0 && (
-								line.trim().matches("(static\\s+)?(\\w+)\\s+(\\w+)\\s*;")||
-										line.trim().matches("(static\\s+)?(\\w+)\\s+(\\w+)\\s*=\\s*.*;"))
-						) {
-							if (line.trim().contains("(") || line.trim().contains("{") || line.trim().contains("return ")) {
-								standaloneLines.add(sourceLine);
-							} else {
-								staticLines.add(sourceLine);
-							}
-						} else {
-							standaloneLines.add(sourceLine);
-						}
-					}
-
-					if (line.contains("//")) {
-						line = line.substring(0, line.indexOf("//"));
-					}
-
-					long openBraces = line.chars().filter(ch -> ch == '{').count();
-					long closeBraces = line.chars().filter(ch -> ch == '}').count();
-					curlyBraceBalance += openBraces;
-					curlyBraceBalance -= closeBraces;
-
-					long openParens = line.chars().filter(ch -> ch == '(').count();
-					long closeParens = line.chars().filter(ch -> ch == ')').count();
-					parensBalance += openParens;
-					parensBalance -= closeParens;
-
-				} else {
-					blockLines.add(sourceLine);
-
-					if (line.contains("//")) {
-						line = line.substring(0, line.indexOf("//"));
-					}
 
-					long openBraces = line.chars().filter(ch -> ch == '{').count();
-					long closeBraces = line.chars().filter(ch -> ch == '}').count();
-					curlyBraceBalance += openBraces;
-					curlyBraceBalance -= closeBraces;
-
-					long openParens = line.chars().filter(ch -> ch == '(').count();
-					long closeParens = line.chars().filter(ch -> ch == ')').count();
-					parensBalance += openParens;
-					parensBalance -= closeParens;
-
-					if (curlyBraceBalance == 0) {
-						inBlock = false;
-						//System.out.println("Left method; parens balance = " + parensBalance);
-					}
-				}
-			}
-		}
+		classifyLines(imports, blockLines, staticLines, standaloneLines);
 
 		ByteArrayOutputStream baos = new ByteArrayOutputStream();
 		PrintWriter pw = new PrintWriter(baos);
@@ -651,13 +1015,34 @@ public class BeanshellSyntaxChecker {
 		pw.println("import sailpoint.api.SailPointContext;");
 		pw.println("import org.apache.commons.logging.Log;");
 
+		newLineNumber += 6;
+
+		// Precompiled libraries, along with their imports, which Beanshell shares with the script
+		Set<String> seenImports = new HashSet<>();
+		Map<String, String> singleTypeImports = new HashMap<>();
+		for(Import imp : imports) {
+			addImport(imp.importLine, seenImports, singleTypeImports);
+		}
+		for(RuleLibraryStubCache.Stub stub : libraryStubs) {
+			for(String importLine : stub.getImports()) {
+				if (addImport(importLine, seenImports, singleTypeImports)) {
+					pw.println(importLine);
+					newLineNumber++;
+				} else if (log.isDebugEnabled()) {
+					log.debug("Skipping duplicate or clashing library import " + importLine.trim());
+				}
+			}
+			pw.println("import static " + stub.getClassName() + ".*;");
+			newLineNumber++;
+		}
+
 		pw.println("public class _Test {");
 		pw.println("private static SailPointContext context;");
 		pw.println("private static Log log;");
 		pw.println("private static Log _log;");
 		pw.println("private static Log __log;");
 
-		newLineNumber += 11;
+		newLineNumber += 5;
 
 		if (!expectedInjectedVariables.isEmpty()) {
 			for(String variable : expectedInjectedVariables.keySet()) {
@@ -713,13 +1098,206 @@ public class BeanshellSyntaxChecker {
 	}
 
 	/**
-	 * Mangles and then compiles the source code, producing a List of error messages and locations
+	 * Records an import line, unless it repeats one already seen, or it is a single-type
+	 * import whose simple name is already imported from another package, which Java rejects.
+	 * Imports are recorded in order, so the script's own imports take precedence over its
+	 * libraries', and earlier libraries over later ones.
+	 *
+	 * @param importLine The import line
+	 * @param seenImports The normalized import lines already recorded
+	 * @param singleTypeImports The single-type imports already recorded, from simple name to qualified name
+	 * @return True if the import was recorded, false if it should be omitted
+	 */
+	private static boolean addImport(String importLine, Set<String> seenImports, Map<String, String> singleTypeImports) {
+		String normalized = importLine.trim().replaceAll("\\s+", " ").replaceAll("\\s*([.;])\\s*", "$1");
+		if (!seenImports.add(normalized)) {
+			return false;
+		}
+		if (normalized.startsWith("import ") && !normalized.startsWith("import static ") && normalized.endsWith(";") && !normalized.endsWith(".*;")) {
+			String qualifiedName = normalized.substring("import ".length(), normalized.length() - 1).trim();
+			String simpleName = qualifiedName.substring(qualifiedName.lastIndexOf('.') + 1);
+			String existing = singleTypeImports.putIfAbsent(simpleName, qualifiedName);
+			if (existing != null && !existing.equals(qualifiedName)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Gets the field that a top-level library line declares or assigns, if any
+	 *
+	 * @param line The source line
+	 * @return The type and the name of the field, or null if the line declares nothing
+	 */
+	private static String[] getLibraryField(String line) {
+		Matcher typed = TYPED_DECLARATION.matcher(line);
+		if (typed.find() && !DECLARATION_KEYWORDS.contains(typed.group(1)) && !DECLARATION_KEYWORDS.contains(typed.group(2))) {
+			return new String[] { typed.group(1), typed.group(2) };
+		}
+		Matcher untyped = UNTYPED_ASSIGNMENT.matcher(line);
+		if (untyped.find() && !DECLARATION_KEYWORDS.contains(untyped.group(1))) {
+			return new String[] { "Object", untyped.group(1) };
+		}
+		return null;
+	}
+
+	/**
+	 * Forces a rule library into a Java class in the {@link #LIBRARY_PACKAGE}, in the same way
+	 * as {@link #mangleSource()}, except that every method and simple field is made public and
+	 * static. Other top-level lines are not compiled, but a variable that one declares or
+	 * assigns becomes a public static field, without its initializer.
+	 *
+	 * @param simpleName The simple name of the library class
+	 * @param imports The list to receive the library's import lines
+	 * @return The transformed source code
+	 * @throws UnsupportedEncodingException if the data cannot be read
+	 */
+	private String mangleLibrary(String simpleName, List<Import> imports) throws UnsupportedEncodingException {
+		List<SourceLine> blockLines = new ArrayList<>();
+		List<SourceLine> standaloneLines = new ArrayList<>();
+		List<SourceLine> staticLines = new ArrayList<>();
+
+		classifyLines(imports, blockLines, staticLines, standaloneLines);
+
+		ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		PrintWriter pw = new PrintWriter(baos);
+		int newLineNumber = 0;
+
+		pw.println("package " + LIBRARY_PACKAGE + ";");
+		newLineNumber++;
+
+		for(Import imp : imports) {
+			sourceLineConversionMap.put(newLineNumber, imp.originalLine);
+			pw.println(imp.importLine);
+			newLineNumber++;
+		}
+
+		pw.println("import java.util.*;");
+		pw.println("import java.io.*;");
+		pw.println("import sailpoint.api.SailPointContext;");
+		pw.println("import org.apache.commons.logging.Log;");
+
+		pw.println("public class " + simpleName + " {");
+		pw.println("private static SailPointContext context;");
+		pw.println("private static Log log;");
+		pw.println("private static Log _log;");
+		pw.println("private static Log __log;");
+
+		newLineNumber += 9;
+
+		Set<String> fieldNames = new HashSet<>(Arrays.asList("context", "log", "_log", "__log"));
+		for(SourceLine line : staticLines) {
+			sourceLineConversionMap.put(newLineNumber, line.originalLine);
+			pw.println(LIBRARY_MEMBER_MODIFIERS.matcher(line.sourceLine).replaceFirst("public static "));
+			newLineNumber++;
+			String[] field = getLibraryField(line.sourceLine);
+			if (field != null) {
+				fieldNames.add(field[1]);
+			}
+		}
+
+		// The variables set by the library's top-level statements, which Beanshell shares with the script
+		for(SourceLine line : standaloneLines) {
+			String[] field = line.topLevel ? getLibraryField(line.sourceLine) : null;
+			if (field != null && fieldNames.add(field[1])) {
+				sourceLineConversionMap.put(newLineNumber, line.originalLine);
+				pw.println("public static " + field[0] + " " + field[1] + ";");
+				newLineNumber++;
+			}
+		}
+
+		for(SourceLine line : blockLines) {
+			sourceLineConversionMap.put(newLineNumber, line.originalLine);
+			if (line.methodStart) {
+				pw.println(LIBRARY_MEMBER_MODIFIERS.matcher(line.sourceLine).replaceFirst("public static "));
+			} else {
+				pw.println(line.sourceLine);
+			}
+			newLineNumber++;
+		}
+
+		pw.println("}");
+
+		pw.close();
+		String newSource = baos.toString("UTF-8");
+
+		log.debug(newSource);
+
+		return newSource;
+	}
+
+	/**
+	 * Mangles and then compiles the source code, producing a List of error messages and locations.
+	 * If the same source, with the same libraries and options, was recently parsed, the result
+	 * is taken from the {@link ParseResultCache} instead.
+	 *
 	 * @return The list of error messages (if any)
+	 * @throws CancellationException if the check was canceled by {@link #cancel()}
 	 * @throws Exception if a parse error occurs
 	 */
 	public List<Map<String, Object>> parse() throws Exception {
+		if (canceled) {
+			throw new CancellationException("Syntax check canceled");
+		}
+		resolveLibraries();
 		String newSource = mangleSource();
-		return compile(newSource, "_RuleRunnerEmbedded.java");
+		String cacheKey = parseCacheKey(newSource);
+		ParseResultCache parseResultCache = ParseResultCache.getInstance();
+		List<Map<String, Object>> cached = parseResultCache.get(cacheKey);
+		if (cached != null) {
+			if (log.isDebugEnabled()) {
+				log.debug("Returning cached parse result for " + cacheKey);
+			}
+			return cached;
+		}
+		List<Map<String, Object>> messages = compile(newSource, "_RuleRunnerEmbedded.java");
+		if (canceled) {
+			// The result of an abandoned compilation is incomplete, so it must not be cached
+			throw new CancellationException("Syntax check canceled");
+		}
+		parseResultCache.put(cacheKey, messages);
+		return messages;
+	}
+
+	/**
+	 * Resolves the libraries added by {@link #addLibrary(Rule)} to precompiled stubs,
+	 * compiling any that are not cached
+	 *
+	 * @throws CancellationException if the check is canceled
+	 * @throws Exception if a library cannot be parsed
+	 */
+	private void resolveLibraries() throws Exception {
+		RuleLibraryStubCache stubCache = RuleLibraryStubCache.getInstance();
+		for(Rule library : pendingLibraries) {
+			if (canceled) {
+				throw new CancellationException("Syntax check canceled");
+			}
+			addLibraryStub(stubCache.getStub(library, log, this));
+		}
+		pendingLibraries.clear();
+	}
+
+	/**
+	 * Computes the {@link ParseResultCache} key for the given mangled source. The raw source
+	 * is included because error positions are computed from it, and each library's
+	 * modification date is included because the mangled source only names the library.
+	 *
+	 * @param newSource The mangled source
+	 * @return The cache key
+	 */
+	private String parseCacheKey(String newSource) {
+		StringBuilder libraries = new StringBuilder();
+		for(RuleLibraryStubCache.Stub stub : libraryStubs) {
+			libraries.append(stub.getClassName()).append('@').append(stub.getModified() == null ? 0 : stub.getModified().getTime()).append(';');
+		}
+		return Utils.digest(
+				rawSource,
+				newSource,
+				new TreeMap<>(expectedInjectedVariables).toString(),
+				libraries.toString(),
+				String.valueOf(suppressRawTypeErrors)
+		);
 	}
 
 	public void setSuppressRawTypeErrors(boolean suppressRawTypeErrors) {
@@ -0,0 +1,78 @@
+package com.identityworksllc.iiq.plugins.rrp;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A version counter for the observable state of one background rule, which a reader can
+ * wait on until it moves past the version the reader last saw. This lets an
+ * {@link AsyncRuleStream} sleep until the rule logs, reports progress, starts, or finishes,
+ * rather than waking on a timer to look for changes.
+ *
+ * Signaling is on the rule's own thread for every message logged, so it costs a single
+ * atomic increment unless a reader is waiting. The version is incremented before the
+ * waiter count is read, and a reader registers before reading the version, so one of the
+ * two always sees the other.
+ */
+final class ChangeSignal {
+    /**
+     * The current version, incremented on every change
+     */
+    private final AtomicLong version;
+
+    /**
+     * The number of readers waiting for a change
+     */
+    private final AtomicInteger waiters;
+
+    ChangeSignal() {
+        this.version = new AtomicLong();
+        this.waiters = new AtomicInteger();
+    }
+
+    /**
+     * Waits until the version moves past the given one, or the timeout elapses
+     *
+     * @param seenVersion The version the reader last saw
+     * @param timeoutMillis The longest to wait, in milliseconds
+     * @return The current version
+     * @throws InterruptedException if the reader is interrupted while waiting
+     */
+    long await(long seenVersion, long timeoutMillis) throws InterruptedException {
+        waiters.incrementAndGet();
+        try {
+            long deadline = System.currentTimeMillis() + timeoutMillis;
+            synchronized (this) {
+                while(version.get() == seenVersion) {
+                    long remaining = deadline - System.currentTimeMillis();
+                    if (remaining <= 0) {
+                        break;
+                    }
+                    wait(remaining);
+                }
+            }
+        } finally {
+            waiters.decrementAndGet();
+        }
+        return version.get();
+    }
+
+    /**
+     * @return The current version
+     */
+    long getVersion() {
+        return version.get();
+    }
+
+    /**
+     * Records a change, waking any waiting readers
+     */
+    void signal() {
+        version.incrementAndGet();
+        if (waiters.get() > 0) {
+            synchronized (this) {
+                notifyAll();
+            }
+        }
+    }
+}
@@ -0,0 +1,204 @@
+package com.identityworksllc.iiq.plugins.rrp;
+
+import com.identityworksllc.iiq.common.Utilities;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.eclipse.jdt.internal.compiler.classfmt.ClassFileReader;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * A process-wide cache of parsed {@link ClassFileReader}s, shared by every
+ * {@link BeanshellSyntaxChecker.BeanshellNameEnvironment}. Without it, each lint request
+ * re-reads and re-parses every JDK and IIQ class referenced by the script.
+ *
+ * The cache is bounded by the total size of the cached class files, evicting the least
+ * recently used entries first. Like {@link PluginClassCache}, it is versioned, so that
+ * installing or upgrading any plugin clears it.
+ */
+public class ClassFileReaderCache {
+    /**
+     * A cached, fully initialized class file reader
+     */
+    public static final class CachedType {
+        /**
+         * True if the class was exported by a plugin rather than found on the classpath
+         */
+        private final boolean fromPlugin;
+
+        /**
+         * The parsed class file
+         */
+        private final ClassFileReader reader;
+
+        /**
+         * The size of the class file, used to estimate the memory used by the reader
+         */
+        private final int size;
+
+        public CachedType(ClassFileReader reader, boolean fromPlugin, int size) {
+            this.reader = reader;
+            this.fromPlugin = fromPlugin;
+            this.size = size;
+        }
+
+        public ClassFileReader getReader() {
+            return reader;
+        }
+
+        public int getSize() {
+            return size;
+        }
+
+        public boolean isFromPlugin() {
+            return fromPlugin;
+        }
+    }
+
+    /**
+     * Singleton instance of the ClassFileReaderCache
+     */
+    private static final ClassFileReaderCache INSTANCE = new ClassFileReaderCache();
+
+    /**
+     * The maximum total size of the cached class files
+     */
+    private static final long MAX_CACHED_BYTES = 32L * 1024 * 1024;
+
+    /**
+     * Logger
+     */
+    private static final Log log = LogFactory.getLog(ClassFileReaderCache.class);
+
+    /**
+     * Gets the singleton instance of the ClassFileReaderCache
+     * @return the singleton instance of the ClassFileReaderCache
+     */
+    public static ClassFileReaderCache getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * The cached readers, in least-recently-used order
+     */
+    private final LinkedHashMap<String, CachedType> cache;
+
+    /**
+     * The total size of the cached class files
+     */
+    private long cachedBytes;
+
+    /**
+     * The number of lookups answered from the cache
+     */
+    private long hits;
+
+    /**
+     * The number of lookups not answered from the cache
+     */
+    private long misses;
+
+    /**
+     * The plugin version at which the cache contents were loaded
+     */
+    private int pluginVersion;
+
+    /**
+     * Private constructor to enforce singleton pattern
+     */
+    private ClassFileReaderCache() {
+        this.cache = new LinkedHashMap<>(256, 0.75f, true);
+        this.pluginVersion = -1;
+    }
+
+    /**
+     * Clears the cache if the plugin version has changed since it was loaded. Must be
+     * invoked while holding the lock on this object.
+     */
+    private void checkVersion() {
+        int currentVersion = Utilities.getPluginVersionInt();
+        if (currentVersion != pluginVersion) {
+            if (log.isDebugEnabled() && pluginVersion != -1) {
+                log.debug("Plugin version changed from " + pluginVersion + " to " + currentVersion + "; clearing " + cache.size() + " cached class readers");
+            }
+            cache.clear();
+            cachedBytes = 0;
+            pluginVersion = currentVersion;
+        }
+    }
+
+    /**
+     * Gets the cached reader for the given class
+     *
+     * @param className The fully qualified class name
+     * @return The cached reader, or null if it is not cached
+     */
+    public synchronized CachedType get(String className) {
+        checkVersion();
+        CachedType cached = cache.get(className);
+        if (cached != null) {
+            hits++;
+        } else {
+            misses++;
+        }
+        return cached;
+    }
+
+    /**
+     * Gets the size and hit counters for this cache, for display to administrators
+     * @return The statistics, keyed by name
+     */
+    public synchronized Map<String, Object> getStatistics() {
+        Map<String, Object> stats = new TreeMap<>();
+        stats.put("entries", cache.size());
+        stats.put("cachedBytes", cachedBytes);
+        stats.put("hits", hits);
+        stats.put("misses", misses);
+        stats.put("hitRate", (hits + misses) == 0 ? 0.0 : (double) hits / (hits + misses));
+        return stats;
+    }
+
+    /**
+     * Gets the plugin version at which the cache contents are valid, clearing the cache
+     * first if the version has changed. Callers read this before loading a class and pass
+     * it to {@link #put(String, CachedType, int)}, so that a class loaded before a plugin
+     * reload is not stored after it.
+     *
+     * @return The current plugin version
+     */
+    public synchronized int getPluginVersion() {
+        checkVersion();
+        return pluginVersion;
+    }
+
+    /**
+     * Caches the reader for the given class, evicting the least recently used readers
+     * until the cache is back under its size limit. Does nothing if the plugin version
+     * has changed since the class was loaded.
+     *
+     * @param className The fully qualified class name
+     * @param type The reader to cache
+     * @param version The plugin version read by {@link #getPluginVersion()} before the class was loaded
+     */
+    public synchronized void put(String className, CachedType type, int version) {
+        checkVersion();
+        if (version != pluginVersion) {
+            return;
+        }
+        CachedType previous = cache.put(className, type);
+        if (previous != null) {
+            cachedBytes -= previous.getSize();
+        }
+        cachedBytes += type.getSize();
+
+        Iterator<Map.Entry<String, CachedType>> iterator = cache.entrySet().iterator();
+        while (cachedBytes > MAX_CACHED_BYTES && iterator.hasNext()) {
+            Map.Entry<String, CachedType> eldest = iterator.next();
+            cachedBytes -= eldest.getValue().getSize();
+            iterator.remove();
+        }
+    }
+}
@@ -0,0 +1,190 @@
+package com.identityworksllc.iiq.plugins.rrp;
+
+import sailpoint.api.SailPointContext;
+import sailpoint.tools.GeneralException;
+
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A Beanshell script that has been transformed into the synthetic {@code _Test} class
+ * by {@link BeanshellSyntaxChecker} and compiled to bytecode by ECJ. Executing it loads
+ * the class in a throwaway classloader, injects the rule inputs into the generated static
+ * fields, and invokes the generated standalone method directly, skipping the Beanshell
+ * interpreter entirely.
+ *
+ * The script is compiled with the cooperative interrupt checks added by
+ * {@link RuleRunnerResource#addInterrupts(String)}, so it must be run with a
+ * {@link RuleInterruptCheck.Unchecked} bound to {@link RuleRunnerResource#VAR_INTERRUPTS}.
+ * A parameter whose value cannot be assigned to the field of the same name is an error,
+ * rather than being left null; callers check {@link #getUninjectableParameters(Map)}
+ * first and interpret the script instead.
+ */
+public class CompiledScript {
+    /**
+     * The classloader holding the generated classes. A new one is created for each
+     * execution so that the static fields of one run can never leak into another.
+     */
+    private static final class CompiledScriptClassLoader extends ClassLoader {
+        private final Map<String, byte[]> classFiles;
+
+        CompiledScriptClassLoader(ClassLoader parent, Map<String, byte[]> classFiles) {
+            super(parent);
+            this.classFiles = classFiles;
+        }
+
+        @Override
+        protected Class<?> findClass(String name) throws ClassNotFoundException {
+            byte[] bytes = classFiles.get(name);
+            if (bytes == null) {
+                throw new ClassNotFoundException(name);
+            }
+            return defineClass(name, bytes, 0, bytes.length);
+        }
+    }
+
+    /**
+     * The name of the synthetic class produced by {@link BeanshellSyntaxChecker}
+     */
+    public static final String CLASS_NAME = "_Test";
+
+    /**
+     * The name of the method containing the standalone lines of the script
+     */
+    public static final String METHOD_NAME = "_standaloneMethodParse";
+
+    /**
+     * The generated class files, keyed by binary class name (including inner classes)
+     */
+    private final Map<String, byte[]> classFiles;
+
+    public CompiledScript(Map<String, byte[]> classFiles) {
+        this.classFiles = new HashMap<>(classFiles);
+    }
+
+    /**
+     * Finds the parameters whose name matches a static field of the compiled class, but
+     * whose value cannot be assigned to that field
+     *
+     * @param scriptClass The compiled class
+     * @param injected The values to inject, keyed by name
+     * @return The names of the parameters that cannot be injected
+     */
+    private static List<String> findUninjectable(Class<?> scriptClass, Map<String, Object> injected) {
+        List<String> uninjectable = new ArrayList<>();
+        for(Field field : scriptClass.getDeclaredFields()) {
+            if (!Modifier.isStatic(field.getModifiers()) || !injected.containsKey(field.getName())) {
+                continue;
+            }
+            Object value = injected.get(field.getName());
+            if (value == null ? field.getType().isPrimitive() : !wrap(field.getType()).isInstance(value)) {
+                uninjectable.add(field.getName());
+            }
+        }
+        return uninjectable;
+    }
+
+    /**
+     * Finds the given parameters that could not be injected into the compiled class,
+     * because their values are not assignable to the fields of the same name. The class
+     * is loaded but not initialized, so no script code runs.
+     *
+     * @param params The rule parameters
+     * @return The names of the parameters that cannot be injected, or an empty list
+     * @throws GeneralException if the compiled class cannot be loaded
+     */
+    public List<String> getUninjectableParameters(Map<String, Object> params) throws GeneralException {
+        ClassLoader loader = new CompiledScriptClassLoader(CompiledScript.class.getClassLoader(), classFiles);
+        try {
+            return findUninjectable(loader.loadClass(CLASS_NAME), params);
+        } catch(ReflectiveOperationException | LinkageError e) {
+            throw new GeneralException("Unable to load the compiled script", e);
+        }
+    }
+
+    /**
+     * Loads the compiled class, injects the context and the given parameters into the
+     * static fields with a matching name, then invokes the script.
+     *
+     * @param context The IIQ context, injected as 'context'
+     * @param params The rule parameters, including the logs and monitor
+     * @return The output of the script
+     * @throws GeneralException if the script cannot be loaded, a parameter cannot be injected, or the script throws an exception
+     */
+    public Object execute(SailPointContext context, Map<String, Object> params) throws GeneralException {
+        ClassLoader loader = new CompiledScriptClassLoader(CompiledScript.class.getClassLoader(), classFiles);
+        try {
+            Class<?> scriptClass = loader.loadClass(CLASS_NAME);
+
+            Map<String, Object> injected = new HashMap<>(params);
+            injected.put(RuleRunnerResource.VAR_CONTEXT, context);
+
+            // Leaving a field null would silently change what the script does
+            List<String> uninjectable = findUninjectable(scriptClass, injected);
+            if (!uninjectable.isEmpty()) {
+                throw new GeneralException("The compiled script cannot accept the values of " + uninjectable + ", which do not match their declared types");
+            }
+
+            for(Field field : scriptClass.getDeclaredFields()) {
+                if (!Modifier.isStatic(field.getModifiers()) || !injected.containsKey(field.getName())) {
+                    continue;
+                }
+                field.setAccessible(true);
+                field.set(null, injected.get(field.getName()));
+            }
+
+            Constructor<?> constructor = scriptClass.getDeclaredConstructor();
+            constructor.setAccessible(true);
+            Object instance = constructor.newInstance();
+
+            Method method = scriptClass.getDeclaredMethod(METHOD_NAME);
+            method.setAccessible(true);
+            return method.invoke(instance);
+        } catch(InvocationTargetException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof GeneralException) {
+                throw (GeneralException) cause;
+            }
+            throw new GeneralException(cause);
+        } catch(ReflectiveOperationException | LinkageError e) {
+            throw new GeneralException("Unable to load the compiled script", e);
+        }
+    }
+
+    /**
+     * Returns the boxed equivalent of a primitive type, so that boxed parameter values
+     * can be checked against primitive fields
+     *
+     * @param type The field type
+     * @return The boxed type, or the input if it is not primitive
+     */
+    private static Class<?> wrap(Class<?> type) {
+        if (!type.isPrimitive()) {
+            return type;
+        } else if (type == int.class) {
+            return Integer.class;
+        } else if (type == long.class) {
+            return Long.class;
+        } else if (type == boolean.class) {
+            return Boolean.class;
+        } else if (type == double.class) {
+            return Double.class;
+        } else if (type == float.class) {
+            return Float.class;
+        } else if (type == short.class) {
+            return Short.class;
+        } else if (type == byte.class) {
+            return Byte.class;
+        } else if (type == char.class) {
+            return Character.class;
+        }
+        return type;
+    }
+}
@@ -0,0 +1,127 @@
+package com.identityworksllc.iiq.plugins.rrp;
+
+import com.identityworksllc.iiq.common.Utilities;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.TreeMap;
+
+/**
+ * A process-wide cache of the scripts compiled by {@link BeanshellSyntaxChecker#compileForExecution()}.
+ * In compiled mode, the script and the full source of every selected library are compiled as
+ * a single unit, so running the same script again would otherwise repeat a cold compilation
+ * of every library. A {@link CompiledScript} loads its classes in a new classloader for each
+ * execution, so one instance can safely be shared by any number of runs.
+ *
+ * Entries are keyed by a digest of the mangled source and the expected variables, and are
+ * evicted in least-recently-used order. A script that cannot run as compiled code is cached
+ * as an empty result, so that it is not compiled again only to fall back once more. Like the
+ * syntax checker caches, this one is cleared whenever the plugin version changes.
+ */
+public class CompiledScriptCache {
+    /**
+     * Singleton instance of the CompiledScriptCache
+     */
+    private static final CompiledScriptCache INSTANCE = new CompiledScriptCache();
+
+    /**
+     * The maximum number of cached scripts. Each one holds the class files of its
+     * libraries, so this is kept much smaller than the parse result cache.
+     */
+    private static final int MAX_ENTRIES = 32;
+
+    /**
+     * Gets the singleton instance of the CompiledScriptCache
+     * @return the singleton instance of the CompiledScriptCache
+     */
+    public static CompiledScriptCache getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * The cached scripts, in least-recently-used order
+     */
+    private final LinkedHashMap<String, Optional<CompiledScript>> cache;
+
+    /**
+     * The number of lookups answered from the cache
+     */
+    private long hits;
+
+    /**
+     * The number of lookups not answered from the cache
+     */
+    private long misses;
+
+    /**
+     * The plugin version at which the cache contents were computed
+     */
+    private int pluginVersion;
+
+    /**
+     * Private constructor to enforce singleton pattern
+     */
+    private CompiledScriptCache() {
+        this.cache = new LinkedHashMap<String, Optional<CompiledScript>>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Optional<CompiledScript>> eldest) {
+                return size() > MAX_ENTRIES;
+            }
+        };
+        this.pluginVersion = -1;
+    }
+
+    /**
+     * Clears the cache if the plugin version has changed since it was computed. Must be
+     * invoked while holding the lock on this object.
+     */
+    private void checkVersion() {
+        int currentVersion = Utilities.getPluginVersionInt();
+        if (currentVersion != pluginVersion) {
+            cache.clear();
+            pluginVersion = currentVersion;
+        }
+    }
+
+    /**
+     * Gets the cached compilation for the given digest
+     *
+     * @param key The digest of the compilation inputs
+     * @return The cached script, an empty result if the script cannot run as compiled code, or null if it is not cached
+     */
+    public synchronized Optional<CompiledScript> get(String key) {
+        checkVersion();
+        Optional<CompiledScript> cached = cache.get(key);
+        if (cached == null) {
+            misses++;
+            return null;
+        }
+        hits++;
+        return cached;
+    }
+
+    /**
+     * Gets the size and hit counters for this cache, for display to administrators
+     * @return The statistics, keyed by name
+     */
+    public synchronized Map<String, Object> getStatistics() {
+        Map<String, Object> stats = new TreeMap<>();
+        stats.put("entries", cache.size());
+        stats.put("hits", hits);
+        stats.put("misses", misses);
+        stats.put("hitRate", (hits + misses) == 0 ? 0.0 : (double) hits / (hits + misses));
+        return stats;
+    }
+
+    /**
+     * Caches the compilation for the given digest
+     *
+     * @param key The digest of the compilation inputs
+     * @param script The compiled script, or null if the script cannot run as compiled code
+     */
+    public synchronized void put(String key, CompiledScript script) {
+        checkVersion();
+        cache.put(key, Optional.ofNullable(script));
+    }
+}
@@ -9,6 +9,7 @@ import java.util.List;
 
 @JsonAutoDetect(fieldVisibility = JsonAutoDetect.Visibility.ANY)
 public class HistoryEntry {
+    private String id;
     private boolean includeWebClasses;
     private List<String> libraries;
     private String source;
@@ -19,6 +20,7 @@ public class HistoryEntry {
     }
 
     public HistoryEntry(AuditEvent ae) {
+        this.setId(ae.getId());
         this.setSource(ae.getString("code"));
         this.setLibraries(ae.getAttributes().getStringList("libraries"));
         this.setTimestamp(ae.getCreated().getTime());
@@ -29,6 +31,10 @@ public class HistoryEntry {
         }
     }
 
+    public String getId() {
+        return id;
+    }
+
     public List<String> getLibraries() {
         return libraries;
     }
@@ -45,6 +51,10 @@ public class HistoryEntry {
         return includeWebClasses;
     }
 
+    public void setId(String id) {
+        this.id = id;
+    }
+
     public void setIncludeWebClasses(boolean includeWebClasses) {
         this.includeWebClasses = includeWebClasses;
     }
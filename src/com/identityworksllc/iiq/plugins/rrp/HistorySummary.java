@@ -0,0 +1,154 @@
+package com.identityworksllc.iiq.plugins.rrp;
+
+import com.fasterxml.jackson.annotation.JsonAutoDetect;
+import sailpoint.tools.Util;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * A lightweight summary of one entry in a user's rule history, holding only the columns
+ * that can be read without loading the entry's serialized attributes. The hash, first line
+ * and library names are written to the audit event's indexed string columns when the rule
+ * runs, by {@link #hash(String, List)}, {@link #firstLine(String)} and {@link #joinLibraries(List)}.
+ * The full entries can be retrieved by their IDs.
+ *
+ * Entries audited before these columns were written have no hash, first line or libraries.
+ */
+@JsonAutoDetect(fieldVisibility = JsonAutoDetect.Visibility.ANY)
+public class HistorySummary {
+    /**
+     * The maximum length written to an audit event string column
+     */
+    public static final int MAX_COLUMN_LENGTH = 255;
+
+    /**
+     * The maximum length of the first line included in a summary
+     */
+    public static final int MAX_FIRST_LINE_LENGTH = 120;
+
+    /**
+     * Gets the first non-blank line of the given source, trimmed and truncated
+     * @param source The source
+     * @return The first line, or an empty string
+     */
+    public static String firstLine(String source) {
+        if (source == null) {
+            return "";
+        }
+        for(String line : source.split("\n", 50)) {
+            String trimmed = line.trim();
+            if (!trimmed.isEmpty()) {
+                return (trimmed.length() > MAX_FIRST_LINE_LENGTH) ? trimmed.substring(0, MAX_FIRST_LINE_LENGTH) : trimmed;
+            }
+        }
+        return "";
+    }
+
+    /**
+     * Computes the hash of a script and its libraries, which identifies repeated runs of the
+     * same script. The library names are sorted and joined by newlines, so their order does
+     * not matter. The browser computes the same hash for its stored history, so that it only
+     * fetches the full source of scripts it does not already have.
+     *
+     * @param source The script as written
+     * @param libraries The names of the selected libraries
+     * @return The hex-encoded SHA-256 hash
+     */
+    public static String hash(String source, List<String> libraries) {
+        List<String> sorted = new ArrayList<>();
+        if (libraries != null) {
+            sorted.addAll(libraries);
+        }
+        sorted.sort(null);
+        return Utils.digest(source, String.join("\n", sorted));
+    }
+
+    /**
+     * Joins the library names by newlines, including only as many whole names as fit in
+     * an audit event string column
+     *
+     * @param libraries The names of the selected libraries
+     * @return The joined names, or null if there are none
+     */
+    public static String joinLibraries(List<String> libraries) {
+        if (libraries == null || libraries.isEmpty()) {
+            return null;
+        }
+        StringBuilder joined = new StringBuilder();
+        for(String name : libraries) {
+            int length = joined.length() + (joined.length() > 0 ? 1 : 0) + name.length();
+            if (length > MAX_COLUMN_LENGTH) {
+                break;
+            }
+            if (joined.length() > 0) {
+                joined.append('\n');
+            }
+            joined.append(name);
+        }
+        return joined.toString();
+    }
+
+    private String firstLine;
+    private String hash;
+    private String id;
+    private List<String> libraries;
+    private long timestamp;
+
+    public HistorySummary() {
+        this.libraries = new ArrayList<>();
+    }
+
+    public HistorySummary(String id, Date created, String hash, String firstLine, String libraries) {
+        this();
+        this.setId(id);
+        this.setTimestamp(created.getTime());
+        this.setHash(hash);
+        this.setFirstLine(firstLine);
+        if (Util.isNotNullOrEmpty(libraries)) {
+            this.setLibraries(new ArrayList<>(Arrays.asList(libraries.split("\n"))));
+        }
+    }
+
+    public String getFirstLine() {
+        return firstLine;
+    }
+
+    public String getHash() {
+        return hash;
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public List<String> getLibraries() {
+        return libraries;
+    }
+
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    public void setFirstLine(String firstLine) {
+        this.firstLine = firstLine;
+    }
+
+    public void setHash(String hash) {
+        this.hash = hash;
+    }
+
+    public void setId(String id) {
+        this.id = id;
+    }
+
+    public void setLibraries(List<String> libraries) {
+        this.libraries = libraries;
+    }
+
+    public void setTimestamp(long timestamp) {
+        this.timestamp = timestamp;
+    }
+}
@@ -0,0 +1,447 @@
+package com.identityworksllc.iiq.plugins.rrp;
+
+import bsh.EvalError;
+import bsh.Interpreter;
+import bsh.NameSpace;
+import bsh.Primitive;
+import bsh.TargetError;
+import bsh.UtilEvalError;
+import com.identityworksllc.iiq.common.Utilities;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import sailpoint.api.SailPointContext;
+import sailpoint.object.Rule;
+import sailpoint.tools.GeneralException;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * An optional pool of Beanshell interpreters with their rule libraries already evaluated,
+ * so that a run only has to evaluate the user's script. {@link SailPointContext#runRule}
+ * evaluates the full source of every referenced library into a fresh namespace on every
+ * run, which dominates the run time of short scripts against a large library.
+ *
+ * Interpreters are pooled by a digest of the library names and modification dates, so a
+ * saved library is picked up on the next run. Each run sets its variables in the global
+ * namespace, where the library methods can see them, as they would under IIQ, and
+ * evaluates the script in a child namespace, so that the script's own variables and
+ * methods are discarded afterward. If a run changes any variable the libraries defined,
+ * the interpreter is discarded rather than returned to the pool.
+ *
+ * Only libraries without state are pooled, since a warm interpreter would otherwise
+ * carry the first run's context and any objects it built into every later run, and
+ * would skip the libraries' top-level statements on every run but the first. A library
+ * set is pooled only if its top level holds nothing but imports, method declarations,
+ * and declarations with a literal value, and every variable it defines holds an
+ * immutable value. Any other library set gets a fresh interpreter, evaluated with the
+ * current run's context, which is discarded afterward.
+ *
+ * Unlike IIQ, library methods cannot call methods declared by the script, since those
+ * live in the child namespace. This is why the pool is opt-in.
+ *
+ * The pooled interpreters load classes from IIQ's own classloader, which cannot see the
+ * classes that plugins export as script packages. While any installed plugin exports
+ * such classes, every run goes through {@link SailPointContext#runRule} instead, as
+ * though the pool were disabled.
+ */
+public class InterpreterPool {
+    /**
+     * An interpreter with a set of libraries evaluated into its global namespace
+     */
+    private static final class WarmInterpreter {
+        /**
+         * The variables a fresh interpreter defines by itself, such as 'bsh', which are
+         * not part of the libraries' state
+         */
+        private final Set<String> builtIns;
+
+        /**
+         * The interpreter
+         */
+        private final Interpreter interpreter;
+
+        /**
+         * True if the libraries hold no state, so the interpreter may be reused
+         */
+        private final boolean poolable;
+
+        /**
+         * The global variables defined by the libraries, and their values, as they were
+         * immediately after the libraries were evaluated
+         */
+        private final Map<String, Object> snapshot;
+
+        private WarmInterpreter(Interpreter interpreter, Set<String> builtIns, Map<String, Object> snapshot, boolean poolable) {
+            this.interpreter = interpreter;
+            this.builtIns = builtIns;
+            this.snapshot = snapshot;
+            this.poolable = poolable;
+        }
+    }
+
+    /**
+     * Singleton instance of the InterpreterPool
+     */
+    private static final InterpreterPool INSTANCE = new InterpreterPool();
+
+    /**
+     * The maximum number of idle interpreters kept for each set of libraries
+     */
+    private static final int MAX_IDLE_PER_KEY = 4;
+
+    /**
+     * The maximum number of distinct library sets pooled
+     */
+    private static final int MAX_KEYS = 16;
+
+    /**
+     * Logger
+     */
+    private static final Log log = LogFactory.getLog(InterpreterPool.class);
+
+    /**
+     * Gets the singleton instance of the InterpreterPool
+     * @return the singleton instance of the InterpreterPool
+     */
+    public static InterpreterPool getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Flattens the given libraries and the libraries they reference, each library after
+     * the libraries it references, and each only once
+     *
+     * @param libraries The libraries
+     * @param visited The names of the libraries already flattened
+     * @param flattened The list to add the libraries to
+     */
+    private static void flatten(List<Rule> libraries, Set<String> visited, List<Rule> flattened) {
+        for(Rule library : libraries) {
+            if (!visited.add(library.getName())) {
+                continue;
+            }
+            if (library.getReferencedRules() != null) {
+                flatten(library.getReferencedRules(), visited, flattened);
+            }
+            flattened.add(library);
+        }
+    }
+
+    /**
+     * Returns true if the given value cannot be changed by a run, so that sharing it
+     * between runs is safe
+     *
+     * @param value The value of a library variable
+     * @return True if the value is immutable
+     */
+    private static boolean isImmutable(Object value) {
+        return value == null
+                || value instanceof String
+                || value instanceof Number && value.getClass().getName().startsWith("java.lang.")
+                || value instanceof Boolean
+                || value instanceof Character
+                || value instanceof Primitive
+                || value instanceof Class
+                || value instanceof Enum;
+    }
+
+    /**
+     * Returns true if the top level of the given library source holds only imports,
+     * method declarations, and declarations with a literal value, so that evaluating it
+     * has no effect beyond defining them
+     *
+     * @param source The library source
+     * @return True if the library has no top-level statements with side effects
+     */
+    private static boolean isDeclarationsOnly(String source) {
+        int depth = 0;
+        for(BeanshellLexer.LogicalLine line : new BeanshellLexer(source).toLogicalLines()) {
+            boolean topLevel = (depth == 0);
+            depth += line.getBraceDelta();
+            if (!topLevel || line.isCommentOnly()) {
+                continue;
+            }
+            String text = line.getText().trim();
+            if (text.isEmpty() || text.startsWith("import ") || line.isMethodStart()) {
+                continue;
+            }
+            if (line.isSimpleDeclaration() && !line.isComplex()) {
+                continue;
+            }
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Computes the pool key for the given libraries
+     * @param libraries The libraries
+     * @return A digest of the library names and modification dates
+     */
+    private static String poolKey(List<Rule> libraries) {
+        List<String> parts = new ArrayList<>();
+        for(Rule library : libraries) {
+            Date modified = library.getModified() != null ? library.getModified() : library.getCreated();
+            parts.add(library.getName());
+            parts.add(modified == null ? "" : String.valueOf(modified.getTime()));
+        }
+        return Utils.digest(parts.toArray(new String[0]));
+    }
+
+    /**
+     * Checks whether the global namespace still matches the snapshot taken after the
+     * libraries were evaluated, with the same variables holding the same objects
+     *
+     * @param warm The interpreter
+     * @return True if nothing has changed
+     * @throws UtilEvalError if a variable cannot be read
+     */
+    private static boolean isUnchanged(WarmInterpreter warm) throws UtilEvalError {
+        Map<String, Object> current = snapshot(warm.interpreter.getNameSpace(), warm.builtIns);
+        if (!current.keySet().equals(warm.snapshot.keySet())) {
+            return false;
+        }
+        for(Map.Entry<String, Object> entry : current.entrySet()) {
+            if (entry.getValue() != warm.snapshot.get(entry.getKey())) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Captures the global variables of the given namespace and their values, other than
+     * those a fresh interpreter defines by itself
+     *
+     * @param namespace The namespace
+     * @param builtIns The variables defined by a fresh interpreter
+     * @return The variables and values
+     * @throws UtilEvalError if a variable cannot be read
+     */
+    private static Map<String, Object> snapshot(NameSpace namespace, Set<String> builtIns) throws UtilEvalError {
+        Map<String, Object> snapshot = new TreeMap<>();
+        for(String name : namespace.getVariableNames()) {
+            if (!builtIns.contains(name)) {
+                snapshot.put(name, namespace.getVariable(name));
+            }
+        }
+        return snapshot;
+    }
+
+    /**
+     * The number of interpreters discarded because a run changed a library variable
+     */
+    private long discarded;
+
+    /**
+     * The number of runs whose libraries hold state, which were given a fresh interpreter
+     */
+    private long stateful;
+
+    /**
+     * The idle interpreters for each set of libraries, in least-recently-used order
+     */
+    private final LinkedHashMap<String, Deque<WarmInterpreter>> idle;
+
+    /**
+     * The number of runs that reused a warm interpreter
+     */
+    private long hits;
+
+    /**
+     * The number of runs that had to evaluate their libraries
+     */
+    private long misses;
+
+    /**
+     * The plugin version at which the pooled interpreters were created
+     */
+    private int pluginVersion;
+
+    /**
+     * Private constructor to enforce singleton pattern
+     */
+    private InterpreterPool() {
+        this.idle = new LinkedHashMap<String, Deque<WarmInterpreter>>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Deque<WarmInterpreter>> eldest) {
+                return size() > MAX_KEYS;
+            }
+        };
+        this.pluginVersion = -1;
+    }
+
+    /**
+     * Takes an idle interpreter for the given key, or returns null if there is none
+     * @param key The pool key
+     * @return The interpreter, or null
+     */
+    private synchronized WarmInterpreter borrow(String key) {
+        int currentVersion = Utilities.getPluginVersionInt();
+        if (currentVersion != pluginVersion) {
+            idle.clear();
+            pluginVersion = currentVersion;
+        }
+        Deque<WarmInterpreter> available = idle.get(key);
+        WarmInterpreter interpreter = (available == null) ? null : available.pollFirst();
+        if (interpreter == null) {
+            misses++;
+        } else {
+            hits++;
+        }
+        return interpreter;
+    }
+
+    /**
+     * Creates an interpreter and evaluates the given libraries into its global namespace,
+     * noting whether the libraries hold state that prevents the interpreter being reused
+     *
+     * @param context The context, visible to the libraries while they are evaluated
+     * @param runLog The log of the run, visible to the libraries while they are evaluated
+     * @param libraries The libraries
+     * @return The warm interpreter
+     * @throws EvalError if a library fails to evaluate
+     * @throws UtilEvalError if the library variables cannot be captured
+     */
+    private WarmInterpreter create(SailPointContext context, Object runLog, List<Rule> libraries) throws EvalError, UtilEvalError {
+        Interpreter interpreter = new Interpreter();
+        interpreter.setClassLoader(Rule.class.getClassLoader());
+        NameSpace global = interpreter.getNameSpace();
+        Set<String> builtIns = new HashSet<>(Arrays.asList(global.getVariableNames()));
+        interpreter.set(RuleRunnerResource.VAR_CONTEXT, context);
+        interpreter.set(RuleRunnerResource.VAR_LOG, runLog);
+        boolean poolable = true;
+        try {
+            for(Rule library : libraries) {
+                if (library.getSource() != null) {
+                    if (!isDeclarationsOnly(library.getSource())) {
+                        poolable = false;
+                    }
+                    interpreter.eval(library.getSource());
+                }
+            }
+        } finally {
+            global.unsetVariable(RuleRunnerResource.VAR_CONTEXT);
+            global.unsetVariable(RuleRunnerResource.VAR_LOG);
+        }
+        Map<String, Object> snapshot = snapshot(global, builtIns);
+        for(Object value : snapshot.values()) {
+            if (!isImmutable(value)) {
+                poolable = false;
+                break;
+            }
+        }
+        return new WarmInterpreter(interpreter, builtIns, snapshot, poolable);
+    }
+
+    /**
+     * Gets the hit and size counters for this pool, for display to administrators
+     * @return The statistics, keyed by name
+     */
+    public synchronized Map<String, Object> getStatistics() {
+        Map<String, Object> stats = new TreeMap<>();
+        int idleCount = 0;
+        for(Deque<WarmInterpreter> available : idle.values()) {
+            idleCount += available.size();
+        }
+        stats.put("keys", idle.size());
+        stats.put("idle", idleCount);
+        stats.put("hits", hits);
+        stats.put("misses", misses);
+        stats.put("discarded", discarded);
+        stats.put("stateful", stateful);
+        return stats;
+    }
+
+    /**
+     * Returns an interpreter to the pool, unless its libraries hold state or the run
+     * changed a library variable
+     *
+     * @param key The pool key
+     * @param interpreter The interpreter
+     * @param clean True if the interpreter's global namespace matches its snapshot
+     */
+    private synchronized void release(String key, WarmInterpreter interpreter, boolean clean) {
+        if (!interpreter.poolable) {
+            stateful++;
+            return;
+        }
+        if (!clean) {
+            discarded++;
+            return;
+        }
+        Deque<WarmInterpreter> available = idle.computeIfAbsent(key, k -> new ArrayDeque<>());
+        if (available.size() < MAX_IDLE_PER_KEY) {
+            available.addFirst(interpreter);
+        }
+    }
+
+    /**
+     * Runs the given rule's source with its referenced libraries on a warm interpreter
+     *
+     * @param context The context, bound as the 'context' variable
+     * @param rule The ad-hoc rule, whose referenced rules are its libraries
+     * @param params The variables for the run
+     * @return The result of the script
+     * @throws GeneralException if the libraries or the script fail
+     */
+    public Object run(SailPointContext context, Rule rule, Map<String, Object> params) throws GeneralException {
+        List<Rule> libraries = new ArrayList<>();
+        if (rule.getReferencedRules() != null) {
+            flatten(rule.getReferencedRules(), new HashSet<>(), libraries);
+        }
+        String key = poolKey(libraries);
+        Object runLog = params.containsKey(RuleRunnerResource.VAR_LOG) ? params.get(RuleRunnerResource.VAR_LOG) : log;
+        WarmInterpreter warm = borrow(key);
+        try {
+            if (warm == null) {
+                // Top-level statements of a library set that is not pooled log to the run's own output
+                warm = create(context, runLog, libraries);
+            }
+        } catch(EvalError | UtilEvalError e) {
+            throw new GeneralException("Failed to evaluate the rule libraries: " + e.getMessage(), e);
+        }
+
+        Interpreter interpreter = warm.interpreter;
+        NameSpace global = interpreter.getNameSpace();
+        Map<String, Object> variables = new LinkedHashMap<>(params);
+        variables.put(RuleRunnerResource.VAR_CONTEXT, context);
+        variables.put(RuleRunnerResource.VAR_LOG, runLog);
+        boolean clean = false;
+        try {
+            for(Map.Entry<String, Object> variable : variables.entrySet()) {
+                interpreter.set(variable.getKey(), variable.getValue());
+            }
+            Object result = interpreter.eval(rule.getSource(), new NameSpace(global, rule.getName()));
+            return (result == Primitive.VOID) ? null : Primitive.unwrap(result);
+        } catch(TargetError e) {
+            Throwable target = e.getTarget();
+            if (target instanceof GeneralException) {
+                throw (GeneralException) target;
+            }
+            throw new GeneralException(target);
+        } catch(EvalError e) {
+            throw new GeneralException(e);
+        } finally {
+            for(String name : variables.keySet()) {
+                global.unsetVariable(name);
+            }
+            try {
+                clean = isUnchanged(warm);
+            } catch(UtilEvalError e) {
+                log.debug("Could not verify the state of a pooled interpreter", e);
+            }
+            release(key, warm, clean);
+        }
+    }
+}
@@ -0,0 +1,282 @@
+package com.identityworksllc.iiq.plugins.rrp;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Rewrites a Beanshell script so that it checks for interrupts cooperatively, allowing an
+ * aborted or timed-out rule to stop even while it is busy in a loop.
+ *
+ * The script is tokenized with {@link BeanshellLexer}, so that braces and keywords inside
+ * string or character literals and comments are never mistaken for code. Checks are only
+ * injected where a script can spend unbounded time: at the start of every loop body, and
+ * at the entry of every top-level method, to catch runaway recursion. Each check is a
+ * call on the {@link RuleInterruptCheck} bound to {@link RuleRunnerResource#VAR_INTERRUPTS}.
+ *
+ * A 'while' or classic 'for' loop without braces has the check added to its condition
+ * instead. An enhanced 'for' loop without braces is left alone. Every injection is made
+ * on the same line as the code around it, so line numbers in error messages still match
+ * the script the user wrote.
+ */
+public final class InterruptInjector {
+
+	/**
+	 * The check injected at the start of each loop body
+	 */
+	private static final String LOOP_CHECK = " " + RuleRunnerResource.VAR_INTERRUPTS + ".loop(); ";
+
+	/**
+	 * The check injected into the condition of each loop without braces
+	 */
+	private static final String LOOP_CONDITION_CHECK = RuleRunnerResource.VAR_INTERRUPTS + ".loop()";
+
+	/**
+	 * The check injected at the entry of each method
+	 */
+	private static final String METHOD_CHECK = " " + RuleRunnerResource.VAR_INTERRUPTS + ".check(); ";
+
+	/**
+	 * Rewrites the given script with cooperative interrupt checks
+	 *
+	 * @param script The Beanshell script
+	 * @return The rewritten script
+	 */
+	public static String inject(String script) {
+		if (script == null) {
+			return null;
+		}
+		return new InterruptInjector(script).rewrite();
+	}
+
+	/**
+	 * Text to insert after the token at each index
+	 */
+	private final Map<Integer, String> after;
+
+	/**
+	 * Text to insert before the token at each index
+	 */
+	private final Map<Integer, String> before;
+
+	/**
+	 * The index of the ')' matching each '(' token
+	 */
+	private int[] matchingParen;
+
+	/**
+	 * The script being rewritten
+	 */
+	private final String script;
+
+	/**
+	 * The tokens of the script, including whitespace and comments
+	 */
+	private List<BeanshellLexer.Token> tokens;
+
+	private InterruptInjector(String script) {
+		this.script = script;
+		this.after = new HashMap<>();
+		this.before = new HashMap<>();
+	}
+
+	/**
+	 * Appends text to be inserted relative to a token, keeping any text already there
+	 */
+	private static void addInsertion(Map<Integer, String> insertions, int index, String text) {
+		insertions.merge(index, text, String::concat);
+	}
+
+	/**
+	 * Finds the index of the ')' matching each '(' in a single pass, or -1 if it is unclosed
+	 */
+	private void matchParens() {
+		matchingParen = new int[tokens.size()];
+		Deque<Integer> open = new ArrayDeque<>();
+		for (int i = 0; i < tokens.size(); i++) {
+			matchingParen[i] = -1;
+			BeanshellLexer.Token token = tokens.get(i);
+			if (token.is('(')) {
+				open.push(i);
+			} else if (token.is(')') && !open.isEmpty()) {
+				matchingParen[open.pop()] = i;
+			}
+		}
+	}
+
+	/**
+	 * @param index The index to start from, inclusive
+	 * @return The index of the next code token at or after the given index, or -1
+	 */
+	private int nextCode(int index) {
+		for (int i = index; i >= 0 && i < tokens.size(); i++) {
+			if (tokens.get(i).isCode()) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Handles a braceless 'while' loop or classic 'for' loop by adding the check to its condition
+	 *
+	 * @param keyword The loop keyword token
+	 * @param open The index of the '(' after the keyword
+	 * @param close The index of the matching ')'
+	 */
+	private void injectIntoCondition(BeanshellLexer.Token keyword, int open, int close) {
+		if (keyword.isWord("while")) {
+			addInsertion(after, open, LOOP_CONDITION_CHECK + " && (");
+			addInsertion(before, close, ")");
+			return;
+		}
+		// A classic 'for' has exactly two semicolons in its header at the top level
+		int firstSemicolon = -1;
+		int secondSemicolon = -1;
+		int depth = 0;
+		for (int i = open + 1; i < close; i++) {
+			BeanshellLexer.Token token = tokens.get(i);
+			if (token.is('(') || token.is('[') || token.is('{')) {
+				depth++;
+			} else if (token.is(')') || token.is(']') || token.is('}')) {
+				depth--;
+			} else if (depth == 0 && token.is(';')) {
+				if (firstSemicolon < 0) {
+					firstSemicolon = i;
+				} else {
+					secondSemicolon = i;
+				}
+			}
+		}
+		if (firstSemicolon < 0 || secondSemicolon < 0) {
+			// An enhanced 'for' has no condition to add the check to
+			return;
+		}
+		int condition = nextCode(firstSemicolon + 1);
+		if (condition == secondSemicolon) {
+			addInsertion(after, firstSemicolon, " " + LOOP_CONDITION_CHECK + " ");
+		} else {
+			addInsertion(after, firstSemicolon, " " + LOOP_CONDITION_CHECK + " && (");
+			addInsertion(before, secondSemicolon, ")");
+		}
+	}
+
+	/**
+	 * Finds the injection points in a single pass over the tokens, then emits the script
+	 * with the checks inserted
+	 *
+	 * @return The rewritten script
+	 */
+	private String rewrite() {
+		tokens = new BeanshellLexer(script).tokenize();
+		matchParens();
+
+		// True for each open brace that began a 'do' loop body
+		Deque<Boolean> braces = new ArrayDeque<>();
+		// The '{' tokens opening loop bodies and method bodies
+		Map<Integer, String> bodies = new HashMap<>();
+		boolean afterDoBody = false;
+		BeanshellLexer.Token previous = null;
+		BeanshellLexer.Token beforePrevious = null;
+
+		for (int i = 0; i < tokens.size(); i++) {
+			BeanshellLexer.Token token = tokens.get(i);
+			if (!token.isCode()) {
+				continue;
+			}
+			boolean skipWhile = afterDoBody;
+			afterDoBody = false;
+
+			if (token.isWord("for") || (token.isWord("while") && !skipWhile)) {
+				int open = nextCode(i + 1);
+				if (open >= 0 && tokens.get(open).is('(') && matchingParen[open] >= 0) {
+					int close = matchingParen[open];
+					int body = nextCode(close + 1);
+					if (body >= 0 && tokens.get(body).is('{')) {
+						bodies.put(body, LOOP_CHECK);
+					} else if (body >= 0 && !tokens.get(body).is(';')) {
+						injectIntoCondition(token, open, close);
+					}
+				}
+			} else if (token.isWord("do")) {
+				int body = nextCode(i + 1);
+				if (body >= 0 && tokens.get(body).is('{')) {
+					bodies.put(body, LOOP_CHECK);
+				}
+			} else if (token.is('(') && braces.isEmpty() && isMethodDeclaration(previous, beforePrevious) && matchingParen[i] >= 0) {
+				int body = skipThrowsClause(nextCode(matchingParen[i] + 1));
+				if (body >= 0 && tokens.get(body).is('{')) {
+					bodies.put(body, METHOD_CHECK);
+				}
+			}
+
+			if (token.is('{')) {
+				boolean isDoBody = previous != null && previous.isWord("do");
+				braces.push(isDoBody);
+				String check = bodies.remove(i);
+				if (check != null) {
+					addInsertion(after, i, check);
+				}
+			} else if (token.is('}') && !braces.isEmpty()) {
+				afterDoBody = braces.pop();
+			}
+
+			beforePrevious = previous;
+			previous = token;
+		}
+
+		StringBuilder output = new StringBuilder(script.length() + 32 * (after.size() + before.size()));
+		for (int i = 0; i < tokens.size(); i++) {
+			BeanshellLexer.Token token = tokens.get(i);
+			String prefix = before.get(i);
+			if (prefix != null) {
+				output.append(prefix);
+			}
+			output.append(script, token.getStart(), token.getEnd());
+			String suffix = after.get(i);
+			if (suffix != null) {
+				output.append(suffix);
+			}
+		}
+		return output.toString();
+	}
+
+	/**
+	 * Decides whether a top-level '(' opens the parameters of a method declaration, given
+	 * the two code tokens before it. Both typed declarations like 'String name(' and
+	 * untyped Beanshell declarations like 'name(' qualify, but not calls such as 'a.b(',
+	 * constructors such as 'new Foo(', or keywords such as 'if ('.
+	 *
+	 * @param name The token before the '('
+	 * @param beforeName The token before that
+	 * @return True if this is a method declaration, provided a '{' follows the parameters
+	 */
+	private static boolean isMethodDeclaration(BeanshellLexer.Token name, BeanshellLexer.Token beforeName) {
+		if (!BeanshellLexer.isMethodName(name)) {
+			return false;
+		}
+		if (beforeName == null || beforeName.is(';') || beforeName.is('}')) {
+			return true;
+		}
+		return BeanshellLexer.isReturnType(beforeName);
+	}
+
+	/**
+	 * Skips a 'throws' clause, if one begins at the given index
+	 *
+	 * @param index The index of the code token following a method's parameters
+	 * @return The index of the first code token after the clause
+	 */
+	private int skipThrowsClause(int index) {
+		if (index < 0 || !tokens.get(index).isWord("throws")) {
+			return index;
+		}
+		int i = nextCode(index + 1);
+		while (i >= 0 && (tokens.get(i).getType() == BeanshellLexer.TokenType.Identifier || tokens.get(i).is('.') || tokens.get(i).is(','))) {
+			i = nextCode(i + 1);
+		}
+		return i;
+	}
+}
@@ -0,0 +1,235 @@
+package com.identityworksllc.iiq.plugins.rrp;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import sailpoint.api.SailPointContext;
+import sailpoint.api.SailPointFactory;
+
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Runs syntax checks on a small, bounded pool of threads, rather than on the servlet
+ * request threads, so that a burst of edits cannot occupy the application server's web
+ * threads with CPU-heavy compilations. The compilations for compiled mode run on the
+ * same pool, through {@link #submitCompilation(BeanshellSyntaxChecker)}.
+ *
+ * Each HTTP session has at most one check in flight. A newer check from the same session
+ * supersedes the older one, which is removed from the queue if it has not started, or
+ * canceled through ECJ's progress monitor if it has. When the queue is full, new checks
+ * are rejected with a {@link RejectedExecutionException}, which the caller should report
+ * as an overload.
+ */
+public class LintExecutor {
+    /**
+     * A syntax check submitted to the executor
+     */
+    public static final class LintTask extends FutureTask<List<Map<String, Object>>> {
+        /**
+         * The syntax checker running the check
+         */
+        private final BeanshellSyntaxChecker checker;
+
+        /**
+         * The session that submitted the check
+         */
+        private final String sessionId;
+
+        private LintTask(String sessionId, BeanshellSyntaxChecker checker) {
+            super(() -> withContext(checker::parse));
+            this.sessionId = sessionId;
+            this.checker = checker;
+        }
+
+        /**
+         * Cancels the check, additionally signaling a compilation in progress to stop
+         *
+         * @param mayInterruptIfRunning Ignored; ECJ is never interrupted
+         * @return False if the check could not be canceled, typically because it has already completed
+         */
+        @Override
+        public boolean cancel(boolean mayInterruptIfRunning) {
+            checker.cancel();
+            return super.cancel(false);
+        }
+
+        @Override
+        protected void done() {
+            getInstance().inFlight.remove(sessionId, this);
+        }
+    }
+
+    /**
+     * Singleton instance of the LintExecutor
+     */
+    private static final LintExecutor INSTANCE = new LintExecutor();
+
+    /**
+     * The name of the SailPointContext created for each check
+     */
+    private static final String LINT_CONTEXT_NAME = "RuleRunnerSyntaxCheck";
+
+    /**
+     * The maximum number of checks waiting for a thread
+     */
+    private static final int QUEUE_CAPACITY = 32;
+
+    /**
+     * Logger
+     */
+    private static final Log log = LogFactory.getLog(LintExecutor.class);
+
+    /**
+     * Runs the given task with a SailPointContext of its own
+     *
+     * @param task The task to run
+     * @return The task's result
+     * @throws Exception if the task fails, or the context cannot be created
+     */
+    private static <T> T withContext(Callable<T> task) throws Exception {
+        // Plugin class lookups may need a context, and pool threads have none of their own
+        SailPointContext context = SailPointFactory.createContext(LINT_CONTEXT_NAME);
+        try {
+            return task.call();
+        } finally {
+            SailPointFactory.releaseContext(context);
+        }
+    }
+
+    /**
+     * Gets the singleton instance of the LintExecutor
+     * @return the singleton instance of the LintExecutor
+     */
+    public static LintExecutor getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * The pool running the checks
+     */
+    private final ThreadPoolExecutor executor;
+
+    /**
+     * The check in flight for each session
+     */
+    private final ConcurrentMap<String, LintTask> inFlight;
+
+    /**
+     * The number of checks rejected because the queue was full
+     */
+    private final AtomicLong rejected;
+
+    /**
+     * The number of checks submitted
+     */
+    private final AtomicLong submitted;
+
+    /**
+     * The number of checks superseded by a newer check from the same session
+     */
+    private final AtomicLong superseded;
+
+    /**
+     * Private constructor to enforce singleton pattern
+     */
+    private LintExecutor() {
+        int threads = Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors() / 2));
+        AtomicInteger threadCount = new AtomicInteger();
+        this.executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS, new ArrayBlockingQueue<>(QUEUE_CAPACITY), runnable -> {
+            Thread thread = new Thread(runnable, "RuleRunner-SyntaxCheck-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        // Idle threads exit, so that a reloaded plugin does not leave the old pool behind for long
+        this.executor.allowCoreThreadTimeOut(true);
+        this.inFlight = new ConcurrentHashMap<>();
+        this.rejected = new AtomicLong();
+        this.submitted = new AtomicLong();
+        this.superseded = new AtomicLong();
+    }
+
+    /**
+     * Gets the size and throughput counters for this executor, for display to administrators
+     * @return The statistics, keyed by name
+     */
+    public Map<String, Object> getStatistics() {
+        Map<String, Object> stats = new TreeMap<>();
+        stats.put("threads", executor.getMaximumPoolSize());
+        stats.put("active", executor.getActiveCount());
+        stats.put("queued", executor.getQueue().size());
+        stats.put("submitted", submitted.get());
+        stats.put("superseded", superseded.get());
+        stats.put("rejected", rejected.get());
+        return stats;
+    }
+
+    /**
+     * Submits a syntax check on behalf of the given session, canceling any check that
+     * session already has in flight
+     *
+     * @param sessionId The HTTP session ID
+     * @param checker The configured syntax checker
+     * @return The submitted check
+     * @throws RejectedExecutionException if the queue is full
+     */
+    public LintTask submit(String sessionId, BeanshellSyntaxChecker checker) {
+        LintTask task = new LintTask(sessionId, checker);
+        LintTask previous = inFlight.put(sessionId, task);
+        if (previous != null) {
+            if (log.isDebugEnabled()) {
+                log.debug("Superseding the in-flight syntax check for session " + sessionId);
+            }
+            superseded.incrementAndGet();
+            previous.cancel(false);
+            executor.remove(previous);
+        }
+        try {
+            executor.execute(task);
+        } catch(RejectedExecutionException e) {
+            inFlight.remove(sessionId, task);
+            rejected.incrementAndGet();
+            throw e;
+        }
+        submitted.incrementAndGet();
+        return task;
+    }
+
+    /**
+     * Submits the compilation of a script to be run in compiled mode. Unlike a syntax check,
+     * a compilation belongs to a run rather than to a session, so it never supersedes or is
+     * superseded by another task. Canceling it signals the compiler to stop.
+     *
+     * @param checker The configured syntax checker
+     * @return The compilation, whose result is null if the script cannot be run as compiled code
+     * @throws RejectedExecutionException if the queue is full
+     */
+    public Future<CompiledScript> submitCompilation(BeanshellSyntaxChecker checker) {
+        FutureTask<CompiledScript> task = new FutureTask<CompiledScript>(() -> withContext(checker::compileForExecution)) {
+            @Override
+            public boolean cancel(boolean mayInterruptIfRunning) {
+                checker.cancel();
+                return super.cancel(false);
+            }
+        };
+        try {
+            executor.execute(task);
+        } catch(RejectedExecutionException e) {
+            rejected.incrementAndGet();
+            throw e;
+        }
+        submitted.incrementAndGet();
+        return task;
+    }
+}
@@ -0,0 +1,584 @@
+package com.identityworksllc.iiq.plugins.rrp;
+
+import com.fasterxml.jackson.annotation.JsonAutoDetect;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.RandomAccessFile;
+import java.io.Writer;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * An append-only journal of every message logged by one rule run, kept in a temporary
+ * file, so that a run logging for hours keeps only the tail of its log in the
+ * {@link LogRingBuffer} while the full log remains available for paging and download.
+ *
+ * Each record is length-prefixed: the length of the rest of the record as an int, then
+ * the sequence number and timestamp as longs, the level ordinal and a flags byte, and
+ * finally the rendered message in UTF-8. Records are read by offset, so a page can be
+ * read without scanning the file from the start.
+ *
+ * The rule's thread only queues each captured message. Rendering it, including any stack
+ * trace, and writing it to disk happen in batches on a single writer thread shared by all
+ * journals, or on the reader's thread when a page is read, so that every message logged
+ * before a read is included. If more than {@value #MAX_PENDING} messages are waiting, the
+ * logging thread writes them itself, so that a slow disk slows the rule down rather than
+ * letting the queue grow without bound.
+ *
+ * The offset of every {@value #INDEX_INTERVAL}th record is kept in memory. A page offset
+ * from the browser is accepted only if walking the records from the nearest indexed offset
+ * lands on it exactly, so an offset inside a record is rejected even when its bytes happen
+ * to look like a record header.
+ */
+public final class LogJournal {
+    /**
+     * Thrown when the journal is read after it has been deleted, such as when its worker
+     * has been evicted
+     */
+    public static final class DeletedException extends IOException {
+        private DeletedException() {
+            super("The log journal has been deleted");
+        }
+    }
+
+    /**
+     * The full journal as of when it was opened by {@link #export()}, to be written out
+     * as plain text
+     */
+    public static final class Export {
+        /**
+         * The size of the journal when it was opened
+         */
+        private final long end;
+
+        /**
+         * The open journal file
+         */
+        private final InputStream in;
+
+        private Export(InputStream in, long end) {
+            this.in = in;
+            this.end = end;
+        }
+
+        /**
+         * Writes the journal to the given stream as plain text, one message per line, each
+         * prefixed with its timestamp and level. Multi-line messages and stack traces are
+         * written as they were logged, so their later lines have no prefix. The journal file
+         * is closed afterward.
+         *
+         * @param out The stream to write to
+         * @throws IOException if the journal cannot be read or the stream written
+         */
+        public void writeTo(OutputStream out) throws IOException {
+            SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss.SSS");
+            Writer writer = new OutputStreamWriter(out, StandardCharsets.UTF_8);
+            try (InputStream input = in) {
+                DataInputStream data = new DataInputStream(new BufferedInputStream(input, 64 * 1024));
+                long position = 0;
+                while(position < end) {
+                    int length;
+                    try {
+                        length = readLength(data, position, end);
+                    } catch(EOFException e) {
+                        break;
+                    }
+                    LogMessageVO vo = readRecord(data, length);
+                    position += 4 + length;
+                    writer.write(dateFormat.format(new Date(vo.getDate())));
+                    writer.write(" ");
+                    writer.write(String.format("%-5s", vo.getLevel().toUpperCase()));
+                    writer.write(" ");
+                    writer.write(vo.getMessage());
+                    writer.write("\n");
+                }
+            }
+            writer.flush();
+        }
+    }
+
+    /**
+     * One page of records read from the journal
+     */
+    @JsonAutoDetect(fieldVisibility = JsonAutoDetect.Visibility.ANY)
+    public static final class Page {
+        /**
+         * The messages in the page, at or above the requested level
+         */
+        private final List<LogMessageVO> messages;
+
+        /**
+         * The offset of the first record after this page, to read the next page from
+         */
+        private final long nextOffset;
+
+        /**
+         * The size of the journal when the page was read
+         */
+        private final long size;
+
+        private Page(List<LogMessageVO> messages, long nextOffset, long size) {
+            this.messages = messages;
+            this.nextOffset = nextOffset;
+            this.size = size;
+        }
+
+        public List<LogMessageVO> getMessages() {
+            return messages;
+        }
+
+        public long getNextOffset() {
+            return nextOffset;
+        }
+
+        public long getSize() {
+            return size;
+        }
+    }
+
+    /**
+     * The flag set on a record whose message includes a stack trace
+     */
+    private static final int FLAG_HAS_ERROR = 1;
+
+    /**
+     * The size of the fixed part of each record, after its length prefix
+     */
+    private static final int HEADER_BYTES = 8 + 8 + 1 + 1;
+
+    /**
+     * The number of records between indexed offsets
+     */
+    private static final int INDEX_INTERVAL = 64;
+
+    /**
+     * The number of queued messages beyond which the logging thread writes them itself
+     */
+    private static final int MAX_PENDING = 10000;
+
+    /**
+     * Logger
+     */
+    private static final Log log = LogFactory.getLog(LogJournal.class);
+
+    /**
+     * The single thread rendering and writing the queued messages of every journal
+     */
+    private static final ThreadPoolExecutor writer;
+
+    static {
+        writer = new ThreadPoolExecutor(1, 1, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), runnable -> {
+            Thread thread = new Thread(runnable, "RuleRunner-LogJournal");
+            thread.setDaemon(true);
+            return thread;
+        });
+        // The idle thread exits, so that a reloaded plugin does not leave it behind
+        writer.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Creates a journal in a new file in java.io.tmpdir, which is deleted when the journal
+     * is deleted or, failing that, when the JVM exits
+     *
+     * @param name A name for the run, included in the file name
+     * @return The journal
+     * @throws IOException if the file cannot be created
+     */
+    public static LogJournal create(String name) throws IOException {
+        File file = Files.createTempFile("rulerunner-" + name + "-", ".journal").toFile();
+        file.deleteOnExit();
+        return new LogJournal(file);
+    }
+
+    /**
+     * The offsets of every {@value #INDEX_INTERVAL}th record, in ascending order
+     */
+    private long[] checkpoints;
+
+    /**
+     * The number of offsets in {@link #checkpoints}
+     */
+    private int checkpointCount;
+
+    /**
+     * True once the journal has stopped accepting records
+     */
+    private boolean closed;
+
+    /**
+     * True once the journal file has been deleted
+     */
+    private boolean deleted;
+
+    /**
+     * True once a write has failed, after which the journal is deleted
+     */
+    private volatile boolean failed;
+
+    /**
+     * The journal file
+     */
+    private final File file;
+
+    /**
+     * The stream appending to the journal file, or null once it is closed
+     */
+    private DataOutputStream output;
+
+    /**
+     * The messages queued by {@link #enqueue(LogStreamWrapper.CapturedMessage)} and not yet written
+     */
+    private final Queue<LogStreamWrapper.CapturedMessage> pending;
+
+    /**
+     * The number of messages in {@link #pending}
+     */
+    private final AtomicInteger pendingCount;
+
+    /**
+     * The number of records appended
+     */
+    private long records;
+
+    /**
+     * True while a batch of this journal's messages is scheduled on the writer thread
+     */
+    private final AtomicBoolean scheduled;
+
+    /**
+     * The number of bytes appended
+     */
+    private long size;
+
+    private LogJournal(File file) throws IOException {
+        this.file = file;
+        this.checkpoints = new long[16];
+        this.pending = new ConcurrentLinkedQueue<>();
+        this.pendingCount = new AtomicInteger();
+        this.scheduled = new AtomicBoolean();
+        this.output = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file, true), 64 * 1024));
+    }
+
+    /**
+     * Appends a record to the journal. Does nothing once the journal is closed.
+     *
+     * @param sequence The sequence number of the message
+     * @param timestamp The epoch timestamp of the message
+     * @param level The level of the message
+     * @param message The rendered message
+     * @param hasError True if the message includes a stack trace
+     * @throws IOException if the record cannot be written
+     */
+    private synchronized void append(long sequence, long timestamp, LogStreamWrapper.Level level, String message, boolean hasError) throws IOException {
+        if (closed) {
+            return;
+        }
+        byte[] text = (message == null) ? new byte[0] : message.getBytes(StandardCharsets.UTF_8);
+        if (records % INDEX_INTERVAL == 0) {
+            if (checkpointCount == checkpoints.length) {
+                checkpoints = Arrays.copyOf(checkpoints, checkpointCount * 2);
+            }
+            checkpoints[checkpointCount++] = size;
+        }
+        output.writeInt(HEADER_BYTES + text.length);
+        output.writeLong(sequence);
+        output.writeLong(timestamp);
+        output.writeByte(level.ordinal());
+        output.writeByte(hasError ? FLAG_HAS_ERROR : 0);
+        output.write(text);
+        size += 4 + HEADER_BYTES + text.length;
+        records++;
+    }
+
+    /**
+     * Writes every queued message to the journal, and stops accepting records. The file
+     * remains readable until deleted.
+     */
+    public synchronized void close() {
+        if (closed) {
+            return;
+        }
+        drain();
+        closed = true;
+        try {
+            output.close();
+        } catch(IOException e) {
+            /* The records already flushed remain readable */
+        }
+        output = null;
+    }
+
+    /**
+     * Closes the journal and deletes its file
+     */
+    public synchronized void delete() {
+        close();
+        deleted = true;
+        if (!file.delete() && file.exists()) {
+            file.deleteOnExit();
+        }
+    }
+
+    /**
+     * Renders and appends every queued message. A failed write deletes the journal and
+     * discards the rest of the queue.
+     */
+    private synchronized void drain() {
+        LogStreamWrapper.CapturedMessage message;
+        while((message = pending.poll()) != null) {
+            pendingCount.decrementAndGet();
+            if (closed || failed) {
+                continue;
+            }
+            try {
+                append(message.sequence, message.timestamp, message.level, message.render(), message.hasThrowable());
+            } catch(IOException e) {
+                log.warn("Unable to write to the log journal " + file + "; deleting it", e);
+                // Set first, so that the drain on closing discards the rest of the queue
+                failed = true;
+                delete();
+            }
+        }
+    }
+
+    /**
+     * Queues a captured message to be rendered and appended by the writer thread. Does
+     * nothing once the journal is closed.
+     *
+     * @param message The message, with its sequence number already assigned
+     * @return False if an earlier write failed and the journal has been deleted
+     */
+    boolean enqueue(LogStreamWrapper.CapturedMessage message) {
+        if (failed) {
+            return false;
+        }
+        pending.add(message);
+        if (pendingCount.incrementAndGet() > MAX_PENDING) {
+            drain();
+        } else if (scheduled.compareAndSet(false, true)) {
+            writer.execute(this::writePending);
+        }
+        return !failed;
+    }
+
+    /**
+     * Writes the queued messages on the writer thread, rescheduling itself if more were
+     * queued after the batch was taken
+     */
+    private void writePending() {
+        try {
+            drain();
+        } finally {
+            scheduled.set(false);
+        }
+        if (!pending.isEmpty() && scheduled.compareAndSet(false, true)) {
+            writer.execute(this::writePending);
+        }
+    }
+
+    /**
+     * Writes any queued messages and flushes the buffered records, so that a reader sees
+     * everything logged so far
+     *
+     * @return The size of the journal in bytes
+     * @throws IOException if the records cannot be flushed
+     */
+    private synchronized long flush() throws IOException {
+        drain();
+        if (output != null) {
+            output.flush();
+        }
+        return size;
+    }
+
+    /**
+     * Finds the offset of the last indexed record at or before the given offset
+     * @param offset The offset
+     * @return The offset of an indexed record, from which the records can be walked
+     */
+    private synchronized long checkpointAtOrBefore(long offset) {
+        int index = Arrays.binarySearch(checkpoints, 0, checkpointCount, offset);
+        if (index < 0) {
+            index = -index - 2;
+        }
+        return (index < 0) ? 0L : checkpoints[index];
+    }
+
+    /**
+     * Opens the full journal, as of now, to be written out as plain text. The file is
+     * opened immediately, so the export can still be written if the journal is deleted
+     * afterward.
+     *
+     * @return The export
+     * @throws DeletedException if the journal has been deleted
+     * @throws IOException if the journal cannot be read
+     */
+    public Export export() throws IOException {
+        long end;
+        synchronized(this) {
+            if (deleted) {
+                throw new DeletedException();
+            }
+            end = flush();
+        }
+        try {
+            return new Export(Files.newInputStream(file.toPath()), end);
+        } catch(NoSuchFileException e) {
+            throw new DeletedException();
+        }
+    }
+
+    /**
+     * @return The number of records appended
+     */
+    public synchronized long getRecordCount() {
+        return records;
+    }
+
+    /**
+     * @return The size of the journal in bytes
+     */
+    public synchronized long getSize() {
+        return size;
+    }
+
+    /**
+     * Reads a page of records starting at the given offset, which must be zero or the
+     * nextOffset of a previous page. The offset is checked by walking the records from
+     * the nearest indexed offset, so only the start of a record written to the journal,
+     * or its end, is accepted.
+     *
+     * @param offset The offset to start from
+     * @param limit The maximum number of records to read, including those below the level
+     * @param minimumLevel The minimum level to return, or null for all
+     * @return The page
+     * @throws IllegalArgumentException if the offset is not the start of a record in the journal
+     * @throws DeletedException if the journal has been deleted
+     * @throws IOException if the journal cannot be read
+     */
+    public Page read(long offset, int limit, LogStreamWrapper.Level minimumLevel) throws IOException {
+        if (offset < 0) {
+            throw new IllegalArgumentException("The offset " + offset + " is negative");
+        }
+        long end;
+        synchronized(this) {
+            if (deleted) {
+                throw new DeletedException();
+            }
+            end = flush();
+        }
+        if (offset > end) {
+            throw new IllegalArgumentException("The offset " + offset + " is past the end of the log");
+        }
+        long position = checkpointAtOrBefore(offset);
+        List<LogMessageVO> messages = new ArrayList<>();
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+            raf.seek(position);
+            DataInputStream input = new DataInputStream(new BufferedInputStream(Channels.newInputStream(raf.getChannel())));
+            while(position < offset) {
+                int length = readLength(input, position, end);
+                skipFully(input, length);
+                position += 4 + length;
+            }
+            if (position != offset) {
+                throw new IllegalArgumentException("The offset " + offset + " is not the start of a log record");
+            }
+            for(int count = 0; count < limit && position < end; count++) {
+                int length = readLength(input, position, end);
+                LogMessageVO vo = readRecord(input, length);
+                position += 4 + length;
+                if (minimumLevel == null || LogStreamWrapper.Level.valueOf(vo.getLevel()).ordinal() >= minimumLevel.ordinal()) {
+                    messages.add(vo);
+                }
+            }
+        } catch(FileNotFoundException e) {
+            // Only opening the file throws this, when it was deleted after the check above
+            throw new DeletedException();
+        }
+        return new Page(messages, position, end);
+    }
+
+    /**
+     * Reads the length prefix of the record at the given position, and checks that the
+     * record fits in the journal, in case the file does not hold what was appended.
+     *
+     * @param input The stream, positioned at the record
+     * @param position The position of the record
+     * @param end The size of the journal
+     * @return The length of the rest of the record
+     * @throws IllegalArgumentException if the position is not the start of a record
+     * @throws IOException if the journal cannot be read
+     */
+    private static int readLength(DataInputStream input, long position, long end) throws IOException {
+        int length = input.readInt();
+        if (length < HEADER_BYTES || position + 4 + length > end) {
+            throw new IllegalArgumentException("The offset " + position + " is not the start of a log record");
+        }
+        return length;
+    }
+
+    /**
+     * Skips the given number of bytes, failing if the journal ends first
+     *
+     * @param input The stream
+     * @param count The number of bytes to skip
+     * @throws IOException if the journal cannot be read or ends too soon
+     */
+    private static void skipFully(DataInputStream input, int count) throws IOException {
+        while(count > 0) {
+            int skipped = input.skipBytes(count);
+            if (skipped <= 0) {
+                throw new EOFException();
+            }
+            count -= skipped;
+        }
+    }
+
+    /**
+     * Reads the rest of a record after its length prefix
+     *
+     * @throws IllegalArgumentException if the record's level is not valid
+     */
+    private static LogMessageVO readRecord(DataInputStream input, int length) throws IOException {
+        LogMessageVO vo = new LogMessageVO();
+        vo.setSequence(input.readLong());
+        vo.setDate(input.readLong());
+        int level = input.readByte();
+        if (level < 0 || level >= LogStreamWrapper.Level.values().length) {
+            throw new IllegalArgumentException("The log record has an invalid level " + level + "; the offset is not the start of a record");
+        }
+        vo.setLevel(LogStreamWrapper.Level.values()[level].name());
+        vo.setHasError((input.readByte() & FLAG_HAS_ERROR) != 0);
+        byte[] text = new byte[length - HEADER_BYTES];
+        input.readFully(text);
+        vo.setMessage(new String(text, StandardCharsets.UTF_8));
+        return vo;
+    }
+}
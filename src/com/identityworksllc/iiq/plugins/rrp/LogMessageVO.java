@@ -28,6 +28,11 @@ public class LogMessageVO {
      */
     private String message;
 
+    /**
+     * The sequence number of the message within its rule run, starting at zero
+     */
+    private long sequence;
+
     public long getDate() {
         return date;
     }
@@ -40,6 +45,10 @@ public class LogMessageVO {
         return message;
     }
 
+    public long getSequence() {
+        return sequence;
+    }
+
     public boolean isHasError() {
         return hasError;
     }
@@ -63,4 +72,8 @@ public class LogMessageVO {
     public void setMessage(String message) {
         this.message = message;
     }
+
+    public void setSequence(long sequence) {
+        this.sequence = sequence;
+    }
 }
@@ -0,0 +1,153 @@
+package com.identityworksllc.iiq.plugins.rrp;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * A fixed-capacity ring buffer of captured log messages, so that a chatty rule whose
+ * browser has stopped polling holds at most a bounded number of messages, rather than
+ * accumulating them until its worker is evicted.
+ *
+ * Writers never block each other or the readers. Each claims the next sequence number
+ * and stores its message in the slot for that number, overwriting the oldest message
+ * once the buffer is full. Reading does not remove anything, so any number of clients
+ * can each read the retained window from their own position. An overwritten message
+ * that was never delivered to any client is counted as dropped, by level. The counts
+ * may be off by one when a message is read at the same moment it is overwritten.
+ */
+final class LogRingBuffer {
+    /**
+     * The largest capacity allowed
+     */
+    private static final int MAX_CAPACITY = 1 << 20;
+
+    /**
+     * The smallest capacity allowed
+     */
+    private static final int MIN_CAPACITY = 16;
+
+    /**
+     * The number of unread messages overwritten, indexed by level ordinal
+     */
+    private final AtomicLongArray dropped;
+
+    /**
+     * The mask from a sequence number to its slot, the capacity being a power of two
+     */
+    private final int mask;
+
+    /**
+     * The sequence number of the next message written
+     */
+    private final AtomicLong nextSequence;
+
+    /**
+     * The sequence number of the first message not yet delivered to any client
+     */
+    private final AtomicLong deliveredSequence;
+
+    /**
+     * The slots
+     */
+    private final AtomicReferenceArray<LogStreamWrapper.CapturedMessage> slots;
+
+    /**
+     * Creates a ring buffer holding at least the given number of messages
+     * @param capacity The capacity, rounded up to a power of two
+     */
+    LogRingBuffer(int capacity) {
+        int size = Integer.highestOneBit(Math.min(MAX_CAPACITY, Math.max(MIN_CAPACITY, capacity)) - 1) << 1;
+        this.slots = new AtomicReferenceArray<>(size);
+        this.mask = size - 1;
+        this.nextSequence = new AtomicLong();
+        this.deliveredSequence = new AtomicLong();
+        this.dropped = new AtomicLongArray(LogStreamWrapper.Level.values().length);
+    }
+
+    /**
+     * Adds a message, overwriting the oldest message if the buffer is full
+     * @param message The message
+     */
+    void add(LogStreamWrapper.CapturedMessage message) {
+        long sequence = nextSequence.getAndIncrement();
+        message.sequence = sequence;
+        LogStreamWrapper.CapturedMessage previous = slots.getAndSet((int) (sequence & mask), message);
+        if (previous != null && previous.sequence >= deliveredSequence.get()) {
+            dropped.incrementAndGet(previous.level.ordinal());
+        }
+    }
+
+    /**
+     * @return The sequence number of the last message delivered to any client, or -1 if none has been
+     */
+    long getDeliveredSequence() {
+        return deliveredSequence.get() - 1;
+    }
+
+    /**
+     * @return The sequence number of the last message written, or -1 if none has been
+     */
+    long getLastSequence() {
+        return nextSequence.get() - 1;
+    }
+
+    /**
+     * Reads the retained messages after the given sequence number, oldest first, without
+     * removing them. Messages already overwritten are skipped, and reading stops at the
+     * first sequence number whose writer has not yet stored its message.
+     *
+     * @param afterSequence The sequence number of the last message the client already has, or -1 for all
+     * @param into The list to add the messages to
+     * @return The sequence number of the last message read or skipped, to pass as afterSequence next time
+     */
+    long read(long afterSequence, List<LogStreamWrapper.CapturedMessage> into) {
+        long end = nextSequence.get();
+        long sequence = Math.max(Math.max(-1L, Math.min(afterSequence, end - 1)) + 1, end - slots.length());
+        for(; sequence < end; sequence++) {
+            LogStreamWrapper.CapturedMessage message = slots.get((int) (sequence & mask));
+            if (message == null || message.sequence < sequence) {
+                // A writer has claimed this sequence number, but not yet stored its message
+                break;
+            }
+            if (message.sequence == sequence) {
+                into.add(message);
+            }
+        }
+        deliveredSequence.accumulateAndGet(sequence, Math::max);
+        return sequence - 1;
+    }
+
+    /**
+     * Gets the number of unread messages overwritten at each level, omitting levels with none
+     * @return The counts, keyed by level name, in level order
+     */
+    Map<String, Long> getDroppedCounts() {
+        Map<String, Long> counts = new LinkedHashMap<>();
+        for(LogStreamWrapper.Level level : LogStreamWrapper.Level.values()) {
+            long count = dropped.get(level.ordinal());
+            if (count > 0) {
+                counts.put(level.name(), count);
+            }
+        }
+        return counts;
+    }
+
+    /**
+     * @return The number of messages currently held, up to the capacity
+     */
+    int getRetainedCount() {
+        return (int) Math.min(nextSequence.get(), slots.length());
+    }
+
+    /**
+     * @return The number of messages written but not yet delivered to any client, up to the capacity
+     */
+    int getPendingCount() {
+        long pending = nextSequence.get() - deliveredSequence.get();
+        return (int) Math.max(0, Math.min(pending, slots.length()));
+    }
+}
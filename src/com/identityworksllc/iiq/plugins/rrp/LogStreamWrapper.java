@@ -7,13 +7,9 @@ import java.io.IOException;
 import java.io.PrintStream;
 import java.io.PrintWriter;
 import java.io.StringWriter;
-import java.text.SimpleDateFormat;
 import java.util.ArrayList;
-import java.util.Date;
-import java.util.LinkedList;
 import java.util.List;
-import java.util.Queue;
-import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.Map;
 
 /**
  * The wrapper around the {@link Log} interface allowing log messages to be captured
@@ -30,12 +26,175 @@ public final class LogStreamWrapper implements Log {
         Fatal
     }
 
-    private final Queue<LogMessageVO> messages;
+    /**
+     * A captured log message, holding only what is needed to render it later. The date,
+     * the stack trace, and the {@link LogMessageVO} are only produced when the message is
+     * retrieved by {@link #getMessages(Level)}, which is usually far less often than
+     * messages are logged, and may never happen at all.
+     */
+    static final class CapturedMessage {
+        /**
+         * The log level
+         */
+        final Level level;
+
+        /**
+         * The message, already converted to a String
+         */
+        private final String message;
+
+        /**
+         * The sequence number assigned by the {@link LogRingBuffer} holding this message
+         */
+        long sequence;
+
+        /**
+         * The throwable logged with the message, or null
+         */
+        private final Throwable throwable;
+
+        /**
+         * The epoch timestamp at which the message was logged
+         */
+        final long timestamp;
+
+        private CapturedMessage(long timestamp, Level level, String message, Throwable throwable) {
+            this.timestamp = timestamp;
+            this.level = level;
+            this.message = message;
+            this.throwable = throwable;
+        }
+
+        /**
+         * Renders this message, and its stack trace if it has one, for the browser
+         * @return The rendered message
+         */
+        private LogMessageVO toVO() {
+            LogMessageVO vo = new LogMessageVO();
+            vo.setLevel(level.name());
+            vo.setDate(timestamp);
+            vo.setSequence(sequence);
+            vo.setHasError(throwable != null);
+            vo.setMessage(render());
+            return vo;
+        }
+
+        /**
+         * @return True if the message was logged with a throwable
+         */
+        boolean hasThrowable() {
+            return throwable != null;
+        }
+
+        /**
+         * Renders the text of this message, followed by the stack trace if it has one
+         * @return The rendered text
+         */
+        String render() {
+            if (throwable == null) {
+                return message;
+            }
+
+            String rendered = message;
+            try (StringWriter output = new StringWriter()) {
+                try (PrintWriter printStream = new PrintWriter(output)) {
+                    if (Util.isNotNullOrEmpty(message)) {
+                        printStream.print(message);
+                    }
+                    printStream.println();
+                    printStream.println(throwable.getClass() + ": " + throwable.getMessage());
+                    throwable.printStackTrace(printStream);
+                    printStream.flush();
+                }
+
+                output.flush();
+                rendered = output.toString();
+            } catch(IOException e) {
+                /* Shouldn't ever happen because StringWriter.close() is empty, ignore this */
+            }
+            return rendered;
+        }
+    }
+
+    /**
+     * The messages read by one call to {@link #getMessagesAfter(Level, long)}, and the
+     * sequence number to resume from on the next call
+     */
+    public static final class MessageBatch {
+        /**
+         * The sequence number of the last message read or skipped
+         */
+        private final long lastSequence;
+
+        /**
+         * The messages at or above the requested level
+         */
+        private final List<LogMessageVO> messages;
+
+        private MessageBatch(List<LogMessageVO> messages, long lastSequence) {
+            this.messages = messages;
+            this.lastSequence = lastSequence;
+        }
+
+        /**
+         * @return The sequence number to pass as the 'after' sequence on the next read. This
+         * includes any messages skipped for being below the requested level.
+         */
+        public long getLastSequence() {
+            return lastSequence;
+        }
+
+        public List<LogMessageVO> getMessages() {
+            return messages;
+        }
+    }
+
+    /**
+     * The number of messages retained for the browser if no capacity is given
+     */
+    public static final int DEFAULT_CAPACITY = 10000;
+
+    /**
+     * The journal holding every message on disk, or null if only the buffer is kept
+     */
+    private volatile LogJournal journal;
+    private final LogRingBuffer messages;
     private final Log passthrough;
 
+    /**
+     * Signaled on every captured message, and by the rule's worker on any other change the
+     * browser should see
+     */
+    private final ChangeSignal changes;
+
     public LogStreamWrapper(Log passthrough) {
+        this(passthrough, DEFAULT_CAPACITY);
+    }
+
+    /**
+     * Creates a wrapper retaining at most about the given number of messages between polls.
+     * Beyond that, the oldest unread messages are dropped and counted.
+     *
+     * @param passthrough The log to pass every message through to
+     * @param capacity The capacity, rounded up to a power of two
+     */
+    public LogStreamWrapper(Log passthrough, int capacity) {
+        this(passthrough, capacity, null);
+    }
+
+    /**
+     * Creates a wrapper that also appends every message to the given journal, so that the
+     * buffer only needs to hold the most recent messages, while the full log remains on disk
+     *
+     * @param passthrough The log to pass every message through to
+     * @param capacity The capacity of the in-memory buffer, rounded up to a power of two
+     * @param journal The journal, or null for none
+     */
+    public LogStreamWrapper(Log passthrough, int capacity, LogJournal journal) {
         this.passthrough = passthrough;
-        this.messages = new ConcurrentLinkedQueue<>();
+        this.messages = new LogRingBuffer(capacity);
+        this.journal = journal;
+        this.changes = new ChangeSignal();
     }
 
     /**
@@ -197,66 +356,117 @@ public final class LogStreamWrapper implements Log {
     }
 
     /**
-     * Gets the list of queued messages with the minimum level. The total number of messages in the queue
-     * at the start of the polling process will be drained and processed.
+     * Gets the journal holding every message logged, if journaling is enabled and has not
+     * failed
+     *
+     * @return The journal, or null
+     */
+    public LogJournal getJournal() {
+        return journal;
+    }
+
+    /**
+     * @return The signal raised when a message is captured, or the rule otherwise changes
+     */
+    ChangeSignal getChangeSignal() {
+        return changes;
+    }
+
+    /**
+     * Gets the number of messages currently retained, whether or not they have been delivered
+     *
+     * @return The number of retained messages
+     */
+    public int getRetainedMessageCount() {
+        return messages.getRetainedCount();
+    }
+
+    /**
+     * Gets the number of messages not yet delivered to any client
+     *
+     * @return The number of queued messages
+     */
+    public int getPendingMessageCount() {
+        return messages.getPendingCount();
+    }
+
+    /**
+     * Gets the number of messages at each level that were dropped, unread, to make room
+     * for newer messages
+     *
+     * @return The counts, keyed by level name, omitting levels with none
+     */
+    public Map<String, Long> getDroppedMessageCounts() {
+        return messages.getDroppedCounts();
+    }
+
+    /**
+     * Gets the list of retained messages with the minimum level that have not yet been
+     * delivered to any client. This is for clients that do not track a sequence number.
      *
      * @param minimumLevel The minimum log level
      * @return The list of log messages to return to the browser
      */
     public List<LogMessageVO> getMessages(Level minimumLevel) {
-        // Capture the size here, since the queue may be modified as we're working
-        // and we don't want to loop forever.
-        int queueSize = this.messages.size();
-        List<LogMessageVO> logMessages = new ArrayList<>();
-        for(int i = 0; i < queueSize; i++) {
-            LogMessageVO output = this.messages.poll();
-            if (output != null) {
-                if (minimumLevel == null || Level.valueOf(output.getLevel()).ordinal() >= minimumLevel.ordinal()) {
-                    logMessages.add(output);
-                }
+        return getMessagesAfter(minimumLevel, getDeliveredSequence()).getMessages();
+    }
+
+    /**
+     * Gets the sequence number of the last message delivered to any client
+     *
+     * @return The sequence number, or -1 if no message has been delivered
+     */
+    public long getDeliveredSequence() {
+        return messages.getDeliveredSequence();
+    }
+
+    /**
+     * Gets the retained messages with the minimum level after the given sequence number.
+     * Nothing is removed, and messages below the minimum level are kept, so a client that
+     * lost a response, or a second client watching the same rule, can resume from its own
+     * position. Messages that have already been dropped to make room for newer ones are
+     * skipped.
+     *
+     * @param minimumLevel The minimum log level, or null for all levels
+     * @param afterSequence The sequence number of the last message the client has, or -1 for all
+     * @return The messages, and the sequence number to resume from
+     */
+    public MessageBatch getMessagesAfter(Level minimumLevel, long afterSequence) {
+        List<CapturedMessage> captured = new ArrayList<>();
+        long lastSequence = messages.read(afterSequence, captured);
+        List<LogMessageVO> logMessages = new ArrayList<>(captured.size());
+        for(CapturedMessage output : captured) {
+            if (minimumLevel == null || output.level.ordinal() >= minimumLevel.ordinal()) {
+                logMessages.add(output.toVO());
             }
         }
-        return logMessages;
+        return new MessageBatch(logMessages, lastSequence);
     }
 
     /**
-     * Enqueues the given message as a {@link LogMessageVO}, to be retrieved by the browser
-     * on the next poll.
+     * Captures the given message, to be rendered as a {@link LogMessageVO} and retrieved by
+     * the browser on the next poll. This runs on the rule's own thread for every message
+     * logged, so it only records the timestamp, level, and references to the message and
+     * throwable, leaving all formatting to {@link #getMessages(Level)}. A journal renders
+     * and writes the message on its own writer thread.
      *
      * @param level The log level
      * @param message The message associated with the log
      * @param throwable The throwable associated with the log message
      */
     private void queue(Level level, Object message, Throwable throwable) {
-        Date now = new Date();
-        SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss.SSS");
-
-        LogMessageVO vo = new LogMessageVO();
-        String logMessage = String.valueOf(message);
-
-        try (StringWriter output = new StringWriter()) {
-            try (PrintWriter printStream = new PrintWriter(output)) {
-                if (Util.isNotNullOrEmpty(logMessage)) {
-                    printStream.print(logMessage);
-                }
-                if (throwable != null) {
-                    vo.setHasError(true);
-                    printStream.println();
-                    printStream.println(throwable.getClass() + ": " + throwable.getMessage());
-                    throwable.printStackTrace(printStream);
-                }
-                printStream.flush();
-            }
+        // The message is converted immediately, since the object may change or be
+        // detached from its Hibernate session before it is rendered
+        CapturedMessage captured = new CapturedMessage(System.currentTimeMillis(), level, String.valueOf(message), throwable);
+        messages.add(captured);
 
-            output.flush();
-            logMessage = output.toString();
-        } catch(IOException e) {
-            /* Shouldn't ever happen because StringWriter.close() is empty, ignore this */
+        LogJournal currentJournal = journal;
+        if (currentJournal != null && !currentJournal.enqueue(captured)) {
+            // Keep running with the in-memory buffer alone, rather than failing the rule
+            journal = null;
+            passthrough.warn("Unable to write to the log journal; only the most recent messages will be kept");
         }
-        vo.setLevel(level.name());
-        vo.setDate(now);
-        vo.setMessage(logMessage);
-        messages.offer(vo);
+        changes.signal();
     }
 
     /**
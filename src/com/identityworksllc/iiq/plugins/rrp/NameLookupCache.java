@@ -0,0 +1,202 @@
+package com.identityworksllc.iiq.plugins.rrp;
+
+import com.identityworksllc.iiq.common.Utilities;
+
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A process-wide cache of the name lookups made by ECJ through
+ * {@link BeanshellSyntaxChecker.BeanshellNameEnvironment}. ECJ asks whether every dotted
+ * segment of every qualified name is a package, and each answer otherwise requires a
+ * classloader resource lookup plus a walk over every plugin's script packages. It also
+ * asks repeatedly for types that do not exist, such as the same name in each imported
+ * package.
+ *
+ * This cache remembers both the package answers and the types known to be missing.
+ * Resolved types themselves are cached by {@link ClassFileReaderCache}. Like that cache,
+ * this one is cleared whenever the plugin version changes.
+ */
+public class NameLookupCache {
+    /**
+     * Singleton instance of the NameLookupCache
+     */
+    private static final NameLookupCache INSTANCE = new NameLookupCache();
+
+    /**
+     * The maximum number of entries in each map before it is cleared and rebuilt
+     */
+    private static final int MAX_ENTRIES = 100_000;
+
+    /**
+     * Gets the singleton instance of the NameLookupCache
+     * @return the singleton instance of the NameLookupCache
+     */
+    public static NameLookupCache getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * The number of missing-type lookups answered from the cache
+     */
+    private final AtomicLong missingHits;
+
+    /**
+     * The names known not to resolve to any type
+     */
+    private final Set<String> missingTypes;
+
+    /**
+     * The package answers, keyed by dotted name
+     */
+    private final Map<String, Boolean> packages;
+
+    /**
+     * The number of package lookups answered from the cache
+     */
+    private final AtomicLong packageHits;
+
+    /**
+     * The number of package lookups that had to be computed
+     */
+    private final AtomicLong packageMisses;
+
+    /**
+     * The plugin version at which the cache contents were computed
+     */
+    private volatile int pluginVersion;
+
+    /**
+     * Private constructor to enforce singleton pattern
+     */
+    private NameLookupCache() {
+        this.packages = new ConcurrentHashMap<>();
+        this.missingTypes = ConcurrentHashMap.newKeySet();
+        this.packageHits = new AtomicLong();
+        this.packageMisses = new AtomicLong();
+        this.missingHits = new AtomicLong();
+        this.pluginVersion = -1;
+    }
+
+    /**
+     * Clears the cache if the plugin version has changed since it was computed
+     */
+    private void checkVersion() {
+        int currentVersion = Utilities.getPluginVersionInt();
+        if (currentVersion != pluginVersion) {
+            synchronized (this) {
+                if (currentVersion != pluginVersion) {
+                    packages.clear();
+                    missingTypes.clear();
+                    pluginVersion = currentVersion;
+                }
+            }
+        }
+    }
+
+    /**
+     * Gets the cached package answer for the given name
+     *
+     * @param name The dotted name
+     * @return True or false if the answer is cached, or null if it must be computed
+     */
+    public Boolean getPackage(String name) {
+        checkVersion();
+        Boolean answer = packages.get(name);
+        if (answer != null) {
+            packageHits.incrementAndGet();
+        } else {
+            packageMisses.incrementAndGet();
+        }
+        return answer;
+    }
+
+    /**
+     * Gets the plugin version at which the cache contents are valid, clearing the cache
+     * first if the version has changed. Callers read this before computing an answer and
+     * pass it to {@link #putMissing(String, int)} or {@link #putPackage(String, boolean, int)},
+     * so that an answer computed before a plugin reload is not stored after it.
+     *
+     * @return The current plugin version
+     */
+    public int getPluginVersion() {
+        checkVersion();
+        return pluginVersion;
+    }
+
+    /**
+     * Gets the hit and miss counters for this cache, for display to administrators
+     * @return The statistics, keyed by name
+     */
+    public Map<String, Object> getStatistics() {
+        Map<String, Object> stats = new TreeMap<>();
+        long hits = packageHits.get();
+        long misses = packageMisses.get();
+        stats.put("packageEntries", packages.size());
+        stats.put("packageHits", hits);
+        stats.put("packageMisses", misses);
+        stats.put("packageHitRate", (hits + misses) == 0 ? 0.0 : (double) hits / (hits + misses));
+        stats.put("missingTypeEntries", missingTypes.size());
+        stats.put("missingTypeHits", missingHits.get());
+        return stats;
+    }
+
+    /**
+     * Returns true if the given name is known not to resolve to any type
+     *
+     * @param name The fully qualified type name
+     * @return True if the type is known to be missing
+     */
+    public boolean isKnownMissing(String name) {
+        checkVersion();
+        boolean missing = missingTypes.contains(name);
+        if (missing) {
+            missingHits.incrementAndGet();
+        }
+        return missing;
+    }
+
+    /**
+     * Records that the given name does not resolve to any type, unless the plugin
+     * version has changed since the lookup began
+     *
+     * @param name The fully qualified type name
+     * @param version The plugin version read by {@link #getPluginVersion()} before the lookup
+     */
+    public void putMissing(String name, int version) {
+        checkVersion();
+        synchronized (this) {
+            if (version != pluginVersion) {
+                return;
+            }
+            if (missingTypes.size() >= MAX_ENTRIES) {
+                missingTypes.clear();
+            }
+            missingTypes.add(name);
+        }
+    }
+
+    /**
+     * Records the package answer for the given name, unless the plugin version has
+     * changed since the lookup began
+     *
+     * @param name The dotted name
+     * @param isPackage True if the name is a package
+     * @param version The plugin version read by {@link #getPluginVersion()} before the lookup
+     */
+    public void putPackage(String name, boolean isPackage, int version) {
+        checkVersion();
+        synchronized (this) {
+            if (version != pluginVersion) {
+                return;
+            }
+            if (packages.size() >= MAX_ENTRIES) {
+                packages.clear();
+            }
+            packages.put(name, isPackage);
+        }
+    }
+}
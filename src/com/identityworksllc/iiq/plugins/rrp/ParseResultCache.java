@@ -0,0 +1,141 @@
+package com.identityworksllc.iiq.plugins.rrp;
+
+import com.identityworksllc.iiq.common.Utilities;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * A process-wide cache of the error lists produced by {@link BeanshellSyntaxChecker#parse()}.
+ * The editor frequently lints the same source more than once, such as after an undo, from a
+ * second tab, or when the debounced change handler fires without a real change. Those
+ * requests are answered here without invoking the compiler.
+ *
+ * Entries are keyed by a SHA-256 digest of everything that affects the result, as built by
+ * {@link Utils#digest(String...)}, and evicted in least-recently-used order. Like the other
+ * syntax checker caches, this one is cleared whenever the plugin version changes, since a
+ * new plugin may export classes that change the result.
+ */
+public class ParseResultCache {
+    /**
+     * Singleton instance of the ParseResultCache
+     */
+    private static final ParseResultCache INSTANCE = new ParseResultCache();
+
+    /**
+     * The maximum number of cached results
+     */
+    private static final int MAX_ENTRIES = 256;
+
+    /**
+     * Gets the singleton instance of the ParseResultCache
+     * @return the singleton instance of the ParseResultCache
+     */
+    public static ParseResultCache getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * The cached results, in least-recently-used order
+     */
+    private final LinkedHashMap<String, List<Map<String, Object>>> cache;
+
+    /**
+     * The number of lookups answered from the cache
+     */
+    private long hits;
+
+    /**
+     * The number of lookups not answered from the cache
+     */
+    private long misses;
+
+    /**
+     * The plugin version at which the cache contents were computed
+     */
+    private int pluginVersion;
+
+    /**
+     * Private constructor to enforce singleton pattern
+     */
+    private ParseResultCache() {
+        this.cache = new LinkedHashMap<String, List<Map<String, Object>>>(64, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, List<Map<String, Object>>> eldest) {
+                return size() > MAX_ENTRIES;
+            }
+        };
+        this.pluginVersion = -1;
+    }
+
+    /**
+     * Clears the cache if the plugin version has changed since it was computed. Must be
+     * invoked while holding the lock on this object.
+     */
+    private void checkVersion() {
+        int currentVersion = Utilities.getPluginVersionInt();
+        if (currentVersion != pluginVersion) {
+            cache.clear();
+            pluginVersion = currentVersion;
+        }
+    }
+
+    /**
+     * Copies the given results, so that neither the cache nor a caller can modify the other's copy
+     * @param results The results to copy
+     * @return The copy
+     */
+    private List<Map<String, Object>> copy(List<Map<String, Object>> results) {
+        List<Map<String, Object>> copy = new ArrayList<>();
+        for(Map<String, Object> message : results) {
+            copy.add(new HashMap<>(message));
+        }
+        return copy;
+    }
+
+    /**
+     * Gets the cached result for the given digest
+     *
+     * @param key The digest of the parse inputs
+     * @return A copy of the cached result, or null if it is not cached
+     */
+    public synchronized List<Map<String, Object>> get(String key) {
+        checkVersion();
+        List<Map<String, Object>> cached = cache.get(key);
+        if (cached == null) {
+            misses++;
+            return null;
+        }
+        hits++;
+        return copy(cached);
+    }
+
+    /**
+     * Gets the size and hit counters for this cache, for display to administrators
+     * @return The statistics, keyed by name
+     */
+    public synchronized Map<String, Object> getStatistics() {
+        Map<String, Object> stats = new TreeMap<>();
+        stats.put("entries", cache.size());
+        stats.put("hits", hits);
+        stats.put("misses", misses);
+        stats.put("hitRate", (hits + misses) == 0 ? 0.0 : (double) hits / (hits + misses));
+        return stats;
+    }
+
+    /**
+     * Caches the result for the given digest
+     *
+     * @param key The digest of the parse inputs
+     * @param results The error list produced by the syntax checker
+     */
+    public synchronized void put(String key, List<Map<String, Object>> results) {
+        checkVersion();
+        cache.put(key, Collections.unmodifiableList(copy(results)));
+    }
+}
@@ -7,22 +7,33 @@ import sailpoint.api.SailPointContext;
 import sailpoint.api.SailPointFactory;
 import sailpoint.object.Plugin;
 import sailpoint.plugin.DatabaseFileHandler;
+import sailpoint.plugin.PluginsCache;
+import sailpoint.server.Environment;
 import sailpoint.tools.GeneralException;
-import sailpoint.tools.IOUtil;
 
-import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
 import java.io.InputStream;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipInputStream;
 
 /**
  * Caches the loaded plugin classes from each plugin. This is used by the {@link BeanshellSyntaxChecker}
- * to compile Beanshell code using exported plugin classes.
+ * to compile Beanshell code using exported plugin classes, and to decide whether the
+ * {@link InterpreterPool} can run a script.
+ *
+ * The first lookup for a plugin scans its plugin file once and indexes every class in the
+ * plugin's exported script packages, since those are the only classes a script can reference.
+ * Concurrent lookups for the same plugin wait for that single scan rather than each reading
+ * the plugin file from the database.
  *
  * The cache is versioned so that when a new plugin is installed, the cache is reset.
  */
-public class PluginClassCache extends VersionedCacheMap<String, byte[]> {
+public class PluginClassCache extends VersionedCacheMap<String, Map<String, byte[]>> {
     /**
      * Logger
      */
@@ -41,19 +52,22 @@ public class PluginClassCache extends VersionedCacheMap<String, byte[]> {
         return INSTANCE;
     }
 
+    /**
+     * The in-progress scans of plugin files, keyed by plugin name
+     */
+    private final ConcurrentMap<String, FutureTask<Map<String, byte[]>>> loading;
+
     /**
      * Private constructor to enforce singleton pattern
      */
     private PluginClassCache() {
-        // Constructor is private to enforce singleton pattern
+        this.loading = new ConcurrentHashMap<>();
     }
 
     /**
-     * Finds the plugin class in the cache. If the class is not found in the cache, it loads the
-     * class from the plugin file. If the class is still not found, it is cached as an empty
-     * byte array.
-     *
-     * If the cache contains an empty byte array, this method returns null.
+     * Finds the plugin class in the cache. If the plugin has not yet been indexed, its plugin
+     * file is scanned first, or if another thread is already scanning it, this method waits
+     * for that scan to finish.
      *
      * @param pluginName The plugin name from which to load the class
      * @param className The class to load from the plugin
@@ -61,91 +75,141 @@ public class PluginClassCache extends VersionedCacheMap<String, byte[]> {
      * @throws GeneralException If there is an error loading the class data
      */
     public byte[] findPluginClass(String pluginName, String className) throws GeneralException {
-        SailPointContext context = SailPointFactory.getCurrentContext();
+        if (log.isDebugEnabled()) {
+            log.debug("findPluginClass() - pluginName: " + pluginName + ", className: " + className);
+        }
 
-        log.debug("findPluginClass() - pluginName: " + pluginName + ", className: " + className);
+        Map<String, byte[]> index = get(pluginName);
+        if (index == null) {
+            log.trace("findPluginClass() - Cache miss for plugin: " + pluginName);
+            index = loadIndex(pluginName);
+        }
 
-        String cacheKey = pluginName + ":" + className;
+        return index.get(className);
+    }
 
-        byte[] classData = get(cacheKey);
-        if (classData == null) {
-            log.trace("findPluginClass() - Cache miss for key: " + cacheKey);
-            classData = loadPluginClass(context, pluginName, className);
-            if (classData == null) {
-                log.trace("findPluginClass() - Caching null class for plugin: " + pluginName + ", className: " + className);
-                classData = new byte[0];
+    /**
+     * Returns true if any installed plugin exports classes in its script packages. Each
+     * plugin is indexed as by {@link #findPluginClass(String, String)}, so the scan is
+     * shared with the syntax checker and repeated only when the plugin version changes.
+     *
+     * @return True if a script could reference a class exported by a plugin
+     * @throws GeneralException If there is an error loading a plugin file
+     */
+    public boolean hasExportedClasses() throws GeneralException {
+        Environment environment = Environment.getEnvironment();
+        PluginsCache pluginsCache = (environment == null) ? null : environment.getPluginsCache();
+        if (pluginsCache == null) {
+            return false;
+        }
+        for (String pluginName : pluginsCache.getCachedPlugins()) {
+            Map<String, byte[]> index = get(pluginName);
+            if (index == null) {
+                index = loadIndex(pluginName);
+            }
+            if (!index.isEmpty()) {
+                return true;
             }
-            put(cacheKey, classData);
         }
+        return false;
+    }
 
-        if (classData.length == 0) {
-            return null;
+    /**
+     * Loads the class index for the given plugin, ensuring that only one thread scans
+     * the plugin file at a time. Other threads requesting the same plugin block until
+     * the scan completes and then share its result.
+     *
+     * @param pluginName The plugin name to index
+     * @return The class index for the plugin
+     * @throws GeneralException If there is an error loading the plugin file
+     */
+    private Map<String, byte[]> loadIndex(String pluginName) throws GeneralException {
+        FutureTask<Map<String, byte[]>> task = new FutureTask<>(() -> scanPlugin(SailPointFactory.getCurrentContext(), pluginName));
+        FutureTask<Map<String, byte[]>> existing = loading.putIfAbsent(pluginName, task);
+        if (existing == null) {
+            try {
+                task.run();
+                Map<String, byte[]> index = task.get();
+                // Cache before removing the in-flight marker, so there is no window where neither exists
+                put(pluginName, index);
+                return index;
+            } catch(ExecutionException e) {
+                Throwable cause = e.getCause();
+                if (cause instanceof GeneralException) {
+                    throw (GeneralException) cause;
+                }
+                throw new GeneralException("Error loading class data for plugin: " + pluginName, cause);
+            } catch(InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new GeneralException("Interrupted loading class data for plugin: " + pluginName, e);
+            } finally {
+                loading.remove(pluginName, task);
+            }
         }
 
-        return classData;
+        log.trace("loadIndex() - Waiting for another thread to index plugin: " + pluginName);
+        try {
+            return existing.get();
+        } catch(ExecutionException e) {
+            throw new GeneralException("Error loading class data for plugin: " + pluginName, e.getCause());
+        } catch(InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new GeneralException("Interrupted waiting for class data for plugin: " + pluginName, e);
+        }
     }
 
     /**
-     * Loads the plugin class from the plugin file by parsing it as a ZIP file, which
-     * itself contains JAR files, which contain classes. If the class is not found, it
-     * returns null.
+     * Scans the plugin file by parsing it as a ZIP file, which itself contains JAR files,
+     * which contain classes. Each nested JAR is streamed directly from the outer ZIP rather
+     * than being buffered in memory. Only classes in the plugin's exported script packages
+     * are retained.
      *
      * @param context The SailPointContext
-     * @param pluginName The plugin name from which to load the class
-     * @param className The class to load from the plugin
-     * @return The class data as a byte array, or null if the class is not found
+     * @param pluginName The plugin name to scan
+     * @return The class data for each exported class, keyed by class name
      * @throws GeneralException If there is an error loading the class data
      */
-    private byte[] loadPluginClass(SailPointContext context, String pluginName, String className) throws GeneralException {
+    private Map<String, byte[]> scanPlugin(SailPointContext context, String pluginName) throws GeneralException {
+        Map<String, byte[]> index = new HashMap<>();
+        PluginsCache pluginsCache = Environment.getEnvironment().getPluginsCache();
         DatabaseFileHandler fileHandler = new DatabaseFileHandler(context);
         Plugin plugin = context.getObject(Plugin.class, pluginName);
         try (InputStream is = fileHandler.readPluginFile(plugin)) {
             if (is == null) {
-                log.info("loadPluginClass() - Unable to read plugin file for plugin: " + pluginName);
-                return null;
+                log.info("scanPlugin() - Unable to read plugin file for plugin: " + pluginName);
+                return index;
             }
 
             try (ZipInputStream zis = new ZipInputStream(is)) {
                 // The zip may contain JAR files which contain our class files
-                for (java.util.zip.ZipEntry entry = zis.getNextEntry(); entry != null; entry = zis.getNextEntry()) {
+                for (ZipEntry entry = zis.getNextEntry(); entry != null; entry = zis.getNextEntry()) {
                     String entryName = entry.getName();
                     if (entryName.endsWith(".jar")) {
-                        log.trace("loadPluginClass() - Found JAR file in plugin: " + pluginName + ", entryName: " + entryName);
-                        // Process the JAR file
-                        ByteArrayOutputStream jarContentsBytes = new ByteArrayOutputStream();
-                        IOUtil.copy(zis, jarContentsBytes);
-
-                        try (ZipInputStream jarInputStream = new ZipInputStream(new ByteArrayInputStream(jarContentsBytes.toByteArray()))) {
-                            for (ZipEntry jarEntry = jarInputStream.getNextEntry(); jarEntry != null; jarEntry = jarInputStream.getNextEntry()) {
-                                if (jarEntry.isDirectory()) {
-                                    continue; // Skip directories
-                                }
-
-                                String jarEntryName = jarEntry.getName();
-                                if (jarEntryName.endsWith(".class")) {
-                                    String javaName = jarEntryName.substring(0, jarEntryName.length() - ".class".length()).replace("/", ".");
-
-                                    if (javaName.equals(className)) {
-                                        // Found the class we are looking for
-                                        ByteArrayOutputStream classBytes = new ByteArrayOutputStream();
-                                        IOUtil.copy(jarInputStream, classBytes);
-                                        byte[] classData = classBytes.toByteArray();
-                                        log.trace("loadPluginClass() - Loaded class data for plugin: " + pluginName + ", className: " + className);
-                                        return classData;
-                                    } else {
-                                        log.trace("loadPluginClass() - Skipping entry: " + jarEntryName);
-                                    }
-                                }
+                        log.trace("scanPlugin() - Found JAR file in plugin: " + pluginName + ", entryName: " + entryName);
+
+                        // Not closed, since that would close the outer plugin stream; it reads
+                        // to the end of the current outer entry and no further.
+                        ZipInputStream jarInputStream = new ZipInputStream(zis);
+                        for (ZipEntry jarEntry = jarInputStream.getNextEntry(); jarEntry != null; jarEntry = jarInputStream.getNextEntry()) {
+                            String jarEntryName = jarEntry.getName();
+                            if (jarEntry.isDirectory() || !jarEntryName.endsWith(".class")) {
+                                continue;
+                            }
+
+                            String javaName = jarEntryName.substring(0, jarEntryName.length() - ".class".length()).replace("/", ".");
+                            int lastDot = javaName.lastIndexOf('.');
+                            if (lastDot > 0 && pluginsCache.isScriptPackage(pluginName, javaName.substring(0, lastDot))) {
+                                index.put(javaName, jarInputStream.readAllBytes());
                             }
                         }
                     }
                 }
             }
 
-            log.trace("loadPluginClass() - Class not found in plugin: " + pluginName + ", className: " + className);
-            return null;
+            log.debug("scanPlugin() - Indexed " + index.size() + " exported classes in plugin: " + pluginName);
+            return index;
         } catch (Exception e) {
-            log.error("loadPluginClass() - Error loading class data for plugin: " + pluginName, e);
+            log.error("scanPlugin() - Error loading class data for plugin: " + pluginName, e);
             throw new GeneralException("Error loading class data for plugin: " + pluginName, e);
         }
     }
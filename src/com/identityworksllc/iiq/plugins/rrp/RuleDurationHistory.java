@@ -0,0 +1,118 @@
+package com.identityworksllc.iiq.plugins.rrp;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * A process-wide record of how long recent scripts took to run, keyed by a digest of the
+ * script and its libraries, as built by {@link Utils#digest(String...)}.
+ *
+ * The run endpoint uses this to adapt its synchronous window. A script that has recently
+ * run for longer than the window is sent straight to the background, rather than holding
+ * a web thread for the whole window only to go asynchronous anyway. Known long-running
+ * scripts are also placed in the {@link RuleRunnerExecutor.Lane#Batch} lane.
+ *
+ * Durations are smoothed with an exponentially weighted moving average, so that one
+ * unusually fast or slow run does not flip the decision, and entries are evicted in
+ * least-recently-used order.
+ */
+public class RuleDurationHistory {
+    /**
+     * Singleton instance of the RuleDurationHistory
+     */
+    private static final RuleDurationHistory INSTANCE = new RuleDurationHistory();
+
+    /**
+     * The maximum number of scripts remembered
+     */
+    private static final int MAX_ENTRIES = 512;
+
+    /**
+     * The weight given to the newest duration in the moving average
+     */
+    private static final double SMOOTHING = 0.5;
+
+    /**
+     * Gets the singleton instance of the RuleDurationHistory
+     * @return the singleton instance of the RuleDurationHistory
+     */
+    public static RuleDurationHistory getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * The smoothed duration of each script, in milliseconds, in least-recently-used order
+     */
+    private final LinkedHashMap<String, Double> durations;
+
+    /**
+     * The number of runs sent straight to the background because of their history
+     */
+    private long predictedSlow;
+
+    /**
+     * Private constructor to enforce singleton pattern
+     */
+    private RuleDurationHistory() {
+        this.durations = new LinkedHashMap<String, Double>(64, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Double> eldest) {
+                return size() > MAX_ENTRIES;
+            }
+        };
+    }
+
+    /**
+     * Gets the size and prediction counters for this history, for display to administrators
+     * @return The statistics, keyed by name
+     */
+    public synchronized Map<String, Object> getStatistics() {
+        Map<String, Object> stats = new TreeMap<>();
+        stats.put("entries", durations.size());
+        stats.put("predictedSlow", predictedSlow);
+        return stats;
+    }
+
+    /**
+     * Returns true if the given script has recently run for longer than the given threshold
+     *
+     * @param key The digest of the script and its libraries
+     * @param thresholdMillis The threshold
+     * @return True if the script is expected to be long-running
+     */
+    public synchronized boolean isLongRunning(String key, long thresholdMillis) {
+        Double expected = durations.get(key);
+        return expected != null && expected > thresholdMillis;
+    }
+
+    /**
+     * Records the duration of a finished run
+     *
+     * @param key The digest of the script and its libraries
+     * @param elapsedMillis The running time, excluding any time spent waiting for admission
+     */
+    public synchronized void record(String key, long elapsedMillis) {
+        Double previous = durations.get(key);
+        double smoothed = (previous == null) ? elapsedMillis : (SMOOTHING * elapsedMillis) + ((1 - SMOOTHING) * previous);
+        durations.put(key, smoothed);
+    }
+
+    /**
+     * Gets the time to wait synchronously for the given script, given the configured window.
+     * This is zero if the script has recently run for longer than the window, and the full
+     * window otherwise. A fast script returns as soon as it finishes regardless of the window.
+     *
+     * @param key The digest of the script and its libraries
+     * @param windowMillis The configured synchronous window
+     * @return The time to wait, in milliseconds
+     */
+    public synchronized long syncWindowFor(String key, long windowMillis) {
+        Double expected = durations.get(key);
+        if (expected != null && expected > windowMillis) {
+            predictedSlow++;
+            return 0;
+        }
+        return windowMillis;
+    }
+}
@@ -0,0 +1,109 @@
+package com.identityworksllc.iiq.plugins.rrp;
+
+import java.util.concurrent.CancellationException;
+
+/**
+ * The cooperative interrupt check called by scripts rewritten with
+ * {@link InterruptInjector}. An instance is bound to each execution as the
+ * {@link RuleRunnerResource#VAR_INTERRUPTS} variable, so that each injected check is a
+ * single method call on a precompiled class, rather than an interpreted
+ * 'Thread.currentThread().isInterrupted()' expression and 'if' statement.
+ *
+ * Loop checks may be thinned out to every Nth iteration, counted across every loop in the
+ * script. Method entry checks always test the interrupt flag.
+ */
+public class RuleInterruptCheck {
+    /**
+     * The check bound to scripts executed as a {@link CompiledScript}. The script's methods
+     * become Java methods that do not declare {@link InterruptedException}, so this
+     * variant throws an unchecked {@link CancellationException} instead.
+     */
+    public static final class Unchecked extends RuleInterruptCheck {
+        /**
+         * Creates a check that tests the interrupt flag on every Nth loop iteration
+         * @param interval The number of loop iterations between checks, at least 1
+         */
+        public Unchecked(int interval) {
+            super(interval);
+        }
+
+        /**
+         * Throws if the current thread has been interrupted. Injected at the start of each method.
+         * @throws CancellationException if the current thread has been interrupted
+         */
+        @Override
+        public void check() {
+            if (Thread.currentThread().isInterrupted()) {
+                throw new CancellationException("The rule was interrupted");
+            }
+        }
+
+        /**
+         * Throws if the current thread has been interrupted, testing only every Nth call
+         *
+         * @return Always true
+         * @throws CancellationException if the current thread has been interrupted
+         */
+        @Override
+        public boolean loop() {
+            try {
+                return super.loop();
+            } catch(InterruptedException e) {
+                // Not reached, since super.loop() calls the check above
+                throw new CancellationException("The rule was interrupted");
+            }
+        }
+    }
+
+    /**
+     * The number of loop iterations between interrupt checks
+     */
+    private final int interval;
+
+    /**
+     * The number of loop iterations since the last check. This is only ever touched by the
+     * thread running the script.
+     */
+    private int iterations;
+
+    /**
+     * Creates a check that tests the interrupt flag on every loop iteration
+     */
+    public RuleInterruptCheck() {
+        this(1);
+    }
+
+    /**
+     * Creates a check that tests the interrupt flag on every Nth loop iteration
+     * @param interval The number of loop iterations between checks, at least 1
+     */
+    public RuleInterruptCheck(int interval) {
+        this.interval = Math.max(1, interval);
+    }
+
+    /**
+     * Throws if the current thread has been interrupted. Injected at the start of each method.
+     * @throws InterruptedException if the current thread has been interrupted
+     */
+    public void check() throws InterruptedException {
+        if (Thread.currentThread().isInterrupted()) {
+            throw new InterruptedException();
+        }
+    }
+
+    /**
+     * Throws if the current thread has been interrupted, testing only every Nth call.
+     * Injected at the start of each loop body, or into the condition of a loop without
+     * braces, which is why it returns a value.
+     *
+     * @return Always true
+     * @throws InterruptedException if the current thread has been interrupted
+     */
+    public boolean loop() throws InterruptedException {
+        if (++iterations >= interval) {
+            iterations = 0;
+            check();
+        }
+        return true;
+    }
+}
@@ -0,0 +1,294 @@
+package com.identityworksllc.iiq.plugins.rrp;
+
+import com.identityworksllc.iiq.common.Utilities;
+import sailpoint.api.SailPointContext;
+import sailpoint.object.Filter;
+import sailpoint.object.QueryOptions;
+import sailpoint.object.Rule;
+import sailpoint.tools.GeneralException;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A node-local cache of rule library sources and metadata, shared by the parse, run, and
+ * save endpoints, which otherwise each load every selected library through Hibernate on
+ * every request.
+ *
+ * Each lookup validates the cached entries with a single projection query for the id and
+ * modification date of the requested libraries, and only loads the full Rule for a library
+ * that is new or has been modified since it was cached. Callers receive detached copies of
+ * the libraries, which are safe to attach to an ad-hoc rule, but must not be saved.
+ */
+public class RuleLibraryCache {
+    /**
+     * The cached source and metadata of a rule library
+     */
+    public static final class Entry {
+        /**
+         * The ID of the library
+         */
+        private final String id;
+
+        /**
+         * The last modification date of the library, or its creation date if it was never modified
+         */
+        private final Date modified;
+
+        /**
+         * The name of the library
+         */
+        private final String name;
+
+        /**
+         * The names of the libraries this library references
+         */
+        private final List<String> referencedRules;
+
+        /**
+         * The source of the library
+         */
+        private final String source;
+
+        private Entry(Rule library) {
+            this.id = library.getId();
+            this.name = library.getName();
+            this.modified = modifiedDate(library.getModified(), library.getCreated());
+            this.source = library.getSource();
+            List<String> references = new ArrayList<>();
+            if (library.getReferencedRules() != null) {
+                for(Rule reference : library.getReferencedRules()) {
+                    references.add(reference.getName());
+                }
+            }
+            this.referencedRules = Collections.unmodifiableList(references);
+        }
+
+        public String getId() {
+            return id;
+        }
+
+        public Date getModified() {
+            return modified;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public List<String> getReferencedRules() {
+            return referencedRules;
+        }
+
+        public String getSource() {
+            return source;
+        }
+
+        /**
+         * Creates a detached Rule holding this library's source and metadata, without its references
+         * @return The detached Rule
+         */
+        public Rule toRule() {
+            Rule rule = new Rule();
+            rule.setId(id);
+            rule.setName(name);
+            rule.setLanguage(RuleRunnerResource.LANGUAGE_BEANSHELL);
+            rule.setSource(source);
+            rule.setModified(modified);
+            return rule;
+        }
+    }
+
+    /**
+     * Singleton instance of the RuleLibraryCache
+     */
+    private static final RuleLibraryCache INSTANCE = new RuleLibraryCache();
+
+    /**
+     * Gets the singleton instance of the RuleLibraryCache
+     * @return the singleton instance of the RuleLibraryCache
+     */
+    public static RuleLibraryCache getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Gets the date used to detect changes to a library
+     *
+     * @param modified The modification date, possibly null
+     * @param created The creation date
+     * @return The modification date, or the creation date if it was never modified
+     */
+    private static Date modifiedDate(Date modified, Date created) {
+        return (modified != null) ? modified : created;
+    }
+
+    /**
+     * Compares two dates by their time, since Hibernate projections return {@link java.sql.Timestamp}s,
+     * which are never equal to a {@link Date}
+     */
+    static boolean sameTime(Date first, Date second) {
+        if (first == null || second == null) {
+            return first == second;
+        }
+        return first.getTime() == second.getTime();
+    }
+
+    /**
+     * The cached libraries, keyed by name
+     */
+    private final ConcurrentHashMap<String, Entry> entries;
+
+    /**
+     * The number of libraries answered from the cache
+     */
+    private final AtomicLong hits;
+
+    /**
+     * The number of libraries loaded from the database
+     */
+    private final AtomicLong misses;
+
+    /**
+     * The plugin version at which the cache contents were computed
+     */
+    private volatile int pluginVersion;
+
+    /**
+     * Private constructor to enforce singleton pattern
+     */
+    private RuleLibraryCache() {
+        this.entries = new ConcurrentHashMap<>();
+        this.hits = new AtomicLong();
+        this.misses = new AtomicLong();
+        this.pluginVersion = -1;
+    }
+
+    /**
+     * Clears the cache if the plugin version has changed since it was computed
+     */
+    private void checkVersion() {
+        int currentVersion = Utilities.getPluginVersionInt();
+        if (currentVersion != pluginVersion) {
+            entries.clear();
+            pluginVersion = currentVersion;
+        }
+    }
+
+    /**
+     * Gets the cached entries for the given libraries, validating them against their current
+     * modification dates with one projection query and reloading only those that changed.
+     * Libraries that do not exist are omitted.
+     *
+     * @param context The context to query with
+     * @param names The names of the libraries
+     * @return The entries, keyed by name, in the order requested
+     * @throws GeneralException if the query fails
+     */
+    public Map<String, Entry> getLibraries(SailPointContext context, Collection<String> names) throws GeneralException {
+        checkVersion();
+        Map<String, Entry> found = new TreeMap<>();
+        if (names == null || names.isEmpty()) {
+            return new LinkedHashMap<>();
+        }
+        QueryOptions qo = new QueryOptions();
+        qo.addFilter(Filter.in("name", new ArrayList<>(names)));
+        Iterator<Object[]> results = context.search(Rule.class, qo, "id, name, modified, created");
+        while(results.hasNext()) {
+            Object[] row = results.next();
+            String id = (String) row[0];
+            String name = (String) row[1];
+            Date modified = modifiedDate((Date) row[2], (Date) row[3]);
+            Entry entry = entries.get(name);
+            if (entry != null && entry.id.equals(id) && sameTime(entry.modified, modified)) {
+                hits.incrementAndGet();
+            } else {
+                misses.incrementAndGet();
+                Rule library = context.getObjectById(Rule.class, id);
+                if (library == null) {
+                    continue;
+                }
+                entry = new Entry(library);
+                entries.put(name, entry);
+                context.decache(library);
+            }
+            found.put(name, entry);
+        }
+
+        Map<String, Entry> ordered = new LinkedHashMap<>();
+        for(String name : names) {
+            if (found.containsKey(name)) {
+                ordered.put(name, found.get(name));
+            }
+        }
+        return ordered;
+    }
+
+    /**
+     * Gets detached copies of the given libraries, with their own referenced libraries
+     * attached in turn, suitable for {@link Rule#setReferencedRules(List)} on an ad-hoc rule
+     *
+     * @param context The context to query with
+     * @param names The names of the libraries
+     * @return The detached libraries, in the order requested
+     * @throws GeneralException if the query fails
+     */
+    public List<Rule> getRules(SailPointContext context, Collection<String> names) throws GeneralException {
+        return toRules(context, getLibraries(context, names), new HashSet<>());
+    }
+
+    /**
+     * Gets the hit counters for this cache, for display to administrators
+     * @return The statistics, keyed by name
+     */
+    public Map<String, Object> getStatistics() {
+        Map<String, Object> stats = new TreeMap<>();
+        long hitCount = hits.get();
+        long missCount = misses.get();
+        stats.put("entries", entries.size());
+        stats.put("hits", hitCount);
+        stats.put("misses", missCount);
+        stats.put("hitRate", (hitCount + missCount) == 0 ? 0.0 : (double) hitCount / (hitCount + missCount));
+        return stats;
+    }
+
+    /**
+     * Removes the given library from the cache, such as after it is saved
+     * @param name The name of the library
+     */
+    public void invalidate(String name) {
+        if (name != null) {
+            entries.remove(name);
+        }
+    }
+
+    /**
+     * Converts entries to detached Rules, resolving nested references, and skipping any
+     * library already converted higher up the chain so that a reference cycle terminates
+     */
+    private List<Rule> toRules(SailPointContext context, Map<String, Entry> libraries, Set<String> visited) throws GeneralException {
+        List<Rule> rules = new ArrayList<>();
+        for(Entry entry : libraries.values()) {
+            if (!visited.add(entry.name)) {
+                continue;
+            }
+            Rule rule = entry.toRule();
+            if (!entry.referencedRules.isEmpty()) {
+                rule.setReferencedRules(toRules(context, getLibraries(context, entry.referencedRules), visited));
+            }
+            rules.add(rule);
+        }
+        return rules;
+    }
+}
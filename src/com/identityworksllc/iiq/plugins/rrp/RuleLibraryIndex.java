@@ -0,0 +1,223 @@
+package com.identityworksllc.iiq.plugins.rrp;
+
+import sailpoint.api.SailPointContext;
+import sailpoint.object.Filter;
+import sailpoint.object.QueryOptions;
+import sailpoint.object.Rule;
+import sailpoint.tools.GeneralException;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A node-local index of which rules are rule libraries, meaning rules without a type plus
+ * any rule referenced by another rule. Building this list by loading every Rule, as the
+ * library endpoint used to, pulls every rule's source into the Hibernate session and then
+ * loads each rule's references one at a time.
+ *
+ * The index is built with projection queries only. On each use, it is refreshed
+ * incrementally from the rules created or modified since the last refresh. Deletions do
+ * not change modification dates, so the index is rebuilt in full whenever the number of
+ * rules changes, and at least every {@link #FULL_REFRESH_MILLIS} regardless.
+ */
+public class RuleLibraryIndex {
+    /**
+     * The indexed properties of a single rule
+     */
+    private static final class IndexedRule {
+        /**
+         * The names of the rules this rule references
+         */
+        private final Set<String> references;
+
+        /**
+         * The name of the rule
+         */
+        private final String name;
+
+        /**
+         * True if the rule has no type, which makes it a library
+         */
+        private final boolean untyped;
+
+        private IndexedRule(String name, boolean untyped) {
+            this.name = name;
+            this.untyped = untyped;
+            this.references = new HashSet<>();
+        }
+    }
+
+    /**
+     * The longest the index is refreshed incrementally before it is rebuilt in full
+     */
+    public static final long FULL_REFRESH_MILLIS = TimeUnit.MINUTES.toMillis(10);
+
+    /**
+     * Singleton instance of the RuleLibraryIndex
+     */
+    private static final RuleLibraryIndex INSTANCE = new RuleLibraryIndex();
+
+    /**
+     * Gets the singleton instance of the RuleLibraryIndex
+     * @return the singleton instance of the RuleLibraryIndex
+     */
+    public static RuleLibraryIndex getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * The number of full rebuilds
+     */
+    private long fullRefreshes;
+
+    /**
+     * The number of incremental refreshes
+     */
+    private long incrementalRefreshes;
+
+    /**
+     * The timestamp of the last full rebuild
+     */
+    private long lastFullRefresh;
+
+    /**
+     * The number of rules at the last refresh
+     */
+    private int ruleCount;
+
+    /**
+     * The indexed rules, keyed by ID
+     */
+    private final Map<String, IndexedRule> rules;
+
+    /**
+     * The latest creation or modification date seen in any refresh
+     */
+    private Date watermark;
+
+    /**
+     * Private constructor to enforce singleton pattern
+     */
+    private RuleLibraryIndex() {
+        this.rules = new HashMap<>();
+        this.ruleCount = -1;
+    }
+
+    /**
+     * Gets the names of all rule libraries, refreshing the index first
+     *
+     * @param context The context to query with
+     * @return The library names, sorted
+     * @throws GeneralException if a query fails
+     */
+    public synchronized List<String> getLibraryNames(SailPointContext context) throws GeneralException {
+        refresh(context);
+        Set<String> names = new TreeSet<>();
+        for(IndexedRule rule : rules.values()) {
+            if (rule.untyped) {
+                names.add(rule.name);
+            }
+            names.addAll(rule.references);
+        }
+        return new ArrayList<>(names);
+    }
+
+    /**
+     * Gets the refresh counters for this index, for display to administrators
+     * @return The statistics, keyed by name
+     */
+    public synchronized Map<String, Object> getStatistics() {
+        Map<String, Object> stats = new TreeMap<>();
+        stats.put("rules", rules.size());
+        stats.put("fullRefreshes", fullRefreshes);
+        stats.put("incrementalRefreshes", incrementalRefreshes);
+        return stats;
+    }
+
+    /**
+     * Indexes the rules matching the given filter, adding them to the index or replacing
+     * their previous entries
+     *
+     * @param context The context to query with
+     * @param filter The filter, or null for every rule
+     * @throws GeneralException if a query fails
+     */
+    private void index(SailPointContext context, Filter filter) throws GeneralException {
+        QueryOptions qo = new QueryOptions();
+        if (filter != null) {
+            qo.addFilter(filter);
+        }
+        boolean anyIndexed = false;
+        Iterator<Object[]> results = context.search(Rule.class, qo, "id, name, type, created, modified");
+        while(results.hasNext()) {
+            Object[] row = results.next();
+            String id = (String) row[0];
+            rules.put(id, new IndexedRule((String) row[1], row[2] == null));
+            anyIndexed = true;
+            advanceWatermark((Date) row[3]);
+            advanceWatermark((Date) row[4]);
+        }
+        if (!anyIndexed) {
+            return;
+        }
+
+        // The references of every indexed rule, in one joined projection rather than one load per rule
+        QueryOptions referenceOptions = new QueryOptions();
+        if (filter != null) {
+            referenceOptions.addFilter(filter);
+        }
+        Iterator<Object[]> references = context.search(Rule.class, referenceOptions, "id, referencedRules.name");
+        while(references.hasNext()) {
+            Object[] row = references.next();
+            IndexedRule rule = rules.get((String) row[0]);
+            if (rule != null && row[1] != null) {
+                rule.references.add((String) row[1]);
+            }
+        }
+    }
+
+    /**
+     * Moves the watermark forward to the given date, if it is later
+     * @param date The date, possibly null
+     */
+    private void advanceWatermark(Date date) {
+        if (date != null && (watermark == null || date.getTime() > watermark.getTime())) {
+            watermark = new Date(date.getTime());
+        }
+    }
+
+    /**
+     * Refreshes the index, in full if the number of rules has changed or the last full
+     * rebuild is too old, and incrementally otherwise
+     *
+     * @param context The context to query with
+     * @throws GeneralException if a query fails
+     */
+    private void refresh(SailPointContext context) throws GeneralException {
+        int currentCount = context.countObjects(Rule.class, new QueryOptions());
+        long now = System.currentTimeMillis();
+        if (currentCount != ruleCount || watermark == null || now - lastFullRefresh > FULL_REFRESH_MILLIS) {
+            rules.clear();
+            watermark = null;
+            index(context, null);
+            ruleCount = currentCount;
+            lastFullRefresh = now;
+            fullRefreshes++;
+        } else {
+            // Inclusive, because another rule may be saved in the same millisecond as the
+            // watermark, or the same second where the database truncates timestamps. The rules
+            // at the watermark are indexed again, which replaces their entries.
+            index(context, Filter.or(Filter.ge("created", watermark), Filter.ge("modified", watermark)));
+            incrementalRefreshes++;
+        }
+    }
+}
@@ -0,0 +1,206 @@
+package com.identityworksllc.iiq.plugins.rrp;
+
+import com.identityworksllc.iiq.common.Utilities;
+import com.identityworksllc.iiq.common.logging.SLogger;
+import org.eclipse.jdt.internal.compiler.classfmt.ClassFileReader;
+import sailpoint.object.Rule;
+
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A process-wide cache of rule libraries compiled by
+ * {@link BeanshellSyntaxChecker#compileLibraryStub(String, Date, String, SLogger)}. Without
+ * it, every lint appends the full source of each selected library to the script and compiles
+ * all of it, only to discard the library's errors afterward.
+ *
+ * Each library is keyed by name and recompiled only when its modification date changes.
+ * Like {@link ClassFileReaderCache}, the cache is cleared whenever the plugin version changes,
+ * since a library may reference classes exported by a plugin.
+ */
+public class RuleLibraryStubCache {
+    /**
+     * A compiled rule library
+     */
+    public static final class Stub {
+        /**
+         * The fully qualified name of the library class
+         */
+        private final String className;
+
+        /**
+         * The parsed class files for the library, keyed by fully qualified name
+         */
+        private final Map<String, ClassFileReader> classFiles;
+
+        /**
+         * The import lines from the library source, which Beanshell shares with the script
+         */
+        private final List<String> imports;
+
+        /**
+         * The modification date of the library when it was compiled
+         */
+        private final Date modified;
+
+        /**
+         * The total size of the library's class files
+         */
+        private final int size;
+
+        public Stub(String className, Date modified, List<String> imports, Map<String, ClassFileReader> classFiles, int size) {
+            this.className = className;
+            this.modified = modified;
+            this.imports = Collections.unmodifiableList(imports);
+            this.classFiles = Collections.unmodifiableMap(classFiles);
+            this.size = size;
+        }
+
+        public String getClassName() {
+            return className;
+        }
+
+        public Map<String, ClassFileReader> getClassFiles() {
+            return classFiles;
+        }
+
+        public List<String> getImports() {
+            return imports;
+        }
+
+        public Date getModified() {
+            return modified;
+        }
+
+        public int getSize() {
+            return size;
+        }
+    }
+
+    /**
+     * Singleton instance of the RuleLibraryStubCache
+     */
+    private static final RuleLibraryStubCache INSTANCE = new RuleLibraryStubCache();
+
+    /**
+     * Gets the singleton instance of the RuleLibraryStubCache
+     * @return the singleton instance of the RuleLibraryStubCache
+     */
+    public static RuleLibraryStubCache getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * The number of lookups answered from the cache
+     */
+    private final AtomicLong hits;
+
+    /**
+     * The number of lookups that required compiling the library
+     */
+    private final AtomicLong misses;
+
+    /**
+     * The plugin version at which the cache contents were compiled
+     */
+    private volatile int pluginVersion;
+
+    /**
+     * The compiled libraries, keyed by library name
+     */
+    private final ConcurrentMap<String, Stub> stubs;
+
+    /**
+     * Private constructor to enforce singleton pattern
+     */
+    private RuleLibraryStubCache() {
+        this.stubs = new ConcurrentHashMap<>();
+        this.hits = new AtomicLong();
+        this.misses = new AtomicLong();
+        this.pluginVersion = -1;
+    }
+
+    /**
+     * Clears the cache if the plugin version has changed since it was compiled
+     */
+    private void checkVersion() {
+        int currentVersion = Utilities.getPluginVersionInt();
+        if (currentVersion != pluginVersion) {
+            synchronized (this) {
+                if (currentVersion != pluginVersion) {
+                    stubs.clear();
+                    pluginVersion = currentVersion;
+                }
+            }
+        }
+    }
+
+    /**
+     * Gets the size and hit counters for this cache, for display to administrators
+     * @return The statistics, keyed by name
+     */
+    public Map<String, Object> getStatistics() {
+        Map<String, Object> stats = new TreeMap<>();
+        long hitCount = hits.get();
+        long missCount = misses.get();
+        long cachedBytes = 0;
+        for(Stub stub : stubs.values()) {
+            cachedBytes += stub.getSize();
+        }
+        stats.put("entries", stubs.size());
+        stats.put("cachedBytes", cachedBytes);
+        stats.put("hits", hitCount);
+        stats.put("misses", missCount);
+        stats.put("hitRate", (hitCount + missCount) == 0 ? 0.0 : (double) hitCount / (hitCount + missCount));
+        return stats;
+    }
+
+    /**
+     * Gets the compiled form of the given rule library, compiling it if it is not cached
+     * or has been modified since it was cached. Two threads missing at the same time may
+     * both compile the library, which is harmless.
+     *
+     * @param library The rule library
+     * @param log The logger to use while compiling
+     * @return The compiled library
+     * @throws Exception if the library cannot be parsed
+     */
+    public Stub getStub(Rule library, SLogger log) throws Exception {
+        return getStub(library, log, null);
+    }
+
+    /**
+     * Gets the compiled form of the given rule library, as in {@link #getStub(Rule, SLogger)},
+     * on behalf of the given syntax check, so that canceling the check abandons a compilation
+     *
+     * @param library The rule library
+     * @param log The logger to use while compiling
+     * @param owner The syntax check needing the library, or null
+     * @return The compiled library
+     * @throws CancellationException if the owning check was canceled
+     * @throws Exception if the library cannot be parsed
+     */
+    Stub getStub(Rule library, SLogger log, BeanshellSyntaxChecker owner) throws Exception {
+        checkVersion();
+        Date modified = library.getModified() != null ? library.getModified() : library.getCreated();
+        Stub stub = stubs.get(library.getName());
+        if (stub != null && RuleLibraryCache.sameTime(stub.getModified(), modified)) {
+            hits.incrementAndGet();
+            return stub;
+        }
+        misses.incrementAndGet();
+        if (log.isDebugEnabled()) {
+            log.debug("Compiling rule library " + library.getName() + " modified at " + modified);
+        }
+        stub = BeanshellSyntaxChecker.compileLibraryStub(library.getName(), modified, library.getSource(), log, owner);
+        stubs.put(library.getName(), stub);
+        return stub;
+    }
+}
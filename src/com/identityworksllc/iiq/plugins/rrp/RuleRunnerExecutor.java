@@ -0,0 +1,458 @@
+package com.identityworksllc.iiq.plugins.rrp;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Runs asynchronous rule executions on a bounded pool of named threads, and enforces their
+ * timeouts with a single shared watchdog thread, rather than starting a worker thread and a
+ * polling monitor thread for every execution.
+ *
+ * Each submitted {@link RuleRunnerResource.RuleRunnerAsyncWorker} has one deadline scheduled
+ * on the watchdog when it starts running, which is canceled as soon as the worker's
+ * completion future finishes. Time spent waiting for admission does not count. When
+ * a deadline passes, or the user aborts the rule, the worker is interrupted and terminated,
+ * which stops any rule augmented by {@link RuleRunnerResource#addInterrupts(String)}. The
+ * watchdog then checks periodically that the worker has actually stopped. The watchdog also
+ * runs {@link WorkerRegistry#evict()} every {@link #EVICTION_INTERVAL_SECONDS}, so that
+ * finished workers and their log journals expire even when no further rules are run.
+ *
+ * Workers are admitted to the pool under a global concurrency limit and a per-identity
+ * limit, so that one user cannot occupy every thread (and every database connection) with
+ * a heavy script. Workers that cannot be admitted wait in FIFO order in one of two
+ * {@link Lane}s. The interactive lane is always considered first, and part of the global
+ * limit is reserved for it, so that short runs are not starved behind long batch jobs. A
+ * worker whose owner is at their limit is skipped, without blocking the workers behind it.
+ */
+public class RuleRunnerExecutor {
+    /**
+     * The admission lanes. Each lane is a FIFO queue.
+     */
+    public enum Lane {
+        /**
+         * Scripts not known to be long-running
+         */
+        Interactive,
+        /**
+         * Scripts whose recent runs took longer than {@link RuleRunnerExecutor#BATCH_LANE_THRESHOLD_MILLIS}
+         */
+        Batch
+    }
+
+    /**
+     * Scripts whose recent runs took longer than this are placed in the {@link Lane#Batch} lane
+     */
+    public static final long BATCH_LANE_THRESHOLD_MILLIS = 30000L;
+
+    /**
+     * The default number of rules an identity may run at once
+     */
+    public static final int DEFAULT_MAX_CONCURRENT_PER_OWNER = 4;
+
+    /**
+     * The interval between periodic evictions of expired finished workers
+     */
+    private static final long EVICTION_INTERVAL_SECONDS = 60;
+
+    /**
+     * Singleton instance of the RuleRunnerExecutor
+     */
+    private static final RuleRunnerExecutor INSTANCE = new RuleRunnerExecutor();
+
+    /**
+     * The default maximum number of rules running at once; further rules wait in their lane
+     */
+    public static final int MAX_WORKER_THREADS = 16;
+
+    /**
+     * The maximum number of rules waiting in the lanes; further rules are rejected
+     */
+    public static final int MAX_QUEUED = 100;
+
+    /**
+     * The number of times to check that a stopped worker has finished before giving up
+     */
+    private static final int STOP_CHECK_ATTEMPTS = 10;
+
+    /**
+     * The interval between checks that a stopped worker has finished
+     */
+    private static final long STOP_CHECK_INTERVAL_SECONDS = 10;
+
+    /**
+     * Logger
+     */
+    private static final Log log = LogFactory.getLog(RuleRunnerExecutor.class);
+
+    /**
+     * Gets the singleton instance of the RuleRunnerExecutor
+     * @return the singleton instance of the RuleRunnerExecutor
+     */
+    public static RuleRunnerExecutor getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * The workers admitted to the pool and not yet finished
+     */
+    private final Set<RuleRunnerResource.RuleRunnerAsyncWorker> admitted;
+
+    /**
+     * The number of admitted workers in each lane
+     */
+    private final Map<Lane, Integer> admittedByLane;
+
+    /**
+     * The number of admitted workers owned by each identity
+     */
+    private final Map<String, Integer> admittedByOwner;
+
+    /**
+     * The maximum number of workers admitted at once
+     */
+    private int maxConcurrent;
+
+    /**
+     * The maximum number of workers admitted at once for a single identity
+     */
+    private int maxConcurrentPerOwner;
+
+    /**
+     * The workers waiting for admission, in FIFO order within each lane
+     */
+    private final Map<Lane, Deque<RuleRunnerResource.RuleRunnerAsyncWorker>> queues;
+
+    /**
+     * The single thread tracking every worker's deadline
+     */
+    private final ScheduledThreadPoolExecutor watchdog;
+
+    /**
+     * The pool running the workers
+     */
+    private final ThreadPoolExecutor workers;
+
+    /**
+     * Private constructor to enforce singleton pattern
+     */
+    private RuleRunnerExecutor() {
+        AtomicInteger threadCount = new AtomicInteger();
+        this.workers = new ThreadPoolExecutor(MAX_WORKER_THREADS, MAX_WORKER_THREADS, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), runnable -> {
+            Thread thread = new Thread(runnable, "RuleRunner-Worker-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        // Idle threads exit, so that a reloaded plugin does not leave the old pool behind for long
+        this.workers.allowCoreThreadTimeOut(true);
+
+        this.watchdog = new ScheduledThreadPoolExecutor(1, runnable -> {
+            Thread thread = new Thread(runnable, "RuleRunner-Watchdog");
+            thread.setDaemon(true);
+            thread.setPriority(3);
+            return thread;
+        });
+        this.watchdog.setRemoveOnCancelPolicy(true);
+        this.watchdog.scheduleWithFixedDelay(() -> {
+            try {
+                WorkerRegistry.getInstance().evict();
+            } catch(Exception e) {
+                // An exception would cancel every later run of this task
+                log.warn("Unable to evict expired background workers", e);
+            }
+        }, EVICTION_INTERVAL_SECONDS, EVICTION_INTERVAL_SECONDS, TimeUnit.SECONDS);
+
+        this.admitted = Collections.newSetFromMap(new IdentityHashMap<>());
+        this.admittedByLane = new EnumMap<>(Lane.class);
+        this.admittedByOwner = new HashMap<>();
+        this.queues = new EnumMap<>(Lane.class);
+        for(Lane lane : Lane.values()) {
+            this.admittedByLane.put(lane, 0);
+            this.queues.put(lane, new ArrayDeque<>());
+        }
+        this.maxConcurrent = MAX_WORKER_THREADS;
+        this.maxConcurrentPerOwner = DEFAULT_MAX_CONCURRENT_PER_OWNER;
+    }
+
+    /**
+     * Admits as many waiting workers as the limits allow, in lane order, and FIFO order
+     * within each lane, then starts them on the pool
+     */
+    private void admit() {
+        List<Runnable> toStart = new ArrayList<>();
+        List<RuleRunnerResource.RuleRunnerAsyncWorker> moved = new ArrayList<>();
+        synchronized (this) {
+            for(Lane lane : Lane.values()) {
+                Iterator<RuleRunnerResource.RuleRunnerAsyncWorker> waiting = queues.get(lane).iterator();
+                while(waiting.hasNext() && admitted.size() < maxConcurrent && admittedByLane.get(lane) < laneLimit(lane)) {
+                    RuleRunnerResource.RuleRunnerAsyncWorker worker = waiting.next();
+                    String owner = ownerOf(worker);
+                    if (admittedByOwner.getOrDefault(owner, 0) >= maxConcurrentPerOwner) {
+                        continue;
+                    }
+                    waiting.remove();
+                    admitted.add(worker);
+                    admittedByLane.merge(lane, 1, Integer::sum);
+                    admittedByOwner.merge(owner, 1, Integer::sum);
+                    toStart.add(worker.getPoolTask());
+                    moved.add(worker);
+                }
+            }
+            if (!toStart.isEmpty()) {
+                // Every worker still waiting has moved up in its lane
+                for(Deque<RuleRunnerResource.RuleRunnerAsyncWorker> queue : queues.values()) {
+                    moved.addAll(queue);
+                }
+            }
+        }
+        for(Runnable task : toStart) {
+            workers.execute(task);
+        }
+        for(RuleRunnerResource.RuleRunnerAsyncWorker worker : moved) {
+            worker.getLog().getChangeSignal().signal();
+        }
+    }
+
+    /**
+     * Checks whether a stopped worker has finished, rescheduling itself on the watchdog until
+     * the worker finishes or the attempts run out
+     *
+     * @param worker The stopped worker
+     * @param name The name of the worker, for logging
+     * @param start The timestamp at which the worker was stopped
+     * @param attempt The number of checks already made
+     */
+    private void checkStopped(RuleRunnerResource.RuleRunnerAsyncWorker worker, String name, long start, int attempt) {
+        if (worker.isDone()) {
+            log.info("The background rule runner worker " + name + " stopped after being interrupted");
+            return;
+        }
+        long elapsed = (System.currentTimeMillis() - start) / 1000;
+        if (attempt >= STOP_CHECK_ATTEMPTS) {
+            worker.getLog().error("Could not terminate background worker " + name + " after waiting " + elapsed + " seconds! It is likely dangling and may cause performance problems!");
+            return;
+        }
+        log.info("Waiting for background worker " + name + " to stop (" + elapsed + " seconds elapsed)...");
+        watchdog.schedule(() -> checkStopped(worker, name, start, attempt + 1), STOP_CHECK_INTERVAL_SECONDS, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Sets the admission limits, resizing the pool to match. Raising a limit admits any
+     * waiting workers that now fit. Does nothing if the limits are unchanged, since this
+     * is invoked with the current plugin settings on every run.
+     *
+     * @param maxConcurrent The maximum number of rules running at once
+     * @param maxConcurrentPerOwner The maximum number of rules a single identity may run at once
+     */
+    public void configure(int maxConcurrent, int maxConcurrentPerOwner) {
+        int threads = Math.max(1, maxConcurrent);
+        int perOwner = Math.max(1, maxConcurrentPerOwner);
+        synchronized (this) {
+            if (threads == this.maxConcurrent && perOwner == this.maxConcurrentPerOwner) {
+                return;
+            }
+            if (threads != this.maxConcurrent) {
+                if (threads > workers.getMaximumPoolSize()) {
+                    workers.setMaximumPoolSize(threads);
+                    workers.setCorePoolSize(threads);
+                } else {
+                    workers.setCorePoolSize(threads);
+                    workers.setMaximumPoolSize(threads);
+                }
+            }
+            this.maxConcurrent = threads;
+            this.maxConcurrentPerOwner = perOwner;
+        }
+        admit();
+    }
+
+    /**
+     * Gets the 1-based position of the given worker in its lane, for display to the user
+     *
+     * @param worker The worker
+     * @return The position, or zero if the worker is not waiting for admission
+     */
+    public synchronized int getQueuePosition(RuleRunnerResource.RuleRunnerAsyncWorker worker) {
+        Lane lane = worker.getLane();
+        if (lane == null) {
+            return 0;
+        }
+        int position = 1;
+        for(RuleRunnerResource.RuleRunnerAsyncWorker waiting : queues.get(lane)) {
+            if (waiting == worker) {
+                return position;
+            }
+            position++;
+        }
+        return 0;
+    }
+
+    /**
+     * Gets the size and throughput counters for this executor, for display to administrators
+     * @return The statistics, keyed by name
+     */
+    public synchronized Map<String, Object> getStatistics() {
+        Map<String, Object> stats = new TreeMap<>();
+        stats.put("threads", workers.getMaximumPoolSize());
+        stats.put("active", workers.getActiveCount());
+        stats.put("admitted", admitted.size());
+        stats.put("maxConcurrent", maxConcurrent);
+        stats.put("maxConcurrentPerOwner", maxConcurrentPerOwner);
+        for(Lane lane : Lane.values()) {
+            stats.put("queued" + lane.name(), queues.get(lane).size());
+        }
+        stats.put("completed", workers.getCompletedTaskCount());
+        // Less the periodic eviction task
+        stats.put("deadlines", Math.max(0, watchdog.getQueue().size() - 1));
+        return stats;
+    }
+
+    /**
+     * Gets the maximum number of workers admitted at once in the given lane. A quarter of
+     * the global limit is reserved for the interactive lane.
+     *
+     * @param lane The lane
+     * @return The limit for the lane
+     */
+    private int laneLimit(Lane lane) {
+        if (lane == Lane.Batch && maxConcurrent > 1) {
+            return maxConcurrent - Math.max(1, maxConcurrent / 4);
+        }
+        return maxConcurrent;
+    }
+
+    /**
+     * Gets the owner of the given worker, as a map key
+     * @param worker The worker
+     * @return The owner's name, or an empty string if it has none
+     */
+    private static String ownerOf(RuleRunnerResource.RuleRunnerAsyncWorker worker) {
+        String owner = worker.getOwnerIdentity();
+        return (owner == null) ? "" : owner;
+    }
+
+    /**
+     * Releases the admission slot of a finished worker, then admits any waiting workers
+     * that now fit
+     *
+     * @param worker The finished worker
+     */
+    private void release(RuleRunnerResource.RuleRunnerAsyncWorker worker) {
+        synchronized (this) {
+            if (!admitted.remove(worker)) {
+                return;
+            }
+            admittedByLane.merge(worker.getLane(), -1, Integer::sum);
+            if (admittedByOwner.merge(ownerOf(worker), -1, Integer::sum) <= 0) {
+                admittedByOwner.remove(ownerOf(worker));
+            }
+        }
+        admit();
+    }
+
+    /**
+     * Stops the given worker. A worker still waiting in its lane, or admitted but not yet
+     * started, is removed and completed with a {@link CancellationException}. A running
+     * worker is interrupted and terminated, and the watchdog confirms that it finishes.
+     *
+     * @param worker The worker to stop
+     * @param aborted True if the user aborted the worker, false if it timed out
+     */
+    public void stop(RuleRunnerResource.RuleRunnerAsyncWorker worker, boolean aborted) {
+        if (worker.isDone()) {
+            return;
+        }
+        String name = RuleRunnerResource.RULE_RUNNER_BACKGROUND_THREAD + worker.getKey();
+        boolean waiting;
+        synchronized (this) {
+            waiting = worker.getLane() != null && queues.get(worker.getLane()).remove(worker);
+        }
+        Runnable task = worker.getPoolTask();
+        if (waiting || (task != null && workers.remove(task))) {
+            worker.completeWithoutRunning(new CancellationException(aborted ? "The rule was aborted before it started" : "The rule timed out before it started"));
+            return;
+        }
+        worker.markAborted();
+        if (aborted) {
+            worker.getLog().warn("The background worker " + name + " has been terminated by the user. Attempting to stop it...");
+        } else {
+            worker.getLog().warn("The background worker " + name + " has timed out. Attempting to stop it...");
+        }
+        worker.interrupt();
+        worker.terminate();
+        long start = System.currentTimeMillis();
+        watchdog.schedule(() -> checkStopped(worker, name, start, 0), STOP_CHECK_INTERVAL_SECONDS, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Queues the worker in the given lane, and admits it to the pool if the limits allow.
+     * Its deadline is scheduled on the watchdog when it starts running, so that time spent
+     * waiting for admission does not count against the timeout, and is canceled when the
+     * worker completes.
+     *
+     * @param worker The worker to run
+     * @param lane The lane in which the worker waits for admission
+     * @param timeout The maximum running time
+     * @param timeoutUnit The unit of the timeout
+     * @throws RejectedExecutionException if {@link #MAX_QUEUED} workers are already waiting
+     */
+    public void submit(RuleRunnerResource.RuleRunnerAsyncWorker worker, Lane lane, long timeout, TimeUnit timeoutUnit) {
+        AtomicReference<ScheduledFuture<?>> deadline = new AtomicReference<>();
+        Runnable task = () -> {
+            if (!worker.isDone()) {
+                deadline.set(watchdog.schedule(() -> stop(worker, false), timeout, timeoutUnit));
+                if (worker.isDone()) {
+                    // Stopped while the deadline was being scheduled
+                    deadline.get().cancel(false);
+                }
+            }
+            worker.runPooled();
+        };
+        worker.setPoolTask(task);
+        worker.setLane(lane);
+        synchronized (this) {
+            int queued = 0;
+            for(Deque<RuleRunnerResource.RuleRunnerAsyncWorker> queue : queues.values()) {
+                queued += queue.size();
+            }
+            if (queued >= MAX_QUEUED) {
+                RejectedExecutionException rejection = new RejectedExecutionException("Too many rules are waiting to run; try again later");
+                worker.completeWithoutRunning(rejection);
+                throw rejection;
+            }
+            queues.get(lane).addLast(worker);
+        }
+        worker.getCompletion().whenComplete((output, error) -> {
+            ScheduledFuture<?> scheduled = deadline.get();
+            if (scheduled != null) {
+                scheduled.cancel(false);
+            }
+            release(worker);
+        });
+        admit();
+        if (log.isDebugEnabled()) {
+            log.debug("Submitted background worker " + worker.getKey() + " in the " + lane + " lane with a timeout of " + timeout + " " + timeoutUnit);
+        }
+    }
+}
@@ -39,9 +39,14 @@ import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import javax.servlet.http.HttpSession;
 import javax.ws.rs.*;
+import javax.ws.rs.core.Context;
 import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Response;
+import javax.ws.rs.core.StreamingOutput;
+import javax.ws.rs.ext.MessageBodyWriter;
+import javax.ws.rs.ext.Providers;
 import java.io.*;
+import java.lang.annotation.Annotation;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.sql.Connection;
@@ -50,8 +55,13 @@ import java.text.ParseException;
 import java.text.SimpleDateFormat;
 import java.text.StringCharacterIterator;
 import java.util.*;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.TimeUnit;
-import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.TimeoutException;
 import java.util.function.Consumer;
 import java.util.stream.Collectors;
 
@@ -65,125 +75,57 @@ import java.util.stream.Collectors;
 @Path("IDWRuleRunnerPlugin")
 public class RuleRunnerResource extends BaseCommonPluginResource {
 	/**
-	 * The secondary thread serving to monitor and control a running rule thread. After the timeout
-	 * timestamp has passed, this thread will attempt to interrupt the running rule, which ought to
-	 * stop if it has been properly augmented by {@link #addInterrupts(String)}.
+	 * The implementation of the Rule Runner background thread. This class will be added to
+	 * the {@link WorkerRegistry} for every asynchronous execution, and polled by the browser
+	 * if the rule runs for longer than the sync window (3 seconds by default).
+	 *
+	 * The worker is run on a pooled thread by the {@link RuleRunnerExecutor}, which also
+	 * enforces its timeout.
 	 */
-	public static class RuleRunnerMonitorThread extends Thread {
+	public static class RuleRunnerAsyncWorker extends SailPointWorker {
 		/**
-		 * Set to true whenever an abort is requested
+		 * The lifecycle states of a worker
 		 */
-		private final AtomicBoolean abort;
+		public enum State {
+			Queued,
+			Running,
+			Completed,
+			Aborted
+		}
 
 		/**
-		 * The background rule-running thread being monitored by this thread. This reference
-		 * keeps the background object from being garbage collected.
+		 * Set to true when the worker is stopped by an abort or a timeout
 		 */
-		private final Thread backgroundThread;
-
+		private volatile boolean aborted;
 		/**
-		 * The enhanced logger associated with this thread
+		 * The timestamp at which the worker finished, or zero while it is live
 		 */
-		private final Log log;
-
-		private final Log passthroughLog;
-
+		private volatile long completedTimestamp;
 		/**
-		 * The timeout timestamp, set by the user, 10 minutes by default
+		 * Completed with the output when the worker finishes, whether normally, by an
+		 * exception, or by being stopped before it started
 		 */
-		private final long timeoutTimestamp;
-
+		private final CompletableFuture<Object> completion;
 		/**
-		 * The worker associated with the background thread
+		 * The compiled form of the rule, if compiled execution was requested and succeeded
 		 */
-		private final RuleRunnerAsyncWorker worker;
-
-		public RuleRunnerMonitorThread(Thread backgroundThread, RuleRunnerAsyncWorker worker, Log log, long timeout, TimeUnit timeoutUnit) {
-			super.setPriority(3);
-			super.setName("RRMonitor - " + backgroundThread.getName() + " - " + (System.currentTimeMillis() / 1000));
-			super.setDaemon(true);
-
-			this.abort = new AtomicBoolean();
-			this.backgroundThread = backgroundThread;
-			this.worker = worker;
-
-			this.timeoutTimestamp = System.currentTimeMillis() + TimeUnit.MILLISECONDS.convert(timeout, timeoutUnit);
-			this.passthroughLog = log;
-			this.log = LogFactory.getLog(getClass());
-		}
-
-		/**
-		 * Sets the abort flag, which will attempt to terminate the running rule on the next loop
-		 */
-		public void abort() {
-			this.abort.set(true);
-		}
-
-		@Override
-		public void run() {
-			String backgroundThreadName = backgroundThread.getName();
-			try {
-				// Initial sleep to give the background thread time to start
-				Thread.sleep(10000L);
-				while (System.currentTimeMillis() < timeoutTimestamp && backgroundThread.isAlive() && !abort.get()) {
-					Thread.sleep(1000L);
-				}
-				if (backgroundThread.isAlive()) {
-					long start = System.currentTimeMillis();
-					if (abort.get()) {
-						passthroughLog.warn("The background worker running in thread " + backgroundThreadName + " has been terminated by the user. Attempting to stop it...");
-					} else {
-						passthroughLog.warn("The background worker running in thread " + backgroundThreadName + " has timed out. Attempting to stop it...");
-					}
-					backgroundThread.interrupt();
-					worker.terminate();
-					for(int attempts = 0; attempts < 10; attempts++) {
-						backgroundThread.join(10 * 1000L);
-						if (backgroundThread.isAlive()) {
-							long elapsed = (System.currentTimeMillis() - start) / 1000;
-							log.info("Waiting for background thread " + backgroundThreadName + " to stop (" + elapsed + " seconds elapsed)...");
-						}
-					}
-					if (backgroundThread.isAlive()) {
-						long elapsed = (System.currentTimeMillis() - start) / 1000;
-						passthroughLog.error("Could not terminate background thread " + backgroundThreadName + " after waiting " + elapsed + " seconds! It is likely dangling and may cause performance problems!");
-					}
-				} else {
-					log.info("The background rule runner worker stopped normally");
-				}
-			} catch(InterruptedException e) {
-				log.warn("Monitor thread interrupted; interrupting monitored worker thread " + backgroundThreadName);
-				if (backgroundThread.isAlive()) {
-					backgroundThread.interrupt();
-				}
-			} catch(Exception e) {
-				log.error("Caught an exception waiting for Rule Runner background thread " + backgroundThreadName, e);
-			}
-		}
-	}
-
-	/**
-	 * The implementation of the Rule Runner background thread. This class will be added to
-	 * the {@link #backgroundThreads} map if the duration of the rule execution is longer than
-	 * the synchronous timeout (usually 2 seconds).
-	 */
-	public static class RuleRunnerAsyncWorker extends SailPointWorker {
+		private CompiledScript compiledScript;
 		/**
 		 * True if we ought to create a task result for this rule execution
 		 */
 		private final boolean createTaskResult;
 		/**
-		 * the UUID of this thread, the key in {@link #backgroundThreads}.
+		 * the UUID of this thread, the key in the {@link WorkerRegistry}. This is cleared when the worker finishes.
 		 */
 		private String key;
 		/**
-		 * The logger, which will be piped back to the user in the brower
+		 * The {@link RuleRunnerExecutor} lane in which this worker waits for admission
 		 */
-		private final LogStreamWrapper log;
+		private volatile RuleRunnerExecutor.Lane lane;
 		/**
-		 * The monitor thread, which will kill this thread after the timeout elapses
+		 * The logger, which will be piped back to the user in the brower
 		 */
-		private RuleRunnerMonitorThread monitorThread;
+		private final LogStreamWrapper log;
 		/**
 		 * The output object, which can be anything
 		 */
@@ -196,17 +138,37 @@ public class RuleRunnerResource extends BaseCommonPluginResource {
 		 * The input parameters
 		 */
 		private final Map<String, Object> params;
+		/**
+		 * The task submitted to the {@link RuleRunnerExecutor} pool for this worker
+		 */
+		private Runnable poolTask;
 		/**
 		 * The actual Rule being executed, usually something ad-hoc
 		 */
 		private final Rule rule;
+		/**
+		 * The pooled thread running this worker, while it is running
+		 */
+		private Thread runningThread;
+		/**
+		 * The timestamp at which this worker started running, or zero if it has not
+		 */
+		private volatile long startedTimestamp;
+		/**
+		 * The current lifecycle state
+		 */
+		private volatile State state;
+		/**
+		 * True if the rule should be run on the {@link InterpreterPool} rather than by IIQ
+		 */
+		private boolean useInterpreterPool;
 		/**
 		 * A task monitor
 		 */
 		private final RuleRunnerTaskMonitor taskMonitor;
 
 		/**
-		 * The timestamp
+		 * The timestamp at which this worker was submitted
 		 */
 		private final long timestamp;
 
@@ -224,20 +186,100 @@ public class RuleRunnerResource extends BaseCommonPluginResource {
 
 			this.taskMonitor = new RuleRunnerTaskMonitor();
 			this.taskMonitor.setAsync(true);
+			this.taskMonitor.setChangeSignal(log.getChangeSignal());
 
 			this.timestamp = System.currentTimeMillis();
+			this.completion = new CompletableFuture<>();
+			this.state = State.Queued;
 		}
 
 		/**
-		 * Attempts to abort this task and its monitor
+		 * Attempts to abort this task, by way of the {@link RuleRunnerExecutor}
 		 */
 		public void abort() {
-			if (this.monitorThread != null) {
-				this.monitorThread.abort();
-			}
 			if (this.taskMonitor != null) {
 				this.taskMonitor.terminate();
 			}
+			RuleRunnerExecutor.getInstance().stop(this, true);
+		}
+
+		/**
+		 * Completes this worker without running it, because it was stopped while still queued
+		 * @param reason The exception to report as the output
+		 */
+		void completeWithoutRunning(Exception reason) {
+			this.output = reason;
+			this.key = null;
+			finish(State.Aborted);
+		}
+
+		/**
+		 * Records the final state of this worker, releases the inputs it no longer needs,
+		 * and completes {@link #getCompletion()}
+		 *
+		 * @param finalState The final state
+		 */
+		private void finish(State finalState) {
+			// The inputs may be large, such as CSV data, and are not needed once the rule is done
+			this.params.clear();
+			this.compiledScript = null;
+			// The journal stays readable until the worker is evicted, but takes no more records
+			if (log.getJournal() != null) {
+				log.getJournal().close();
+			}
+			this.completedTimestamp = System.currentTimeMillis();
+			this.state = finalState;
+			this.completion.complete(output);
+			log.getChangeSignal().signal();
+		}
+
+		/**
+		 * Marks this worker as aborted, so that it finishes in the {@link State#Aborted} state
+		 */
+		void markAborted() {
+			this.aborted = true;
+		}
+
+		/**
+		 * Interrupts the thread running this worker, if it is running
+		 */
+		synchronized void interrupt() {
+			if (runningThread != null) {
+				runningThread.interrupt();
+			}
+		}
+
+		/**
+		 * Runs this worker on the current pooled thread, naming the thread after the worker
+		 * while it runs, and then completes {@link #getCompletion()}. A worker stopped after
+		 * it was admitted, but before the pool started it, completes without running.
+		 */
+		void runPooled() {
+			Thread thread = Thread.currentThread();
+			String poolThreadName = thread.getName();
+			synchronized (this) {
+				// Checked under the same lock as interrupt(), so a later stop interrupts this thread
+				if (aborted) {
+					completeWithoutRunning(new CancellationException("The rule was stopped before it started"));
+					return;
+				}
+				runningThread = thread;
+			}
+			startedTimestamp = System.currentTimeMillis();
+			state = State.Running;
+			log.getChangeSignal().signal();
+			thread.setName(RULE_RUNNER_BACKGROUND_THREAD + key);
+			try {
+				run();
+			} finally {
+				synchronized (this) {
+					runningThread = null;
+				}
+				// Clear any interrupt meant for this rule, so that it does not affect the next one
+				Thread.interrupted();
+				thread.setName(poolThreadName);
+				finish(aborted ? State.Aborted : State.Completed);
+			}
 		}
 
 		/**
@@ -304,7 +346,13 @@ public class RuleRunnerResource extends BaseCommonPluginResource {
 				params.put("__message", messageConsumer);
 				params.put("__uuid", key);
 				params.put(VAR_MONITOR, this.taskMonitor);
-				output = context.runRule(rule, params);
+				if (compiledScript != null) {
+					output = compiledScript.execute(context, params);
+				} else if (useInterpreterPool) {
+					output = InterpreterPool.getInstance().run(context, rule, params);
+				} else {
+					output = context.runRule(rule, params);
+				}
 			} catch(Exception e) {
 				output = e;
 				if (log.isDebugEnabled()) {
@@ -312,9 +360,6 @@ public class RuleRunnerResource extends BaseCommonPluginResource {
 				}
 			} finally {
 				this.key = null;
-
-				// This object should have the only non-weak reference to this thread
-				this.monitorThread = null;
 			}
 
 			if (iiqMonitor != null) {
@@ -341,41 +386,111 @@ public class RuleRunnerResource extends BaseCommonPluginResource {
 		}
 
 		/**
-		 * Gets the start timestamp
-		 * @return The start timestamp
+		 * Gets the future completed with this worker's output when it finishes
+		 * @return The completion future
+		 */
+		public CompletableFuture<Object> getCompletion() {
+			return completion;
+		}
+
+		/**
+		 * Gets the timestamp at which this worker finished
+		 * @return The completion timestamp, or zero if the worker is still live
+		 */
+		public long getCompletedTimestamp() {
+			return completedTimestamp;
+		}
+
+		/**
+		 * Gets the elapsed time, which stops counting when the worker finishes
+		 * @return The elapsed time in milliseconds
 		 */
 		public long getElapsedMillis() {
-			return System.currentTimeMillis() - timestamp;
+			long end = completedTimestamp > 0 ? completedTimestamp : System.currentTimeMillis();
+			return end - timestamp;
 		}
 
 		public String getKey() {
 			return key;
 		}
 
-		public LogStreamWrapper getLog() {
-			return log;
+		RuleRunnerExecutor.Lane getLane() {
+			return lane;
 		}
 
-		public RuleRunnerMonitorThread getMonitorThread() {
-			return monitorThread;
+		public LogStreamWrapper getLog() {
+			return log;
 		}
 
 		public Object getOutput() {
 			return output;
 		}
 
+		/**
+		 * Gets the time this worker spent running, excluding any time spent waiting for admission
+		 * @return The running time in milliseconds, or zero if it never started
+		 */
+		public long getRunningMillis() {
+			if (startedTimestamp == 0) {
+				return 0;
+			}
+			long end = completedTimestamp > 0 ? completedTimestamp : System.currentTimeMillis();
+			return end - startedTimestamp;
+		}
+
+		public String getOwnerIdentity() {
+			return ownerIdentity;
+		}
+
+		Runnable getPoolTask() {
+			return poolTask;
+		}
+
+		public State getState() {
+			return state;
+		}
+
+		/**
+		 * Gets the timestamp at which this worker was submitted, before any time spent
+		 * waiting for admission
+		 * @return The submission timestamp
+		 */
+		public long getSubmittedTimestamp() {
+			return timestamp;
+		}
+
 		public RuleRunnerTaskMonitor getTaskMonitor() {
 			return taskMonitor;
 		}
 
-		public void setMonitorThread(RuleRunnerMonitorThread monitorThread) {
-			this.monitorThread = monitorThread;
+		public void setCompiledScript(CompiledScript compiledScript) {
+			this.compiledScript = compiledScript;
+		}
+
+		void setLane(RuleRunnerExecutor.Lane lane) {
+			this.lane = lane;
+		}
+
+		void setPoolTask(Runnable poolTask) {
+			this.poolTask = poolTask;
+		}
+
+		public void setUseInterpreterPool(boolean useInterpreterPool) {
+			this.useInterpreterPool = useInterpreterPool;
+		}
+
+		/**
+		 * @return True if this worker has finished
+		 */
+		public boolean isDone() {
+			return completion.isDone();
 		}
 	}
 
 	public static final String AUDIT_ASYNC = "async";
 	public static final String AUDIT_CLIENT = "client";
 	public static final String AUDIT_CODE = "code";
+	public static final String AUDIT_COMPILED = "compiled";
 	public static final String AUDIT_HOST = "host";
 	public static final String AUDIT_INCLUDE_WEB_CLASSES = "includeWebClasses";
 	public static final String AUDIT_INPUT_VARIABLES = "inputVariables";
@@ -384,12 +499,16 @@ public class RuleRunnerResource extends BaseCommonPluginResource {
     public static final String AUDIT_FILE_UPLOAD_PLUGIN_ACTION = "ruleRunnerFileUpload";
 	public static final String AUDIT_TARGET = "Execute";
     public static final String FAKE_RULE_PREFIX = "_RuleRunnerResource";
+	public static final String HEADER_TOTAL_COUNT = "X-Total-Count";
 
+	public static final String INPUT_AFTER_SEQUENCE = "after";
     public static final String INPUT_ASYNC = "async";
+	public static final String INPUT_COMPILED = "compiled";
     public static final String INPUT_CSV_INPUT = "csvInput";
 	public static final String INPUT_INCLUDE_WEB_CLASSES = "includeWebClasses";
 	public static final String INPUT_LIBRARIES = "libraries";
 	public static final String INPUT_LIBRARY_TITLE = "title";
+	public static final String INPUT_LOG_LEVEL = "logLevel";
 	public static final String INPUT_RULE_TIMEOUT = "ruleTimeout";
 	public static final String INPUT_SCRIPT = "script";
 	public static final String INPUT_SOURCE = "source";
@@ -399,19 +518,62 @@ public class RuleRunnerResource extends BaseCommonPluginResource {
 	public static final String INPUT_VAR_TYPE_VALUE = "value";
 	public static final String INPUT_VAR_VALUE = "value";
 	/**
-	 * The snippet added to all user-entered code to allow interrupting
+	 * The number of loop iterations between cooperative interrupt checks, if the
+	 * interruptCheckInterval setting is not configured
 	 */
-	public static final String INTERRUPT_SNIPPET = " if (Thread.currentThread().isInterrupted()) { throw new InterruptedException(); } ";
+	public static final long DEFAULT_INTERRUPT_CHECK_INTERVAL = 1L;
+	/**
+	 * The number of history summaries returned per page, unless the client asks for a
+	 * different size, which is capped at {@link #MAX_HISTORY_PAGE_SIZE}
+	 */
+	public static final int DEFAULT_HISTORY_PAGE_SIZE = 100;
+	/**
+	 * The number of journal records read per page of the asyncLog endpoint, unless the client
+	 * asks for a different size, which is capped at {@link #MAX_LOG_PAGE_SIZE}
+	 */
+	public static final int DEFAULT_LOG_PAGE_SIZE = 1000;
 	public static final String LANGUAGE_BEANSHELL = "beanshell";
+	public static final int MAX_HISTORY_PAGE_SIZE = 1000;
+	public static final int MAX_LOG_PAGE_SIZE = 10000;
 	public static final String OUTPUT_TYPE = "type";
 	public static final String OUTPUT_VALUE = "value";
+	/**
+	 * The longest a request waits for its syntax check before giving up
+	 */
+	public static final int PARSE_TIMEOUT_SECONDS = 30;
+	/**
+	 * The right required by the administrative endpoints, held implicitly by System Administrators
+	 */
+	public static final String RIGHT_ADMIN = "IDW_SP_RuleRunner_Admin";
 	public static final String RULE_RUNNER_BACKGROUND_THREAD = "RuleRunnerBackgroundThread - ";
+	/**
+	 * The media type of the asyncStream endpoint
+	 */
+	public static final String SERVER_SENT_EVENTS = "text/event-stream";
+	public static final String SETTING_ADAPTIVE_SYNC_WINDOW = "adaptiveSyncWindow";
+	public static final String SETTING_INTERRUPT_CHECK_INTERVAL = "interruptCheckInterval";
+	public static final String SETTING_LOG_BUFFER_CAPACITY = "logBufferCapacity";
+	public static final String SETTING_LOG_JOURNAL = "logJournal";
+	public static final String SETTING_MAX_CONCURRENT_RULES = "maxConcurrentRules";
+	public static final String SETTING_MAX_CONCURRENT_RULES_PER_USER = "maxConcurrentRulesPerUser";
+	public static final String SETTING_MAX_EVENT_STREAMS = "maxEventStreams";
+	public static final String SETTING_SYNC_WINDOW_MILLIS = "syncWindowMillis";
+	public static final String SETTING_WARM_INTERPRETER_POOL = "warmInterpreterPool";
+	/**
+	 * The time an asynchronous rule is given to finish before the run endpoint returns, if the
+	 * syncWindowMillis setting is not configured
+	 */
+	public static final long DEFAULT_SYNC_WINDOW_MILLIS = 3000L;
     public static final String SESSION_UPLOADED_FILE_PATH = "IDW_RuleRunner_UploadedFilePath";
     public static final String VAR_CONTEXT = "context";
     public static final String VAR_CSV_DATA = "csvData";
     public static final String VAR_CSV_HEADERS = "csvHeaders";
     public static final String VAR_HTTP_REQUEST = "httpRequest";
 	public static final String VAR_HTTP_RESPONSE = "httpResponse";
+	/**
+	 * The {@link RuleInterruptCheck} called by the checks injected by {@link #addInterrupts(String)}
+	 */
+	public static final String VAR_INTERRUPTS = "__interrupts";
 	public static final String VAR_LOG = "log";
 	public static final String VAR_LOG1 = "_log";
 	public static final String VAR_LOG2 = "__log";
@@ -420,63 +582,15 @@ public class RuleRunnerResource extends BaseCommonPluginResource {
 	public static final String VAR_WEB_SERVICE = "webService";
 
 	/**
-	 * Background threads
-	 */
-	private static final Map<String, RuleRunnerAsyncWorker> backgroundThreads = new WeakHashMap<>();
-
-	/**
-	 * Modify the code by adding interrupts to it at the start of every code block.
-	 * There is special handling for 'switch' blocks, because they don't allow code
-	 * between the '{' and the first 'case'.
+	 * Modify the code by adding cooperative interrupt checks at the start of every loop
+	 * body and method, as described in {@link InterruptInjector}. The script must be run
+	 * with a {@link RuleInterruptCheck} bound to {@link #VAR_INTERRUPTS}.
 	 *
 	 * @param script The script to modify
 	 * @return The modified script
 	 */
 	public static String addInterrupts(String script) {
-		StringBuilder newSource = new StringBuilder();
-		boolean inQuotes = false;
-		boolean isSwitch = false;
-		boolean escaped = false;
-		CharacterIterator iter = new StringCharacterIterator(script);
-		StringBuilder word = new StringBuilder();
-		for(char c = iter.first(); c != CharacterIterator.DONE; c = iter.next()) {
-			// Track the last full word seen so we can look for language constructs,
-			// mainly so we can fix the 'switch' construct with the interrupts.
-			if (Character.isAlphabetic(c)) {
-				word.append(c);
-			} else if (word.length() > 0) {
-				String lastWord = word.toString();
-				if (lastWord.equals("switch")) {
-					isSwitch = true;
-				}
-				word = new StringBuilder();
-			}
-			newSource.append(c);
-			if (c == '"') {
-				if (!escaped) {
-					inQuotes = !inQuotes;
-				}
-				escaped = false;
-			} else if (c == '\\') {
-				escaped = !escaped;
-			} else if (c == '{' && !inQuotes) {
-				if (isSwitch) {
-					isSwitch = false;
-				} else {
-					newSource.append(INTERRUPT_SNIPPET);
-				}
-				escaped = false;
-			} else {
-				// If we've reached a newline, reset the inQuotes flag
-				if (c == '\n' || c == '\r') {
-					inQuotes = false;
-				}
-
-				// Escaping only lasts one character
-				escaped = false;
-			}
-		}
-		return newSource.toString();
+		return InterruptInjector.inject(script);
 	}
 
 	/**
@@ -519,6 +633,27 @@ public class RuleRunnerResource extends BaseCommonPluginResource {
 		}
 	}
 
+	/**
+	 * Derives the name of the ad-hoc rule for a run from a digest of its augmented source
+	 * and its libraries, including their modification dates. Repeated runs of the same
+	 * script therefore present the same rule to IIQ, so that any caching keyed by rule
+	 * name is reused, while editing the script or a library produces a new name.
+	 *
+	 * @param source The interrupt-augmented source
+	 * @param libraries The referenced rule libraries
+	 * @return The rule name
+	 */
+	static String fakeRuleName(String source, List<Rule> libraries) {
+		List<String> parts = new ArrayList<>();
+		parts.add(source);
+		for(Rule library : libraries) {
+			Date modified = library.getModified() != null ? library.getModified() : library.getCreated();
+			parts.add(library.getName());
+			parts.add(modified == null ? "" : String.valueOf(modified.getTime()));
+		}
+		return FAKE_RULE_PREFIX + "_" + Utils.digest(parts.toArray(new String[0])).substring(0, 32);
+	}
+
 	/**
 	 * Transforms the exception into a String by printing it to a ByteArrayOutputStream
 	 * @param e The exception to render
@@ -671,6 +806,26 @@ public class RuleRunnerResource extends BaseCommonPluginResource {
 		}
 	}
 
+	/**
+	 * Adds the captured log messages after the client's sequence number to the outcome,
+	 * along with the sequence number the client should resume from, the drop counts, and
+	 * whether the full log is journaled
+	 *
+	 * @param outcome The outcome to populate
+	 * @param log The captured log
+	 * @param minLevel The minimum level to return, or null for all
+	 * @param afterSequence The sequence number of the last message the client has, or null
+	 *                      to return the messages not yet delivered to any client
+	 */
+	static void setLogs(RunRuleOutcome outcome, LogStreamWrapper log, LogStreamWrapper.Level minLevel, Long afterSequence) {
+		long after = (afterSequence == null) ? log.getDeliveredSequence() : afterSequence;
+		LogStreamWrapper.MessageBatch batch = log.getMessagesAfter(minLevel, after);
+		outcome.setLogs(batch.getMessages());
+		outcome.setLogSequence(batch.getLastSequence());
+		outcome.setDroppedLogs(log.getDroppedMessageCounts());
+		outcome.setJournaled(log.getJournal() != null);
+	}
+
 	/**
 	 * Web service endpoint to abort the given background thread. Thread termination is NOT
 	 * guaranteed, but we will make a best effort to interrupt everything.
@@ -688,19 +843,17 @@ public class RuleRunnerResource extends BaseCommonPluginResource {
 			if (Util.isNullOrEmpty(uuid)) {
 				throw new IllegalArgumentException("Must supply a UUID in the JSON body");
 			}
-			RuleRunnerAsyncWorker worker = backgroundThreads.get(uuid);
-			if (worker == null) {
-				throw new IllegalArgumentException("No worker with UUID = " + uuid);
-			}
+			RuleRunnerAsyncWorker worker = getOwnWorker(uuid);
 
 			worker.abort();
 
 			log.info("Waiting up to ten seconds for the worker to abort...");
 
 			// Wait up to ten seconds for completion
-			long timeout = System.currentTimeMillis() + (10 * 1000L);
-			while(System.currentTimeMillis() < timeout && Util.isNotNullOrEmpty(worker.getKey())) {
-				Thread.sleep(100);
+			try {
+				worker.getCompletion().get(10, TimeUnit.SECONDS);
+			} catch(TimeoutException e) {
+				/* Reported below */
 			}
 
 			String logLevel = Util.otoa(jsonBody.get("logLevel"));
@@ -713,10 +866,10 @@ public class RuleRunnerResource extends BaseCommonPluginResource {
 			outcome.setStats(worker.taskMonitor.toMap());
 			outcome.setAsync(true);
 			outcome.setUuid(uuid);
-			outcome.setLogs(worker.getLog().getMessages(minLevel));
+			Long afterSequence = jsonBody.get(INPUT_AFTER_SEQUENCE) == null ? null : Util.otolo(jsonBody.get(INPUT_AFTER_SEQUENCE));
+			setLogs(outcome, worker.getLog(), minLevel, afterSequence);
 			outcome.setElapsed(worker.getElapsedMillis());
-			if (Util.isNullOrEmpty(worker.getKey())) {
-				// This will only happen when the worker is done
+			if (worker.isDone()) {
 				outcome.setTerminated(true);
 				outcome.setOutput(transformResult(worker.getOutput()));
 			} else {
@@ -745,6 +898,84 @@ public class RuleRunnerResource extends BaseCommonPluginResource {
         });
     }
 
+	/**
+	 * Compiles a script for compiled mode on the bounded syntax check pool, rather than on
+	 * this request thread, since a cold compilation of a large library can take seconds.
+	 * A full queue or a compilation that times out falls back to interpreted Beanshell,
+	 * like any other script that cannot be compiled.
+	 *
+	 * @param checker The configured syntax checker
+	 * @return The compiled script, or null if it cannot be run as compiled code
+	 * @throws Exception if the compilation fails unexpectedly
+	 */
+	private CompiledScript compileForExecution(BeanshellSyntaxChecker checker) throws Exception {
+		Future<CompiledScript> compilation;
+		try {
+			compilation = LintExecutor.getInstance().submitCompilation(checker);
+		} catch(RejectedExecutionException e) {
+			log.warn("The syntax check queue is full, so the script will not be compiled");
+			return null;
+		}
+		try {
+			return compilation.get(PARSE_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+		} catch(TimeoutException e) {
+			compilation.cancel(false);
+			log.warn("Compiling the script took longer than " + PARSE_TIMEOUT_SECONDS + " seconds");
+			return null;
+		} catch(ExecutionException e) {
+			if (e.getCause() instanceof Exception) {
+				throw (Exception) e.getCause();
+			}
+			throw e;
+		}
+	}
+
+	/**
+	 * Creates a syntax checker for the given script, declaring all of the variables that
+	 * the Rule Runner will inject, as well as any variables supplied by the user.
+	 *
+	 * @param script The Beanshell script
+	 * @param librarySources The source code of any included rule libraries
+	 * @param params The JSON body of the request
+	 * @return The configured syntax checker
+	 */
+	@SuppressWarnings("unchecked")
+	private BeanshellSyntaxChecker createSyntaxChecker(String script, List<String> librarySources, Map<String, Object> params) {
+		boolean includeWebClasses = Util.otob(params.get(INPUT_INCLUDE_WEB_CLASSES));
+		BeanshellSyntaxChecker checker = new BeanshellSyntaxChecker(script, librarySources, log);
+		checker.addExpectedVariable(VAR_UUID, String.class);
+		checker.addExpectedVariable(VAR_MONITOR, Monitor.class);
+		checker.addExpectedVariable("__worker", SailPointWorker.class);
+		if (includeWebClasses) {
+			checker.addExpectedVariable(VAR_WEB_SERVICE, BasePluginResource.class);
+			checker.addExpectedVariable(VAR_HTTP_REQUEST, HttpServletRequest.class);
+			checker.addExpectedVariable(VAR_HTTP_RESPONSE, HttpServletResponse.class);
+		}
+		boolean isWorkflowRuleLibrary = Util.otob(params.get("isWorkflowRuleLibrary"));
+		if (isWorkflowRuleLibrary) {
+			checker.addExpectedVariable("launcher", String.class);
+			checker.addExpectedVariable("wfcontext", WorkflowContext.class);
+		}
+		checker.setSuppressRawTypeErrors(Util.otob(params.get("suppressRawTypeErrors")));
+		if (params.containsKey(INPUT_VARIABLES) && params.get(INPUT_VARIABLES) instanceof List) {
+			List<Map<String, Object>> variables = (List<Map<String, Object>>) params.get(INPUT_VARIABLES);
+			for(Map<String, Object> variable : variables) {
+				String name = Util.otoa(variable.get("name"));
+				String type = Util.otoa(variable.get("type"));
+				if (Util.isNullOrEmpty(type)) {
+					type = "Object";
+				}
+				checker.addExpectedVariable(name, type);
+			}
+		}
+        String uploadedFilePath = Util.otoa(request.getSession().getAttribute(SESSION_UPLOADED_FILE_PATH));
+        if (Util.isNotNullOrEmpty(uploadedFilePath)) {
+            checker.addExpectedVariable(VAR_CSV_DATA, List.class);
+            checker.addExpectedVariable(VAR_CSV_HEADERS, List.class);
+        }
+		return checker;
+	}
+
     @POST
     @Path("upload")
     @Consumes(MediaType.MULTIPART_FORM_DATA)
@@ -875,43 +1106,126 @@ public class RuleRunnerResource extends BaseCommonPluginResource {
 	}
 	
 	/**
-	 * Gets the list of available rule libraries
+	 * Gets the names and types of the rules matching the given search. The rules are read
+	 * with a projection query, so their sources are never loaded. If a page is requested,
+	 * the total number of matching rules is returned in the {@value #HEADER_TOTAL_COUNT} header.
+	 *
 	 * @param search A partial search, optionally
-	 * @return The list of available rule libraries
+	 * @param prefix A case-insensitive name prefix, optionally
+	 * @param start The index of the first rule to return, optionally
+	 * @param limit The maximum number of rules to return, optionally
+	 * @return A map of rule names to rule types, ordered by name
 	 */
 	@GET
 	@Path("list")
 	@RequiredRight("IDW_SP_RuleRunner")
-	public Response getAllRules(@QueryParam("search") final String search) {
+	public Response getAllRules(@QueryParam("search") final String search, @QueryParam("prefix") final String prefix, @QueryParam("start") final Integer start, @QueryParam("limit") final Integer limit) {
 		return handle(() -> {
-			final Map<String, String> ruleTypes = new HashMap<>();
-			List<Rule> allRules = getContext().getObjects(Rule.class);
-			allRules.forEach(rule -> {
-				if (Util.isNullOrEmpty(search) || rule.getName().contains(search)) {
-					String type = "";
-					if (rule.getType() != null) {
-						type = rule.getType().name();
-					}
-					ruleTypes.put(rule.getName(), type);
+			QueryOptions qo = new QueryOptions();
+			if (Util.isNotNullOrEmpty(search)) {
+				qo.addFilter(Filter.like("name", search, Filter.MatchMode.ANYWHERE));
+			}
+			if (Util.isNotNullOrEmpty(prefix)) {
+				qo.addFilter(Filter.ignoreCase(Filter.like("name", prefix, Filter.MatchMode.START)));
+			}
+			Integer total = null;
+			if (start != null || limit != null) {
+				total = getContext().countObjects(Rule.class, qo);
+				if (start != null && start > 0) {
+					qo.setFirstRow(start);
+				}
+				if (limit != null && limit > 0) {
+					qo.setResultLimit(limit);
 				}
-			});
-			return Response.ok().entity(ruleTypes).build();
+			}
+			qo.setOrderBy("name");
+
+			final Map<String, String> ruleTypes = new LinkedHashMap<>();
+			Iterator<Object[]> results = getContext().search(Rule.class, qo, "name, type");
+			while(results.hasNext()) {
+				Object[] row = results.next();
+				Rule.Type type = (Rule.Type) row[1];
+				ruleTypes.put((String) row[0], type == null ? "" : type.name());
+			}
+			Response.ResponseBuilder response = Response.ok().entity(ruleTypes);
+			if (total != null) {
+				response.header(HEADER_TOTAL_COUNT, total);
+			}
+			return response.build();
 		});
 	}
 	
+	/**
+	 * Downloads the full log of a background rule from its journal, as plain text. A
+	 * journal already deleted, because its worker was evicted, is reported as gone.
+	 *
+	 * @param uuid The UUID of the background rule
+	 * @return The REST response, streaming the log
+	 */
+	@GET
+	@Path("asyncLog/download")
+	@RequiredRight("IDW_SP_RuleRunner")
+	public Response downloadAsyncLog(@QueryParam(VAR_UUID) String uuid) {
+		return handle(() -> {
+			LogJournal journal = getJournal(uuid);
+			LogJournal.Export export;
+			try {
+				export = journal.export();
+			} catch(LogJournal.DeletedException e) {
+				return Response.status(Response.Status.GONE).entity(Collections.singletonMap("error", e.getMessage())).build();
+			}
+			StreamingOutput stream = export::writeTo;
+			return Response.ok(stream, MediaType.TEXT_PLAIN_TYPE.withCharset(StandardCharsets.UTF_8.name()))
+					.header("Content-Disposition", "attachment; filename=\"rulerunner-" + uuid + ".log\"")
+					.build();
+		});
+	}
+
+	/**
+	 * Reads one page of the full log of a background rule from its journal, starting at the
+	 * given file offset. Unlike asyncUpdate, this can reach messages that have already been
+	 * dropped from the in-memory buffer. A journal already deleted, because its worker was
+	 * evicted, is reported as gone.
+	 *
+	 * @param uuid The UUID of the background rule
+	 * @param offset The offset to start from, which must be zero or the nextOffset of a previous page
+	 * @param limit The maximum number of records to read, defaulting to {@value #DEFAULT_LOG_PAGE_SIZE}
+	 * @param logLevel The minimum log level to return, optionally
+	 * @return The page of messages
+	 */
+	@GET
+	@Path("asyncLog")
+	@RequiredRight("IDW_SP_RuleRunner")
+	@ResponsesAllowed(LogJournal.Page.class)
+	public Response getAsyncLog(@QueryParam(VAR_UUID) String uuid, @QueryParam("offset") Long offset, @QueryParam("limit") Integer limit, @QueryParam("logLevel") String logLevel) {
+		return handle(() -> {
+			LogJournal journal = getJournal(uuid);
+			LogStreamWrapper.Level minLevel = null;
+			if (Util.isNotNullOrEmpty(logLevel)) {
+				minLevel = LogStreamWrapper.Level.valueOf(logLevel);
+			}
+			int pageSize = (limit == null || limit <= 0) ? DEFAULT_LOG_PAGE_SIZE : Math.min(limit, MAX_LOG_PAGE_SIZE);
+			try {
+				return journal.read(offset == null ? 0L : offset, pageSize, minLevel);
+			} catch(IllegalArgumentException e) {
+				// Only offsets issued as a page's nextOffset are valid
+				return Response.status(Response.Status.BAD_REQUEST).entity(Collections.singletonMap("error", e.getMessage())).build();
+			} catch(LogJournal.DeletedException e) {
+				return Response.status(Response.Status.GONE).entity(Collections.singletonMap("error", e.getMessage())).build();
+			}
+		});
+	}
+
 	@GET
 	@Path("asyncUpdate")
 	@RequiredRight("IDW_SP_RuleRunner")
 	@ResponsesAllowed(RunRuleOutcome.class)
-	public Response getAsyncUpdate(@QueryParam(VAR_UUID) String uuid, @QueryParam("logLevel") String logLevel) {
+	public Response getAsyncUpdate(@QueryParam(VAR_UUID) String uuid, @QueryParam("logLevel") String logLevel, @QueryParam(INPUT_AFTER_SEQUENCE) Long afterSequence) {
 		return handle(() -> {
 			if (Util.isNullOrEmpty(uuid)) {
 				throw new IllegalArgumentException("Must supply a UUID as a query parameter");
 			}
-			RuleRunnerAsyncWorker worker = backgroundThreads.get(uuid);
-			if (worker == null) {
-				throw new IllegalArgumentException("No worker with UUID = " + uuid);
-			}
+			RuleRunnerAsyncWorker worker = getOwnWorker(uuid);
 
 			RunRuleOutcome response = new RunRuleOutcome();
 			LogStreamWrapper.Level minLevel = null;
@@ -921,9 +1235,9 @@ public class RuleRunnerResource extends BaseCommonPluginResource {
 			response.setElapsed(worker.getElapsedMillis());
 			response.setStats(worker.taskMonitor.toMap());
 			response.setUuid(uuid);
-			response.setLogs(worker.getLog().getMessages(minLevel));
-			if (Util.isNullOrEmpty(worker.getKey())) {
-				// This will only happen when the worker is done
+			response.setQueuePosition(RuleRunnerExecutor.getInstance().getQueuePosition(worker));
+			setLogs(response, worker.getLog(), minLevel, afterSequence);
+			if (worker.isDone()) {
 				response.setOutput(transformResult(worker.getOutput()));
 				response.setTerminated(true);
 			}
@@ -933,31 +1247,284 @@ public class RuleRunnerResource extends BaseCommonPluginResource {
 	}
 
 	/**
-	 * Returns the audited history of the logged-in user
-	 * @return The audited history
+	 * Streams the progress of a background rule as Server-Sent Events, pushing new log
+	 * messages and progress as they happen and the output when the rule finishes. Clients
+	 * that cannot use the stream, or are told it is busy, poll asyncUpdate instead.
+	 *
+	 * @param uuid The UUID of the background rule
+	 * @param logLevel The minimum log level to send, optionally
+	 * @param afterSequence The sequence number of the last log message the client has, optionally
+	 * @param lastEventId The id of the last event received, sent by the browser when it reconnects
+	 * @param providers The container's providers, whose JSON writer serializes the events as asyncUpdate does
+	 * @return The REST response, streaming the events
 	 */
 	@GET
-	@Path("history")
+	@Path("asyncStream")
 	@RequiredRight("IDW_SP_RuleRunner")
-	@ResponsesAllowed(HistoryEntry.class)
-	public Response getMyRuleHistory() {
+	public Response streamAsyncUpdates(@QueryParam(VAR_UUID) String uuid, @QueryParam("logLevel") String logLevel, @QueryParam(INPUT_AFTER_SEQUENCE) Long afterSequence, @HeaderParam("Last-Event-ID") String lastEventId, @Context Providers providers) {
 		return handle(() -> {
-			QueryOptions qo = new QueryOptions();
-			qo.addFilter(Filter.eq("target", AUDIT_TARGET));
-			qo.addFilter(Filter.eq(INPUT_SOURCE, getLoggedInUserName()));
-			qo.addFilter(Filter.eq("action", AUDIT_RUN_RULE_PLUGIN_ACTION));
+			if (Util.isNullOrEmpty(uuid)) {
+				throw new IllegalArgumentException("Must supply a UUID as a query parameter");
+			}
+			RuleRunnerAsyncWorker worker = getOwnWorker(uuid);
+			LogStreamWrapper.Level minLevel = null;
+			if (Util.isNotNullOrEmpty(logLevel)) {
+				minLevel = LogStreamWrapper.Level.valueOf(logLevel);
+			}
+			Long after = afterSequence;
+			if (Util.isNotNullOrEmpty(lastEventId)) {
+				// A reconnecting browser resumes from its last event, not the original query
+				try {
+					after = Long.parseLong(lastEventId.trim());
+				} catch(NumberFormatException e) {
+					/* A malformed id is treated as no id at all */
+				}
+			}
+			MessageBodyWriter<RunRuleOutcome> jsonWriter = providers.getMessageBodyWriter(RunRuleOutcome.class, RunRuleOutcome.class, new Annotation[0], MediaType.APPLICATION_JSON_TYPE);
+			if (jsonWriter == null) {
+				throw new IllegalStateException("No JSON writer is registered for " + RunRuleOutcome.class.getName());
+			}
+			int maxStreams = (int) getNumericSetting(SETTING_MAX_EVENT_STREAMS, AsyncRuleStream.DEFAULT_MAX_STREAMS);
+			return Response.ok(new AsyncRuleStream(worker, uuid, minLevel, after, maxStreams, jsonWriter), SERVER_SENT_EVENTS)
+					.header("Cache-Control", "no-cache")
+					.header("X-Accel-Buffering", "no")
+					.build();
+		});
+	}
 
-			List<HistoryEntry> history = new ArrayList<>();
-			IncrementalObjectIterator<AuditEvent> auditEvents = new IncrementalObjectIterator<>(getContext(), AuditEvent.class, qo);
-			while(auditEvents.hasNext()) {
-				AuditEvent ae = auditEvents.next();
-				history.add(new HistoryEntry(ae));
+	/**
+	 * Returns the sizes and hit rates of the caches, pools and executors used by the syntax
+	 * checker and by rule runs, including the worker registry and the event streams
+	 * @return The statistics, keyed by cache or component name
+	 */
+	@GET
+	@Path("cacheStats")
+	@RequiredRight("IDW_SP_RuleRunner")
+	public Response getCacheStatistics() {
+		return handle(() -> {
+			Map<String, Object> stats = new TreeMap<>();
+			stats.put("classFileReaders", ClassFileReaderCache.getInstance().getStatistics());
+			stats.put("compiledScripts", CompiledScriptCache.getInstance().getStatistics());
+			stats.put("nameLookups", NameLookupCache.getInstance().getStatistics());
+			stats.put("parseResults", ParseResultCache.getInstance().getStatistics());
+			stats.put("lintExecutor", LintExecutor.getInstance().getStatistics());
+			stats.put("ruleExecutor", RuleRunnerExecutor.getInstance().getStatistics());
+			stats.put("ruleDurations", RuleDurationHistory.getInstance().getStatistics());
+			stats.put("interpreterPool", InterpreterPool.getInstance().getStatistics());
+			stats.put("workerRegistry", WorkerRegistry.getInstance().getStatistics());
+			stats.put("ruleLibraries", RuleLibraryStubCache.getInstance().getStatistics());
+			stats.put("ruleLibrarySources", RuleLibraryCache.getInstance().getStatistics());
+			stats.put("ruleLibraryIndex", RuleLibraryIndex.getInstance().getStatistics());
+			stats.put("asyncStreams", AsyncRuleStream.getStatistics());
+			return stats;
+		});
+	}
+
+	/**
+	 * Returns one page of the audited history of the logged-in user, as summaries read from
+	 * the audit events' indexed columns, newest first, so that the serialized attributes are
+	 * not read. Each summary has the ID, timestamp, hash, first line and libraries of a run.
+	 * The entries are ordered by timestamp and then ID, so to page backward, pass the
+	 * timestamp and ID of the last summary received as 'before' and 'beforeId'. To fetch
+	 * only entries newer than those already held, pass the newest timestamp held as 'since';
+	 * entries at exactly that timestamp are returned again, since another run may have been
+	 * audited in the same millisecond.
+	 *
+	 * @param since Only entries created at or after this timestamp, optionally
+	 * @param before Only entries created before this timestamp, optionally
+	 * @param beforeId With 'before', also entries created at that timestamp with a lower ID, optionally
+	 * @param limit The maximum number of summaries, defaulting to {@value #DEFAULT_HISTORY_PAGE_SIZE}
+	 * @return The page of history summaries
+	 */
+	@GET
+	@Path("history")
+	@RequiredRight("IDW_SP_RuleRunner")
+	@ResponsesAllowed(HistorySummary.class)
+	public Response getMyRuleHistory(@QueryParam("since") Long since, @QueryParam("before") Long before, @QueryParam("beforeId") String beforeId, @QueryParam("limit") Integer limit) {
+		return handle(() -> {
+			QueryOptions qo = getHistoryQuery();
+			if (since != null) {
+				qo.addFilter(Filter.ge("created", new Date(since)));
+			}
+			if (before != null) {
+				Date cursor = new Date(before);
+				if (Util.isNotNullOrEmpty(beforeId)) {
+					// Entries sharing the cursor's timestamp are split by ID, so none are skipped
+					qo.addFilter(Filter.or(Filter.lt("created", cursor), Filter.and(Filter.eq("created", cursor), Filter.lt("id", beforeId))));
+				} else {
+					qo.addFilter(Filter.lt("created", cursor));
+				}
+			}
+			qo.addOrdering("created", false);
+			qo.addOrdering("id", false);
+			qo.setResultLimit((limit == null || limit <= 0) ? DEFAULT_HISTORY_PAGE_SIZE : Math.min(limit, MAX_HISTORY_PAGE_SIZE));
+
+			List<HistorySummary> history = new ArrayList<>();
+			Iterator<Object[]> results = getContext().search(AuditEvent.class, qo, "id, created, string1, string2, string3");
+			while(results.hasNext()) {
+				Object[] row = results.next();
+				history.add(new HistorySummary((String) row[0], (Date) row[1], (String) row[2], (String) row[3], (String) row[4]));
 			}
 
 			return history;
  		});
 	}
 
+	/**
+	 * Returns the full entries, including the source, for the given IDs from the audited
+	 * history of the logged-in user, in a single query. IDs that do not match an entry of
+	 * the logged-in user are ignored.
+	 *
+	 * @param jsonBody A JSON object whose 'ids' is the list of IDs, at most {@value #MAX_HISTORY_PAGE_SIZE}
+	 * @return The history entries, newest first
+	 */
+	@POST
+	@Path("history/batch")
+	@RequiredRight("IDW_SP_RuleRunner")
+	@ResponsesAllowed(HistoryEntry.class)
+	public Response getMyRuleHistoryEntries(Map<String, Object> jsonBody) {
+		return handle(() -> {
+			List<String> ids = Util.otol(jsonBody.get("ids"));
+			if (ids == null || ids.isEmpty()) {
+				return new ArrayList<HistoryEntry>();
+			}
+			if (ids.size() > MAX_HISTORY_PAGE_SIZE) {
+				throw new IllegalArgumentException("At most " + MAX_HISTORY_PAGE_SIZE + " history entries may be requested at once");
+			}
+			QueryOptions qo = getHistoryQuery();
+			qo.addFilter(Filter.in("id", ids));
+			qo.addOrdering("created", false);
+			qo.addOrdering("id", false);
+
+			List<HistoryEntry> entries = new ArrayList<>();
+			List<AuditEvent> events = getContext().getObjects(AuditEvent.class, qo);
+			if (events != null) {
+				for(AuditEvent event : events) {
+					entries.add(new HistoryEntry(event));
+				}
+			}
+			return entries;
+		});
+	}
+
+	/**
+	 * Returns one full entry, including the source, from the audited history of the logged-in user
+	 * @param id The ID of the entry, from its summary
+	 * @return The history entry
+	 */
+	@GET
+	@Path("history/{id}")
+	@RequiredRight("IDW_SP_RuleRunner")
+	@ResponsesAllowed(HistoryEntry.class)
+	public Response getMyRuleHistoryEntry(@PathParam("id") String id) {
+		return handle(() -> {
+			QueryOptions qo = getHistoryQuery();
+			qo.addFilter(Filter.eq("id", id));
+			List<AuditEvent> events = getContext().getObjects(AuditEvent.class, qo);
+			if (events == null || events.isEmpty()) {
+				throw new NotFoundException();
+			}
+			return new HistoryEntry(events.get(0));
+		});
+	}
+
+	/**
+	 * Gets the log journal of the given background rule
+	 * @param uuid The UUID of the background rule
+	 * @return The journal
+	 * @throws IllegalArgumentException if there is no such rule of the logged-in user, or it has no journal
+	 * @throws GeneralException if the logged-in user cannot be determined
+	 */
+	private LogJournal getJournal(String uuid) throws GeneralException {
+		if (Util.isNullOrEmpty(uuid)) {
+			throw new IllegalArgumentException("Must supply a UUID as a query parameter");
+		}
+		RuleRunnerAsyncWorker worker = getOwnWorker(uuid);
+		LogJournal journal = worker.getLog().getJournal();
+		if (journal == null) {
+			throw new IllegalArgumentException("The worker with UUID = " + uuid + " has no log journal; enable the " + SETTING_LOG_JOURNAL + " setting");
+		}
+		return journal;
+	}
+
+	/**
+	 * Gets the background rule with the given UUID, if it was started by the logged-in user.
+	 * Another user's rule is reported exactly like a missing one, so that its UUID cannot
+	 * be used to read its logs and output or to abort it.
+	 *
+	 * @param uuid The UUID of the background rule
+	 * @return The worker
+	 * @throws IllegalArgumentException if there is no such rule of the logged-in user
+	 * @throws GeneralException if the logged-in user cannot be determined
+	 */
+	private RuleRunnerAsyncWorker getOwnWorker(String uuid) throws GeneralException {
+		RuleRunnerAsyncWorker worker = WorkerRegistry.getInstance().get(uuid);
+		if (worker == null || !Util.nullSafeEq(worker.getOwnerIdentity(), getLoggedInUserName())) {
+			throw new IllegalArgumentException("No worker with UUID = " + uuid);
+		}
+		return worker;
+	}
+
+	/**
+	 * Creates the query options matching the rule runs audited for the logged-in user
+	 * @return The query options
+	 * @throws GeneralException if the logged-in user cannot be determined
+	 */
+	private QueryOptions getHistoryQuery() throws GeneralException {
+		QueryOptions qo = new QueryOptions();
+		qo.addFilter(Filter.eq("target", AUDIT_TARGET));
+		qo.addFilter(Filter.eq(INPUT_SOURCE, getLoggedInUserName()));
+		qo.addFilter(Filter.eq("action", AUDIT_RUN_RULE_PLUGIN_ACTION));
+		return qo;
+	}
+
+	/**
+	 * Gets a non-negative numeric plugin setting
+	 *
+	 * @param name The name of the setting
+	 * @param defaultValue The value to use if the setting is not configured or invalid
+	 * @return The value of the setting
+	 */
+	private long getNumericSetting(String name, long defaultValue) {
+		String setting = getSettingString(name);
+		if (Util.isNotNullOrEmpty(setting)) {
+			try {
+				return Math.max(0L, Long.parseLong(setting.trim()));
+			} catch(NumberFormatException e) {
+				log.warn("Invalid value for the " + name + " setting: " + setting);
+			}
+		}
+		return defaultValue;
+	}
+
+	/**
+	 * Returns the state of each background worker of the logged-in user retained by the
+	 * {@link WorkerRegistry}, including finished workers whose output has not yet been
+	 * evicted. Other users' workers are counted in the 'cacheStats' endpoint, and listed
+	 * only by the administrative 'admin/workers' endpoint.
+	 * @return The worker descriptions
+	 */
+	@GET
+	@Path("workers")
+	@RequiredRight("IDW_SP_RuleRunner")
+	public Response getWorkers() {
+		return handle(() -> WorkerRegistry.getInstance().describe(getLoggedInUserName()));
+	}
+
+	/**
+	 * Returns the owner, state and elapsed time of every background worker retained by the
+	 * {@link WorkerRegistry}, whoever started it. This requires the administrative right,
+	 * which System Administrators hold implicitly. The UUIDs listed here still work only
+	 * for the users who started the rules.
+	 * @return The worker descriptions
+	 */
+	@GET
+	@Path("admin/workers")
+	@RequiredRight(RIGHT_ADMIN)
+	public Response getAllWorkers() {
+		return handle(() -> WorkerRegistry.getInstance().describeAll());
+	}
+
 	@Override
 	public String getPluginName() {
 		return "IDWRuleRunnerPlugin";
@@ -985,35 +1552,33 @@ public class RuleRunnerResource extends BaseCommonPluginResource {
 	}
 
 	/**
-	 * Gets the list of available rule libraries
-	 * @param search A partial search, optionally
-	 * @return The list of available rule libraries
+	 * Gets the list of available rule libraries, meaning rules without a type and rules
+	 * referenced by another rule, from the node-local {@link RuleLibraryIndex}. If a page
+	 * is requested, the total number of matching libraries is returned in the
+	 * {@value #HEADER_TOTAL_COUNT} header.
+	 *
+	 * @param search A case-insensitive name prefix, optionally
+	 * @param start The index of the first library to return, optionally
+	 * @param limit The maximum number of libraries to return, optionally
+	 * @return The list of available rule libraries, sorted by name
 	 */
 	@GET
 	@Path("rl")
 	@RequiredRight("IDW_SP_RuleRunner")
-	public Response getRuleLibraries(@QueryParam("search") String search) {
+	public Response getRuleLibraries(@QueryParam("search") String search, @QueryParam("start") Integer start, @QueryParam("limit") Integer limit) {
 		return handle(() -> {
-			Set<String> ruleLibraries = new HashSet<>();
-			List<Rule> allRules = getContext().getObjects(Rule.class);
-			for(Rule r : allRules) {
-				if (r.getType() == null) {
-					ruleLibraries.add(r.getName());
-				}
-				if (r.getReferencedRules() != null) {
-					for(Rule ref : r.getReferencedRules()) {
-						ruleLibraries.add(ref.getName());
-					}
-				}
-			}
 			List<String> result = new ArrayList<>();
-			for(String option : ruleLibraries) {
-				if (search == null || search.isEmpty() || option.toUpperCase().startsWith(search.toUpperCase())) {
+			for(String option : RuleLibraryIndex.getInstance().getLibraryNames(getContext())) {
+				if (search == null || search.isEmpty() || option.regionMatches(true, 0, search, 0, search.length())) {
 					result.add(option);
 				}
 			}
-			Collections.sort(result);
-			return Response.ok().entity(result).build();
+			if (start == null && limit == null) {
+				return Response.ok().entity(result).build();
+			}
+			int from = Math.min(result.size(), Math.max(0, start == null ? 0 : start));
+			int to = (limit == null || limit <= 0) ? result.size() : Math.min(result.size(), from + limit);
+			return Response.ok().entity(new ArrayList<>(result.subList(from, to))).header(HEADER_TOTAL_COUNT, result.size()).build();
 		});
 	}
 
@@ -1042,6 +1607,38 @@ public class RuleRunnerResource extends BaseCommonPluginResource {
 		});
 	}
 
+	/**
+	 * Gets the names of the rule libraries selected in the editor
+	 *
+	 * @param params The JSON body of the request
+	 * @return The library names, in the order selected
+	 */
+	@SuppressWarnings("unchecked")
+	private static List<String> getSelectedLibraryNames(Map<String, Object> params) {
+		List<String> names = new ArrayList<>();
+		if (params.get(INPUT_LIBRARIES) instanceof List) {
+			for(Map<String, String> library : (List<Map<String, String>>) params.get(INPUT_LIBRARIES)) {
+				String name = library.get(INPUT_LIBRARY_TITLE);
+				if (Util.isNotNullOrEmpty(name)) {
+					names.add(name);
+				}
+			}
+		}
+		return names;
+	}
+
+	/**
+	 * Gets the time an asynchronous rule is given to finish before the run endpoint returns,
+	 * from the syncWindowMillis setting, or {@link #DEFAULT_SYNC_WINDOW_MILLIS} if it is not
+	 * configured or invalid. A value of zero sends every asynchronous rule straight to the
+	 * background.
+	 *
+	 * @return The sync window in milliseconds
+	 */
+	private long getSyncWindowMillis() {
+		return getNumericSetting(SETTING_SYNC_WINDOW_MILLIS, DEFAULT_SYNC_WINDOW_MILLIS);
+	}
+
     /**
      * Handles CSV input if specified in the parameters. This allows users to upload
      * CSV files and iterate through them in code, etc. The CSV data is made available
@@ -1073,45 +1670,73 @@ public class RuleRunnerResource extends BaseCommonPluginResource {
 
             String csvContent = new String(Files.readAllBytes(csvFile.toPath()), StandardCharsets.UTF_8);
             log.info("Processing uploaded CSV file {0} with size {1} bytes", csvFile.getName(), csvFile.length());
-            List<Map<?, String>> csvData = new ArrayList<>();
-            try (BufferedReader reader = new BufferedReader(new StringReader(csvContent))) {
-                RFC4180LineParser lineParser = new RFC4180LineParser(',');
-                RFC4180LineIterator iterator = new RFC4180LineIterator(reader);
-                try {
-                    List<String> headers = null;
+            parseCsvInput(csvContent, csvFile.getName(), csvHasHeader, csvErrorOnShortLines, ruleInputs);
+        }
+    }
+
+	/**
+	 * Returns true if the sync window should adapt to each script's recent durations, as
+	 * recorded by {@link RuleDurationHistory}. This is the default if the adaptiveSyncWindow
+	 * setting is not configured.
+	 *
+	 * @return True if the sync window is adaptive
+	 */
+	private boolean isAdaptiveSyncWindow() {
+		String setting = getSettingString(SETTING_ADAPTIVE_SYNC_WINDOW);
+		return Util.isNullOrEmpty(setting) || Util.otob(setting);
+	}
+
+    /**
+     * Parses the given CSV content into the 'csvData' and 'csvHeaders' rule inputs, as
+     * described in {@link #handleCsvInput(Map, Map)}.
+     *
+     * @param csvContent The CSV content
+     * @param csvName The name of the uploaded file, for error messages
+     * @param csvHasHeader True if the first line of the CSV contains headers
+     * @param csvErrorOnShortLines True if a line with fewer columns than the header is an error
+     * @param ruleInputs The rule inputs map to populate
+     * @throws IOException If an error occurs reading the content
+     * @throws GeneralException If a line cannot be parsed
+     */
+    static void parseCsvInput(String csvContent, String csvName, boolean csvHasHeader, boolean csvErrorOnShortLines, Map<String, Object> ruleInputs) throws IOException, GeneralException {
+        List<Map<?, String>> csvData = new ArrayList<>();
+        try (BufferedReader reader = new BufferedReader(new StringReader(csvContent))) {
+            RFC4180LineParser lineParser = new RFC4180LineParser(',');
+            RFC4180LineIterator iterator = new RFC4180LineIterator(reader);
+            try {
+                List<String> headers = null;
+                if (csvHasHeader) {
+                    String firstLine = iterator.readLine();
+                    if (firstLine == null) {
+                        throw new IllegalArgumentException("Uploaded CSV file is empty: " + csvName);
+                    }
+                    headers = lineParser.parseLine(firstLine);
+                    ruleInputs.put(VAR_CSV_HEADERS, headers);
+                } else {
+                    ruleInputs.put(VAR_CSV_HEADERS, null);
+                }
+                String line;
+                while((line = iterator.readLine()) != null) {
+                    List<String> values = lineParser.parseLine(line);
+                    if (csvErrorOnShortLines && csvHasHeader && values.size() < headers.size()) {
+                        throw new IllegalArgumentException("CSV line has fewer columns (" + values.size() + ") than header (" + headers.size() + "): " + line);
+                    }
+                    Map<Object, String> row = new HashMap<>();
                     if (csvHasHeader) {
-                        String firstLine = iterator.readLine();
-                        if (firstLine == null) {
-                            throw new IllegalArgumentException("Uploaded CSV file is empty: " + csvFile.getName());
+                        for(int i = 0; i < headers.size(); i++) {
+                            String value = (i < values.size()) ? values.get(i) : "";
+                            row.put(headers.get(i), value);
                         }
-                        headers = lineParser.parseLine(firstLine);
-                        ruleInputs.put(VAR_CSV_HEADERS, headers);
                     } else {
-                        ruleInputs.put(VAR_CSV_HEADERS, null);
-                    }
-                    String line;
-                    while((line = iterator.readLine()) != null) {
-                        List<String> values = lineParser.parseLine(line);
-                        if (csvErrorOnShortLines && csvHasHeader && values.size() < headers.size()) {
-                            throw new IllegalArgumentException("CSV line has fewer columns (" + values.size() + ") than header (" + headers.size() + "): " + line);
+                        for(int i = 0; i < values.size(); i++) {
+                            row.put(i, values.get(i));
                         }
-                        Map<Object, String> row = new HashMap<>();
-                        if (csvHasHeader) {
-                            for(int i = 0; i < headers.size(); i++) {
-                                String value = (i < values.size()) ? values.get(i) : "";
-                                row.put(headers.get(i), value);
-                            }
-                        } else {
-                            for(int i = 0; i < values.size(); i++) {
-                                row.put(i, values.get(i));
-                            }
-                        }
-                        csvData.add(row);
                     }
-                    ruleInputs.put(VAR_CSV_DATA, csvData);
-                } finally {
-                    iterator.close();
+                    csvData.add(row);
                 }
+                ruleInputs.put(VAR_CSV_DATA, csvData);
+            } finally {
+                iterator.close();
             }
         }
     }
@@ -1122,51 +1747,38 @@ public class RuleRunnerResource extends BaseCommonPluginResource {
 	public Response parse(Map<String, Object> params) {
 		return handle(() -> {
 			String script = (String) params.get(INPUT_SCRIPT);
-			List<String> librarySources = new ArrayList<>();
-			if (params.get(INPUT_LIBRARIES) instanceof Map) {
-				@SuppressWarnings("unchecked")
-				List<Map<String, String>> libraries = (List<Map<String, String>>) params.get(INPUT_LIBRARIES);
-				if (libraries != null) {
-					for (Map<String, String> lib : libraries) {
-						String libName = lib.get(INPUT_LIBRARY_TITLE);
-						Rule libRule = getContext().getObjectByName(Rule.class, libName);
-						librarySources.add(libRule.getSource());
-					}
-				}
+			// Libraries are compiled separately and cached, so only the script itself is compiled here.
+			// Any library not yet cached is compiled by the check itself, under its timeout and cancellation.
+			BeanshellSyntaxChecker checker = createSyntaxChecker(script, new ArrayList<>(), params);
+			for (RuleLibraryCache.Entry library : RuleLibraryCache.getInstance().getLibraries(getContext(), getSelectedLibraryNames(params)).values()) {
+				checker.addLibrary(library.toRule());
 			}
-			boolean includeWebClasses = Util.otob(params.get(INPUT_INCLUDE_WEB_CLASSES));
-			BeanshellSyntaxChecker checker = new BeanshellSyntaxChecker(script, librarySources, log);
-			checker.addExpectedVariable(VAR_UUID, String.class);
-			checker.addExpectedVariable(VAR_MONITOR, Monitor.class);
-			checker.addExpectedVariable("__worker", SailPointWorker.class);
-			if (includeWebClasses) {
-				checker.addExpectedVariable(VAR_WEB_SERVICE, BasePluginResource.class);
-				checker.addExpectedVariable(VAR_HTTP_REQUEST, HttpServletRequest.class);
-				checker.addExpectedVariable(VAR_HTTP_RESPONSE, HttpServletResponse.class);
-			}
-			boolean isWorkflowRuleLibrary = Util.otob(params.get("isWorkflowRuleLibrary"));
-			if (isWorkflowRuleLibrary) {
-				checker.addExpectedVariable("launcher", String.class);
-				checker.addExpectedVariable("wfcontext", WorkflowContext.class);
-			}
-			checker.setSuppressRawTypeErrors(Util.otob(params.get("suppressRawTypeErrors")));
-			if (params.containsKey(INPUT_VARIABLES) && params.get(INPUT_VARIABLES) instanceof List) {
-				List<Map<String, Object>> variables = (List<Map<String, Object>>) params.get(INPUT_VARIABLES);
-				for(Map<String, Object> variable : variables) {
-					String name = Util.otoa(variable.get("name"));
-					String type = Util.otoa(variable.get("type"));
-					if (Util.isNullOrEmpty(type)) {
-						type = "Object";
-					}
-					checker.addExpectedVariable(name, type);
+
+			// The compilation runs on the bounded lint pool rather than on this request thread
+			LintExecutor.LintTask task;
+			try {
+				task = LintExecutor.getInstance().submit(request.getSession().getId(), checker);
+			} catch(RejectedExecutionException e) {
+				log.warn("Rejecting a syntax check because the syntax check queue is full");
+				return Response.status(Response.Status.SERVICE_UNAVAILABLE).header("Retry-After", "1").entity(Collections.singletonMap("error", "The syntax checker is busy")).build();
+			}
+			try {
+				return task.get(PARSE_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+			} catch(CancellationException e) {
+				// A newer check from this session has replaced this one
+				return Response.status(Response.Status.CONFLICT).entity(Collections.singletonMap("error", "Superseded by a newer syntax check")).build();
+			} catch(TimeoutException e) {
+				task.cancel(false);
+				return Response.status(Response.Status.SERVICE_UNAVAILABLE).header("Retry-After", "1").entity(Collections.singletonMap("error", "The syntax check timed out")).build();
+			} catch(ExecutionException e) {
+				if (e.getCause() instanceof CancellationException) {
+					return Response.status(Response.Status.CONFLICT).entity(Collections.singletonMap("error", "Superseded by a newer syntax check")).build();
 				}
+				if (e.getCause() instanceof Exception) {
+					throw (Exception) e.getCause();
+				}
+				throw e;
 			}
-            String uploadedFilePath = Util.otoa(request.getSession().getAttribute(SESSION_UPLOADED_FILE_PATH));
-            if (Util.isNotNullOrEmpty(uploadedFilePath)) {
-                checker.addExpectedVariable(VAR_CSV_DATA, List.class);
-                checker.addExpectedVariable(VAR_CSV_HEADERS, List.class);
-            }
-			return checker.parse();
 		});
 	}
 
@@ -1209,6 +1821,12 @@ public class RuleRunnerResource extends BaseCommonPluginResource {
 				}
 
 				boolean includeWebClasses = Util.otob(params.get(INPUT_INCLUDE_WEB_CLASSES));
+				boolean compiled = Util.otob(params.get(INPUT_COMPILED));
+
+				LogStreamWrapper.Level logLevel = LogStreamWrapper.Level.Debug;
+				if (Util.isNotNullOrEmpty(Util.otoa(params.get(INPUT_LOG_LEVEL)))) {
+					logLevel = LogStreamWrapper.Level.valueOf(Util.otoa(params.get(INPUT_LOG_LEVEL)));
+				}
 
 				// Abort on bad input as soon as possible
 				if (async && includeWebClasses) {
@@ -1218,24 +1836,32 @@ public class RuleRunnerResource extends BaseCommonPluginResource {
 				Rule fakeRule = new Rule();
 				fakeRule.setLanguage(LANGUAGE_BEANSHELL);
 				fakeRule.setSource(addInterrupts((String) params.get(INPUT_SCRIPT)));
-				fakeRule.setName(FAKE_RULE_PREFIX + System.currentTimeMillis());
-				List<Rule> referencedRules = new ArrayList<Rule>();
-
-				if (params.containsKey(INPUT_LIBRARIES) && params.get(INPUT_LIBRARIES) instanceof List) {
-					for(Map<String, String> library : ((List<Map<String, String>>)params.get(INPUT_LIBRARIES))) {
-						String name = library.get(INPUT_LIBRARY_TITLE);
-						Rule rule = getContext().getObjectByName(Rule.class, name);
-						if (rule != null) {
-							referencedRules.add(rule);
-						}
-					}
+				List<Rule> referencedRules = RuleLibraryCache.getInstance().getRules(getContext(), getSelectedLibraryNames(params));
+				if (!referencedRules.isEmpty()) {
 					fakeRule.setReferencedRules(referencedRules);
 				}
+				fakeRule.setName(fakeRuleName(fakeRule.getSource(), referencedRules));
 
 				if (log.isDebugEnabled()) {
 					log.debug("Rule XML: {0}", fakeRule.toXml());
 				}
 
+				CompiledScript compiledScript = null;
+				if (compiled) {
+					List<String> librarySources = new ArrayList<>();
+					for(Rule library : referencedRules) {
+						librarySources.add(library.getSource());
+					}
+					// The interrupt-augmented script, so that the timeout can stop a busy loop.
+					// The unchecked variant is declared, since the script's methods declare no InterruptedException.
+					BeanshellSyntaxChecker checker = createSyntaxChecker(fakeRule.getSource(), librarySources, params);
+					checker.addExpectedVariable(VAR_INTERRUPTS, RuleInterruptCheck.Unchecked.class);
+					compiledScript = compileForExecution(checker);
+					if (compiledScript == null) {
+						log.warn("The script could not be compiled as Java, or would not behave the same when compiled; falling back to interpreted Beanshell");
+					}
+				}
+
 				Map<String, Object> inputs = new HashMap<>();
 				if (params.get(INPUT_VARIABLES) instanceof List) {
 					Map<String, DynamicValue> variableValuators = new HashMap<>();
@@ -1247,7 +1873,7 @@ public class RuleRunnerResource extends BaseCommonPluginResource {
 					}
 
 					for(String name : variableNames) {
-						if (name.equals(VAR_LOG) || name.equals(VAR_CONTEXT) || name.equals(VAR_MONITOR) || name.equals(VAR_LOG1)) {
+						if (name.equals(VAR_LOG) || name.equals(VAR_CONTEXT) || name.equals(VAR_MONITOR) || name.equals(VAR_LOG1) || name.equals(VAR_INTERRUPTS)) {
 							continue;
 						}
 						DynamicValue dynamicValue = variableValuators.get(name);
@@ -1263,8 +1889,25 @@ public class RuleRunnerResource extends BaseCommonPluginResource {
 
                 handleCsvInput(params, inputs);
 
+				if (compiledScript != null) {
+					List<String> uninjectable = compiledScript.getUninjectableParameters(inputs);
+					if (!uninjectable.isEmpty()) {
+						log.warn("The values of " + uninjectable + " do not match their declared types; falling back to interpreted Beanshell");
+						compiledScript = null;
+					}
+				}
+				final boolean finalCompiled = (compiledScript != null);
+				boolean poolRequested = !finalCompiled && getSettingBool(SETTING_WARM_INTERPRETER_POOL);
+				// Pooled interpreters cannot load classes that plugins export as script packages
+				boolean useInterpreterPool = poolRequested && !PluginClassCache.getInstance().hasExportedClasses();
+				if (poolRequested && !useInterpreterPool) {
+					log.debug("A plugin exports script packages, so the rule will not run on the interpreter pool");
+				}
+
                 String randomCode = UUID.randomUUID().toString();
 
+				response.setCompiled(finalCompiled);
+
 				final boolean finalAsync = async;
 				Utilities.withPrivateContext((privateContext) -> {
 					AuditEvent auditEvent = new AuditEvent();
@@ -1273,9 +1916,14 @@ public class RuleRunnerResource extends BaseCommonPluginResource {
 					auditEvent.setTarget(AUDIT_TARGET);
 					auditEvent.setAttribute(VAR_UUID, randomCode);
 					// TODO - clean up secrets in the source code, particularly .encrypt and .decrypt
-					auditEvent.setAttribute(AUDIT_CODE, fakeRule.getSource());
+					auditEvent.setAttribute(AUDIT_CODE, params.get(INPUT_SCRIPT));
 					auditEvent.setAttribute(AUDIT_LIBRARIES, ObjectUtil.getObjectNames(referencedRules));
+					// The indexed columns let the history endpoint summarize a run without reading its attributes
+					auditEvent.setString1(HistorySummary.hash((String) params.get(INPUT_SCRIPT), ObjectUtil.getObjectNames(referencedRules)));
+					auditEvent.setString2(HistorySummary.firstLine((String) params.get(INPUT_SCRIPT)));
+					auditEvent.setString3(HistorySummary.joinLibraries(ObjectUtil.getObjectNames(referencedRules)));
 					auditEvent.setAttribute(AUDIT_ASYNC, finalAsync);
+					auditEvent.setAttribute(AUDIT_COMPILED, finalCompiled);
 					auditEvent.setAttribute(AUDIT_INCLUDE_WEB_CLASSES, includeWebClasses);
 					auditEvent.setAttribute(AUDIT_INPUT_VARIABLES, inputs.keySet());
 					auditEvent.setAttribute(AUDIT_HOST, Util.getHostName());
@@ -1293,37 +1941,64 @@ public class RuleRunnerResource extends BaseCommonPluginResource {
                 // The actual parameters to the rule, passed as variables
 				Map<String, Object> parameters = new HashMap<>(inputs);
 				parameters.put(VAR_UUID, randomCode);
+				int interruptCheckInterval = (int) Math.max(1L, getNumericSetting(SETTING_INTERRUPT_CHECK_INTERVAL, DEFAULT_INTERRUPT_CHECK_INTERVAL));
+				parameters.put(VAR_INTERRUPTS, finalCompiled ? new RuleInterruptCheck.Unchecked(interruptCheckInterval) : new RuleInterruptCheck(interruptCheckInterval));
 
 				if (async) {
 					final Log log = LogFactory.getLog(RuleRunnerAsyncWorker.class);
-					final LogStreamWrapper wrappedLog = new LogStreamWrapper(log);
+					LogJournal journal = null;
+					if (getSettingBool(SETTING_LOG_JOURNAL)) {
+						try {
+							journal = LogJournal.create(randomCode);
+						} catch(IOException e) {
+							log.warn("Unable to create a log journal in " + System.getProperty("java.io.tmpdir") + "; keeping only the most recent messages", e);
+						}
+					}
+					final LogStreamWrapper wrappedLog = new LogStreamWrapper(log, (int) getNumericSetting(SETTING_LOG_BUFFER_CAPACITY, LogStreamWrapper.DEFAULT_CAPACITY), journal);
 					RuleRunnerAsyncWorker backgroundWorker = new RuleRunnerAsyncWorker(fakeRule, parameters, wrappedLog, getSettingBool("createTaskResult"), getLoggedInUserName());
-					Thread backgroundThread = new Thread(backgroundWorker);
-					backgroundThread.setDaemon(true);
-					backgroundThread.setName(RULE_RUNNER_BACKGROUND_THREAD + backgroundWorker.getKey());
-					if (log.isDebugEnabled()) {
-						log.debug("Starting background thread " + backgroundThread.getName());
+					backgroundWorker.setCompiledScript(compiledScript);
+					backgroundWorker.setUseInterpreterPool(useInterpreterPool);
+
+					String durationKey = Utils.digest((String) params.get(INPUT_SCRIPT), String.valueOf(ObjectUtil.getObjectNames(referencedRules)), String.valueOf(finalCompiled));
+					RuleDurationHistory durationHistory = RuleDurationHistory.getInstance();
+					long syncWindow = getSyncWindowMillis();
+					if (isAdaptiveSyncWindow()) {
+						syncWindow = durationHistory.syncWindowFor(durationKey, syncWindow);
 					}
-					backgroundThread.start();
-					RuleRunnerMonitorThread monitorThread = new RuleRunnerMonitorThread(backgroundThread, backgroundWorker, wrappedLog, ruleTimeout, TimeUnit.MINUTES);
-					monitorThread.start();
-					if (log.isDebugEnabled()) {
-						log.debug("Starting monitor thread " + monitorThread.getName());
+					RuleRunnerExecutor.Lane lane = durationHistory.isLongRunning(durationKey, RuleRunnerExecutor.BATCH_LANE_THRESHOLD_MILLIS) ? RuleRunnerExecutor.Lane.Batch : RuleRunnerExecutor.Lane.Interactive;
+					backgroundWorker.getCompletion().whenComplete((output, error) -> {
+						if (backgroundWorker.getRunningMillis() > 0) {
+							durationHistory.record(durationKey, backgroundWorker.getRunningMillis());
+						}
+					});
+
+					RuleRunnerExecutor executor = RuleRunnerExecutor.getInstance();
+					executor.configure((int) getNumericSetting(SETTING_MAX_CONCURRENT_RULES, RuleRunnerExecutor.MAX_WORKER_THREADS), (int) getNumericSetting(SETTING_MAX_CONCURRENT_RULES_PER_USER, RuleRunnerExecutor.DEFAULT_MAX_CONCURRENT_PER_OWNER));
+					WorkerRegistry.getInstance().register(randomCode, backgroundWorker);
+					executor.submit(backgroundWorker, lane, ruleTimeout, TimeUnit.MINUTES);
+					log.warn("Submitted Rule Runner worker with worker UUID " + randomCode);
+
+					// Wait up to the sync window to allow a synchronous response. This returns as
+					// soon as the rule finishes, and not at all for a script known to be slow.
+					Object result = null;
+					boolean finished;
+					try {
+						if (syncWindow > 0) {
+							result = backgroundWorker.getCompletion().get(syncWindow, TimeUnit.MILLISECONDS);
+							finished = true;
+						} else {
+							finished = backgroundWorker.isDone();
+							if (finished) {
+								result = backgroundWorker.getCompletion().get();
+							}
+						}
+					} catch(TimeoutException e) {
+						finished = false;
 					}
-					backgroundWorker.setMonitorThread(monitorThread);
-
-					backgroundThreads.put(randomCode, backgroundWorker);
-					log.warn("Started Rule Runner worker and monitor threads with worker UUID " + randomCode);
-
-
-					// Up to 3 seconds to allow a synchronous response
-					backgroundThread.join(3000L);
-					if (!backgroundThread.isAlive()) {
+					if (finished) {
 						if (log.isDebugEnabled()) {
-							log.debug("Rule finished within 3 seconds; returning synchronously");
+							log.debug("Rule finished within the sync window of " + syncWindow + " ms; returning synchronously");
 						}
-						// Finished up within the 3 second window
-						Object result = backgroundThreads.get(randomCode).getOutput();
 						response.setAsync(false);
 						response.setOutput(transformResult(result));
 					} else {
@@ -1331,8 +2006,9 @@ public class RuleRunnerResource extends BaseCommonPluginResource {
 					}
 					response.setElapsed(backgroundWorker.getElapsedMillis());
 					response.setUuid(randomCode);
-					response.setLogs(wrappedLog.getMessages(LogStreamWrapper.Level.Debug));
-					response.setStats(backgroundThreads.get(randomCode).taskMonitor.toMap());
+					response.setQueuePosition(executor.getQueuePosition(backgroundWorker));
+					setLogs(response, wrappedLog, logLevel, null);
+					response.setStats(backgroundWorker.taskMonitor.toMap());
 				} else {
 					if (includeWebClasses) {
 						parameters.put(VAR_WEB_SERVICE, this);
@@ -1340,17 +2016,24 @@ public class RuleRunnerResource extends BaseCommonPluginResource {
 						parameters.put(VAR_HTTP_RESPONSE, response);
 					}
 					RuleRunnerTaskMonitor monitor = new RuleRunnerTaskMonitor();
-					LogStreamWrapper wrappedLog = new LogStreamWrapper(log);
+					LogStreamWrapper wrappedLog = new LogStreamWrapper(log, (int) getNumericSetting(SETTING_LOG_BUFFER_CAPACITY, LogStreamWrapper.DEFAULT_CAPACITY));
 					parameters.put(VAR_LOG, wrappedLog);
 					parameters.put(VAR_LOG1, wrappedLog);
 					parameters.put(VAR_LOG2, wrappedLog);
 					parameters.put(VAR_MONITOR, monitor);
-					Object result = getContext().runRule(fakeRule, parameters);
+					Object result;
+					if (compiledScript != null) {
+						result = compiledScript.execute(getContext(), parameters);
+					} else if (useInterpreterPool) {
+						result = InterpreterPool.getInstance().run(getContext(), fakeRule, parameters);
+					} else {
+						result = getContext().runRule(fakeRule, parameters);
+					}
 					response.setStats(new HashMap<>());
 					response.setAsync(false);
 					response.setUuid(randomCode);
 					response.setOutput(transformResult(result));
-					response.setLogs(wrappedLog.getMessages(LogStreamWrapper.Level.Debug));
+					setLogs(response, wrappedLog, logLevel, null);
 				}
 			} catch(Throwable e) {
 				response.setOutput(transformResult(e));
@@ -1418,23 +2101,46 @@ public class RuleRunnerResource extends BaseCommonPluginResource {
 			ruleObject.setLanguage(LANGUAGE_BEANSHELL);
 			ruleObject.setType(parsedType);
 			if (libraries != null) {
-				List<Rule> ruleLibraryList = new ArrayList<>();
-				for(String library : libraries) {
-					Rule ruleLibrary = getContext().getObjectByName(Rule.class, library);
-					if (ruleLibrary != null) {
-						ruleLibraryList.add(ruleLibrary);
+				// The cache resolves the names with one query; only changed references need loading
+				Collection<RuleLibraryCache.Entry> selected = RuleLibraryCache.getInstance().getLibraries(getContext(), libraries).values();
+				List<String> selectedIds = new ArrayList<>();
+				for(RuleLibraryCache.Entry library : selected) {
+					selectedIds.add(library.getId());
+				}
+				List<String> currentIds = new ArrayList<>();
+				if (ruleObject.getReferencedRules() != null) {
+					for(Rule reference : ruleObject.getReferencedRules()) {
+						currentIds.add(reference.getId());
 					}
 				}
-				ruleObject.setReferencedRules(ruleLibraryList);
+				if (!selectedIds.equals(currentIds)) {
+					List<Rule> ruleLibraryList = new ArrayList<>();
+					for(String libraryId : selectedIds) {
+						Rule ruleLibrary = getContext().getObjectById(Rule.class, libraryId);
+						if (ruleLibrary != null) {
+							ruleLibraryList.add(ruleLibrary);
+						}
+					}
+					ruleObject.setReferencedRules(ruleLibraryList);
+				}
 			}
 			getContext().saveObject(ruleObject);
 			getContext().commitTransaction();
+			// The saved rule may itself be a library
+			RuleLibraryCache.getInstance().invalidate(name);
 
 			return getRuleInformation(name);
 		});
 	}
 
-	private Map<String, Object> transformResult(Object result) throws GeneralException {
+	/**
+	 * Transforms the output of a rule into a Map suitable for serializing to the browser
+	 *
+	 * @param result The rule output
+	 * @return The transformed output, with its type and value
+	 * @throws GeneralException if a SailPointObject cannot be serialized to XML
+	 */
+	static Map<String, Object> transformResult(Object result) throws GeneralException {
 		Map<String, Object> resultMap = new HashMap<>();
 		if (result == null) {
 			resultMap.put("isNull", true);
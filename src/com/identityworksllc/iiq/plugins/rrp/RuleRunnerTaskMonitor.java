@@ -27,6 +27,11 @@ public class RuleRunnerTaskMonitor implements Monitor {
     private transient TaskMonitor taskMonitor;
     private final AtomicBoolean terminated;
 
+    /**
+     * Signaled whenever the progress changes, so that a stream watching the rule wakes up
+     */
+    private transient ChangeSignal changes;
+
     public RuleRunnerTaskMonitor() {
         this.completed = new AtomicBoolean();
         this.progressString = new AtomicReference<String>();
@@ -40,6 +45,9 @@ public class RuleRunnerTaskMonitor implements Monitor {
     @Override
     public void completed() {
         completed.set(true);
+        if (this.changes != null) {
+            this.changes.signal();
+        }
     }
 
     public void incrementProgress() {
@@ -65,6 +73,14 @@ public class RuleRunnerTaskMonitor implements Monitor {
         this.async = async;
     }
 
+    /**
+     * Sets the signal to raise whenever the progress changes
+     * @param changes The signal
+     */
+    void setChangeSignal(ChangeSignal changes) {
+        this.changes = changes;
+    }
+
     public void setTaskMonitor(TaskMonitor taskMonitor) {
         this.taskMonitor = taskMonitor;
     }
@@ -74,6 +90,9 @@ public class RuleRunnerTaskMonitor implements Monitor {
     }
 
     private void syncTaskMonitor() {
+        if (this.changes != null) {
+            this.changes.signal();
+        }
         if (this.taskMonitor != null) {
             if (Util.isNotNullOrEmpty(progressString.get())) {
                 this.taskMonitor.updateProgress(progressString.get());
@@ -109,8 +128,8 @@ public class RuleRunnerTaskMonitor implements Monitor {
     }
 
     public void updateProgress(String progressString, int percentComplete) {
-        updateProgress(progressString);
         progressPercent.set(percentComplete);
+        updateProgress(progressString);
     }
 
     @Override
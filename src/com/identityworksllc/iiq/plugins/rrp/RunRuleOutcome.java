@@ -18,6 +18,16 @@ public class RunRuleOutcome extends RestObject {
      */
     private boolean async;
 
+    /**
+     * True if this rule is being executed as compiled Java rather than interpreted Beanshell
+     */
+    private boolean compiled;
+
+    /**
+     * The number of log messages at each level dropped, unread, because the log buffer was full
+     */
+    private Map<String, Long> droppedLogs;
+
     /**
      * The time elapsed since start
      */
@@ -30,14 +40,27 @@ public class RunRuleOutcome extends RestObject {
      * The host on which this rule is being executed
      */
     private String host;
+    /**
+     * True if the full log of this rule is kept in a journal, which can be paged or downloaded
+     */
+    private Boolean journaled;
     /**
      * The latest set of queued logs associated with this rule
      */
     private List<LogMessageVO> logs;
+    /**
+     * The sequence number of the last log message read for this response, which the client
+     * passes back to receive only newer messages
+     */
+    private Long logSequence;
     /**
      * The output of the rule, if it is finished
      */
     private Object output;
+    /**
+     * The 1-based position of the rule in its admission queue, or zero if it is not waiting
+     */
+    private Integer queuePosition;
     /**
      * The stats of the rule
      */
@@ -63,6 +86,10 @@ public class RunRuleOutcome extends RestObject {
         this.timestamp = System.currentTimeMillis();
     }
 
+    public Map<String, Long> getDroppedLogs() {
+        return droppedLogs;
+    }
+
     public Long getElapsed() {
         return this.elapsed;
     }
@@ -71,14 +98,26 @@ public class RunRuleOutcome extends RestObject {
         return host;
     }
 
+    public Boolean getJournaled() {
+        return journaled;
+    }
+
     public List<LogMessageVO> getLogs() {
         return logs;
     }
 
+    public Long getLogSequence() {
+        return logSequence;
+    }
+
     public Object getOutput() {
         return output;
     }
 
+    public Integer getQueuePosition() {
+        return queuePosition;
+    }
+
     public Map<String, Object> getStats() {
         return stats;
     }
@@ -95,6 +134,10 @@ public class RunRuleOutcome extends RestObject {
         return async;
     }
 
+    public boolean isCompiled() {
+        return compiled;
+    }
+
     public boolean isError() {
         return error;
     }
@@ -107,6 +150,14 @@ public class RunRuleOutcome extends RestObject {
         this.async = async;
     }
 
+    public void setCompiled(boolean compiled) {
+        this.compiled = compiled;
+    }
+
+    public void setDroppedLogs(Map<String, Long> droppedLogs) {
+        this.droppedLogs = (droppedLogs == null || droppedLogs.isEmpty()) ? null : droppedLogs;
+    }
+
     public void setElapsed(long elapsed) {
         this.elapsed = elapsed;
     }
@@ -119,14 +170,26 @@ public class RunRuleOutcome extends RestObject {
         this.host = host;
     }
 
+    public void setJournaled(boolean journaled) {
+        this.journaled = journaled ? Boolean.TRUE : null;
+    }
+
     public void setLogs(List<LogMessageVO> logs) {
         this.logs = new ArrayList<>(logs);
     }
 
+    public void setLogSequence(long logSequence) {
+        this.logSequence = logSequence;
+    }
+
     public void setOutput(Object output) {
         this.output = output;
     }
 
+    public void setQueuePosition(int queuePosition) {
+        this.queuePosition = queuePosition;
+    }
+
     public void setStats(Map<String, Object> stats) {
         this.stats = stats;
     }
@@ -5,10 +5,40 @@ import org.apache.commons.logging.LogFactory;
 import sailpoint.tools.Util;
 
 import javax.servlet.http.HttpServletRequest;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 
 public class Utils {
     public static final Log SYSTEM_LOG = LogFactory.getLog("com.identityworksllc.iiq.plugins.rrp.SystemLog");
 
+    /**
+     * Computes a hex-encoded SHA-256 digest of the given parts, which are separated so that
+     * moving text from one part to the next changes the digest
+     *
+     * @param parts The parts to digest
+     * @return The hex-encoded digest
+     */
+    public static String digest(String... parts) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            for(String part : parts) {
+                String value = String.valueOf(part);
+                digest.update(String.valueOf(value.length()).getBytes(StandardCharsets.UTF_8));
+                digest.update((byte) ':');
+                digest.update(value.getBytes(StandardCharsets.UTF_8));
+            }
+            StringBuilder hex = new StringBuilder();
+            for(byte b : digest.digest()) {
+                hex.append(String.format("%02x", b));
+            }
+            return hex.toString();
+        } catch(NoSuchAlgorithmException e) {
+            // Every JVM is required to support SHA-256
+            throw new IllegalStateException(e);
+        }
+    }
+
     /**
      * Gets the remote IP address of the user from the given HttpServletRequest. This can
      * be used in a situation where there is no FacesContext, like in a web service call.
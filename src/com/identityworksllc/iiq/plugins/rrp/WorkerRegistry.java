@@ -0,0 +1,278 @@
+package com.identityworksllc.iiq.plugins.rrp;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import sailpoint.object.SailPointObject;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Predicate;
+
+/**
+ * The registry of asynchronous rule workers, keyed by the UUID returned to the browser,
+ * which the browser uses to poll for updates and to abort the rule.
+ *
+ * Queued and running workers are always retained. Finished workers are retained so that
+ * the browser's next poll can collect their output, but only within bounds: each finished
+ * worker is kept for at most {@link #COMPLETED_TTL_MILLIS}, and the oldest finished workers
+ * are evicted first whenever there are more than {@link #MAX_COMPLETED} of them or their
+ * estimated total size exceeds {@link #MAX_COMPLETED_BYTES}. The limits are enforced when
+ * a worker is registered or finishes, and periodically by the {@link RuleRunnerExecutor}'s
+ * watchdog, so that an idle server still releases expired outputs and log journals.
+ */
+public class WorkerRegistry {
+    /**
+     * The longest a finished worker is retained
+     */
+    public static final long COMPLETED_TTL_MILLIS = TimeUnit.MINUTES.toMillis(30);
+
+    /**
+     * The maximum number of finished workers retained
+     */
+    public static final int MAX_COMPLETED = 100;
+
+    /**
+     * The maximum estimated size of the finished workers retained
+     */
+    public static final long MAX_COMPLETED_BYTES = 64L * 1024 * 1024;
+
+    /**
+     * Singleton instance of the WorkerRegistry
+     */
+    private static final WorkerRegistry INSTANCE = new WorkerRegistry();
+
+    /**
+     * The estimated size of each captured log message not yet retrieved
+     */
+    private static final int ESTIMATED_LOG_MESSAGE_BYTES = 256;
+
+    /**
+     * Logger
+     */
+    private static final Log log = LogFactory.getLog(WorkerRegistry.class);
+
+    /**
+     * Estimates the memory retained by a finished worker, from its output and its
+     * retained log messages. This is deliberately rough; it only needs to keep a
+     * few very large outputs from accumulating.
+     *
+     * @param worker The finished worker
+     * @return The estimated size in bytes
+     */
+    static long estimateSize(RuleRunnerResource.RuleRunnerAsyncWorker worker) {
+        return estimateSize(worker.getOutput(), 0) + (long) worker.getLog().getRetainedMessageCount() * ESTIMATED_LOG_MESSAGE_BYTES;
+    }
+
+    /**
+     * Estimates the memory retained by an output object, descending a few levels into
+     * collections and maps
+     *
+     * @param value The value
+     * @param depth The current depth
+     * @return The estimated size in bytes
+     */
+    private static long estimateSize(Object value, int depth) {
+        if (value == null) {
+            return 0;
+        } else if (value instanceof CharSequence) {
+            return 40 + 2L * ((CharSequence) value).length();
+        } else if (value instanceof SailPointObject) {
+            return 4096;
+        } else if (depth < 3 && value instanceof Collection) {
+            long size = 64;
+            for(Object item : (Collection<?>) value) {
+                size += 16 + estimateSize(item, depth + 1);
+            }
+            return size;
+        } else if (depth < 3 && value instanceof Map) {
+            long size = 64;
+            for(Map.Entry<?, ?> entry : ((Map<?, ?>) value).entrySet()) {
+                size += 32 + estimateSize(entry.getKey(), depth + 1) + estimateSize(entry.getValue(), depth + 1);
+            }
+            return size;
+        } else if (value instanceof Collection) {
+            return 64 + 64L * ((Collection<?>) value).size();
+        } else if (value instanceof Map) {
+            return 64 + 128L * ((Map<?, ?>) value).size();
+        } else {
+            return 64;
+        }
+    }
+
+    /**
+     * Gets the singleton instance of the WorkerRegistry
+     * @return the singleton instance of the WorkerRegistry
+     */
+    public static WorkerRegistry getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * The estimated size of each finished worker, computed once when it finishes
+     */
+    private final ConcurrentMap<String, Long> completedSizes;
+
+    /**
+     * The number of finished workers evicted
+     */
+    private final AtomicLong evictions;
+
+    /**
+     * The registered workers, keyed by UUID
+     */
+    private final ConcurrentMap<String, RuleRunnerResource.RuleRunnerAsyncWorker> workers;
+
+    /**
+     * Private constructor to enforce singleton pattern
+     */
+    private WorkerRegistry() {
+        this.workers = new ConcurrentHashMap<>();
+        this.completedSizes = new ConcurrentHashMap<>();
+        this.evictions = new AtomicLong();
+    }
+
+    /**
+     * Describes each registered worker started by the given identity. The UUID grants
+     * access to the worker's logs and output, so other identities' workers are never listed.
+     *
+     * @param owner The name of the identity whose workers are described
+     * @return A description of each worker, live workers first, then most recently submitted
+     */
+    public List<Map<String, Object>> describe(String owner) {
+        if (owner == null) {
+            return new ArrayList<>();
+        }
+        return describe(worker -> owner.equals(worker.getOwnerIdentity()));
+    }
+
+    /**
+     * Describes every registered worker, whoever started it, for administrators
+     *
+     * @return A description of each worker, live workers first, then most recently submitted
+     */
+    public List<Map<String, Object>> describeAll() {
+        return describe(worker -> true);
+    }
+
+    /**
+     * Describes each registered worker matching the given filter
+     *
+     * @param filter The filter
+     * @return A description of each worker, live workers first, then most recently submitted
+     */
+    private List<Map<String, Object>> describe(Predicate<RuleRunnerResource.RuleRunnerAsyncWorker> filter) {
+        List<Map<String, Object>> descriptions = new ArrayList<>();
+        for(Map.Entry<String, RuleRunnerResource.RuleRunnerAsyncWorker> entry : workers.entrySet()) {
+            RuleRunnerResource.RuleRunnerAsyncWorker worker = entry.getValue();
+            if (!filter.test(worker)) {
+                continue;
+            }
+            Map<String, Object> description = new TreeMap<>();
+            description.put("uuid", entry.getKey());
+            description.put("owner", worker.getOwnerIdentity());
+            description.put("state", worker.getState().name());
+            description.put("submitted", worker.getSubmittedTimestamp());
+            description.put("elapsed", worker.getElapsedMillis());
+            if (worker.isDone()) {
+                description.put("completed", worker.getCompletedTimestamp());
+                description.put("estimatedSize", completedSizes.get(entry.getKey()));
+            }
+            descriptions.add(description);
+        }
+        descriptions.sort(Comparator.<Map<String, Object>, Boolean>comparing(d -> d.containsKey("completed"))
+                .thenComparing(d -> (Long) d.get("submitted"), Comparator.reverseOrder()));
+        return descriptions;
+    }
+
+    /**
+     * Evicts finished workers that have outlived their TTL, and then the oldest finished
+     * workers until the count and size limits are met
+     */
+    public synchronized void evict() {
+        long now = System.currentTimeMillis();
+        List<Map.Entry<String, RuleRunnerResource.RuleRunnerAsyncWorker>> completed = new ArrayList<>();
+        for(Map.Entry<String, RuleRunnerResource.RuleRunnerAsyncWorker> entry : workers.entrySet()) {
+            if (entry.getValue().isDone()) {
+                completed.add(entry);
+            }
+        }
+        completed.sort(Comparator.comparingLong(entry -> entry.getValue().getCompletedTimestamp()));
+
+        long totalSize = 0;
+        for(Map.Entry<String, RuleRunnerResource.RuleRunnerAsyncWorker> entry : completed) {
+            totalSize += completedSizes.computeIfAbsent(entry.getKey(), uuid -> estimateSize(entry.getValue()));
+        }
+
+        int remaining = completed.size();
+        for(Map.Entry<String, RuleRunnerResource.RuleRunnerAsyncWorker> entry : completed) {
+            boolean expired = (now - entry.getValue().getCompletedTimestamp()) > COMPLETED_TTL_MILLIS;
+            if (!expired && remaining <= MAX_COMPLETED && totalSize <= MAX_COMPLETED_BYTES) {
+                break;
+            }
+            Long size = completedSizes.remove(entry.getKey());
+            workers.remove(entry.getKey(), entry.getValue());
+            LogJournal journal = entry.getValue().getLog().getJournal();
+            if (journal != null) {
+                journal.delete();
+            }
+            totalSize -= (size == null ? 0 : size);
+            remaining--;
+            evictions.incrementAndGet();
+            if (log.isDebugEnabled()) {
+                log.debug("Evicted finished worker " + entry.getKey() + (expired ? " after its TTL" : " to stay within the retention limits"));
+            }
+        }
+    }
+
+    /**
+     * Gets the registered worker with the given UUID
+     *
+     * @param uuid The UUID of the worker
+     * @return The worker, or null if it was never registered or has been evicted
+     */
+    public RuleRunnerResource.RuleRunnerAsyncWorker get(String uuid) {
+        return workers.get(uuid);
+    }
+
+    /**
+     * Gets the counts of workers in each state, for display to administrators
+     * @return The statistics, keyed by name
+     */
+    public Map<String, Object> getStatistics() {
+        Map<String, Object> stats = new TreeMap<>();
+        for(RuleRunnerResource.RuleRunnerAsyncWorker.State state : RuleRunnerResource.RuleRunnerAsyncWorker.State.values()) {
+            stats.put(state.name().toLowerCase(), 0);
+        }
+        for(RuleRunnerResource.RuleRunnerAsyncWorker worker : workers.values()) {
+            stats.merge(worker.getState().name().toLowerCase(), 1, (a, b) -> (Integer) a + (Integer) b);
+        }
+        long completedBytes = 0;
+        for(Long size : completedSizes.values()) {
+            completedBytes += size;
+        }
+        stats.put("completedBytes", completedBytes);
+        stats.put("evictions", evictions.get());
+        return stats;
+    }
+
+    /**
+     * Registers the given worker, and arranges for the retention limits to be enforced
+     * when it finishes
+     *
+     * @param uuid The UUID of the worker
+     * @param worker The worker
+     */
+    public void register(String uuid, RuleRunnerResource.RuleRunnerAsyncWorker worker) {
+        workers.put(uuid, worker);
+        worker.getCompletion().whenComplete((output, error) -> evict());
+        evict();
+    }
+}
@@ -0,0 +1,85 @@
+package com.identityworksllc.iiq.plugins.rrp;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Tests for {@link BeanshellLexer}
+ */
+class BeanshellLexerTest {
+
+	private static List<BeanshellLexer.LogicalLine> lines(String source) {
+		return new BeanshellLexer(source).toLogicalLines();
+	}
+
+	@Test
+	void bracesInLiteralsAndCommentsAreIgnored() {
+		List<BeanshellLexer.LogicalLine> result = lines("String s = \"{(\"; char c = '}'; /* { */ // (\n");
+		assertEquals(0, result.get(0).getBraceDelta());
+		assertEquals(0, result.get(0).getParenDelta());
+		assertFalse(result.get(0).isComplex());
+	}
+
+	@Test
+	void escapedQuoteDoesNotEndString() {
+		List<BeanshellLexer.Token> tokens = new BeanshellLexer("x = \"a\\\"{\";").tokenize();
+		BeanshellLexer.Token literal = tokens.get(4);
+		assertEquals(BeanshellLexer.TokenType.StringLiteral, literal.getType());
+		assertEquals("\"a\\\"{\"", literal.getText());
+	}
+
+	@Test
+	void unterminatedStringEndsAtLineBreak() {
+		List<BeanshellLexer.LogicalLine> result = lines("s = \"abc\nif (x) {");
+		assertEquals(2, result.size());
+		assertEquals(1, result.get(1).getOriginalLine());
+		assertEquals(1, result.get(1).getBraceDelta());
+	}
+
+	@Test
+	void openParenthesesJoinPhysicalLines() {
+		List<BeanshellLexer.LogicalLine> result = lines("foo(a, // first\n  b);\nx = 1;");
+		assertEquals(2, result.size());
+		assertEquals("foo(a,   b);", result.get(0).getText());
+		assertEquals(0, result.get(0).getParenDelta());
+		assertEquals(2, result.get(1).getOriginalLine());
+	}
+
+	@Test
+	void multiLineBlockCommentEndsLogicalLine() {
+		List<BeanshellLexer.LogicalLine> result = lines("/* a\n b */ x = 1;\ny = 2;");
+		assertEquals(3, result.size());
+		assertTrue(result.get(0).isCommentOnly());
+		assertEquals(1, result.get(1).getOriginalLine());
+		assertEquals(" x = 1;", result.get(1).getText());
+		assertEquals(2, result.get(2).getOriginalLine());
+	}
+
+	@Test
+	void methodStartWithThrowsClause() {
+		assertTrue(lines("void run() throws Exception, java.io.IOException {").get(0).isMethodStart());
+		assertTrue(lines("List<String> names(int a) {").get(0).isMethodStart());
+		assertFalse(lines("if (x) {").get(0).isMethodStart());
+		assertFalse(lines("x = new Foo() {").get(0).isMethodStart());
+		assertFalse(lines("void run();").get(0).isMethodStart());
+	}
+
+	@Test
+	void simpleDeclarations() {
+		assertTrue(lines("String x;").get(0).isSimpleDeclaration());
+		assertTrue(lines("static int y = 5;").get(0).isSimpleDeclaration());
+		assertFalse(lines("y = 5;").get(0).isSimpleDeclaration());
+		assertFalse(lines("int y = 5").get(0).isSimpleDeclaration());
+	}
+
+	@Test
+	void strayCloseParenDoesNotJoinRemainingLines() {
+		List<BeanshellLexer.LogicalLine> result = lines("x);\ny = 1;\nz = 2;");
+		assertEquals(3, result.size());
+	}
+}
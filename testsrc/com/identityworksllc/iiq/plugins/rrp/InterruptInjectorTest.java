@@ -0,0 +1,74 @@
+package com.identityworksllc.iiq.plugins.rrp;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Tests for {@link InterruptInjector}
+ */
+class InterruptInjectorTest {
+
+	@Test
+	void bracedLoopBodies() {
+		assertEquals("while (x) { __interrupts.loop(); \n  x = next();\n}",
+				InterruptInjector.inject("while (x) {\n  x = next();\n}"));
+		assertEquals("for (String s : list) { __interrupts.loop();  print(s); }",
+				InterruptInjector.inject("for (String s : list) { print(s); }"));
+	}
+
+	@Test
+	void bracelessWhileLoop() {
+		assertEquals("while (__interrupts.loop() && (i < 10)) i++;",
+				InterruptInjector.inject("while (i < 10) i++;"));
+	}
+
+	@Test
+	void bracelessForLoop() {
+		assertEquals("for (int i = 0; __interrupts.loop() && ( i < 10); i++) sum += i;",
+				InterruptInjector.inject("for (int i = 0; i < 10; i++) sum += i;"));
+		assertEquals("for (int i = 0; __interrupts.loop()  ; i++) sum += i;",
+				InterruptInjector.inject("for (int i = 0; ; i++) sum += i;"));
+	}
+
+	@Test
+	void bracelessEnhancedForAndEmptyBodiesAreLeftAlone() {
+		assertEquals("for (String s : list) print(s);", InterruptInjector.inject("for (String s : list) print(s);"));
+		assertEquals("while (busy());", InterruptInjector.inject("while (busy());"));
+	}
+
+	@Test
+	void doWhileChecksBodyButNotTrailingWhile() {
+		assertEquals("do { __interrupts.loop(); \n  i++;\n} while (i < 10);",
+				InterruptInjector.inject("do {\n  i++;\n} while (i < 10);"));
+		assertEquals("do { __interrupts.loop();  if (x) { y(); } } while (z) ;",
+				InterruptInjector.inject("do { if (x) { y(); } } while (z) ;"));
+	}
+
+	@Test
+	void methodEntryAfterThrowsClause() {
+		assertEquals("void run() throws Exception, java.io.IOException { __interrupts.check(); \n  work();\n}",
+				InterruptInjector.inject("void run() throws Exception, java.io.IOException {\n  work();\n}"));
+		assertEquals("count(n) { __interrupts.check();  return n; }",
+				InterruptInjector.inject("count(n) { return n; }"));
+	}
+
+	@Test
+	void callsAndConditionalsAreLeftAlone() {
+		String script = "if (x) { y(); }\nfoo.bar(1);\nx = new Foo();";
+		assertEquals(script, InterruptInjector.inject(script));
+	}
+
+	@Test
+	void bracesInLiteralsAndCommentsAreIgnored() {
+		String script = "String s = \"while (x) {\"; char c = '{'; // for (;;) {\n/* do { */ x = 1;";
+		assertEquals(script, InterruptInjector.inject(script));
+	}
+
+	@Test
+	void lineNumbersArePreserved() {
+		String script = "for (i = 0;\n i < 3;\n i++)\n  print(i);\nvoid f() {\n}\n";
+		String injected = InterruptInjector.inject(script);
+		assertEquals(script.split("\n", -1).length, injected.split("\n", -1).length);
+	}
+}
@@ -0,0 +1,125 @@
+package com.identityworksllc.iiq.plugins.rrp;
+
+import org.apache.commons.logging.impl.NoOpLog;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Tests for {@link LogJournal}
+ */
+class LogJournalTest {
+
+    /**
+     * Logs the given number of messages through a wrapper writing to the journal
+     */
+    private static void log(LogJournal journal, int count) {
+        LogStreamWrapper log = new LogStreamWrapper(new NoOpLog(), 16, journal);
+        for(int i = 0; i < count; i++) {
+            if (i % 10 == 0) {
+                log.warn("message " + i);
+            } else {
+                log.info("message " + i);
+            }
+        }
+    }
+
+    @Test
+    void pagesThroughEveryRecord() throws Exception {
+        LogJournal journal = LogJournal.create("test");
+        try {
+            log(journal, 150);
+            LogJournal.Page first = journal.read(0, 100, null);
+            assertEquals(100, first.getMessages().size());
+            assertEquals(0, first.getMessages().get(0).getSequence());
+            assertEquals("message 99", first.getMessages().get(99).getMessage());
+
+            LogJournal.Page second = journal.read(first.getNextOffset(), 100, null);
+            assertEquals(50, second.getMessages().size());
+            assertEquals(100, second.getMessages().get(0).getSequence());
+            assertEquals(second.getSize(), second.getNextOffset());
+            assertEquals(150, journal.getRecordCount());
+
+            LogJournal.Page end = journal.read(second.getNextOffset(), 100, null);
+            assertEquals(0, end.getMessages().size());
+            assertEquals(second.getNextOffset(), end.getNextOffset());
+        } finally {
+            journal.delete();
+        }
+    }
+
+    @Test
+    void levelFilterSkipsRecordsButAdvancesTheOffset() throws Exception {
+        LogJournal journal = LogJournal.create("test");
+        try {
+            log(journal, 30);
+            LogJournal.Page page = journal.read(0, 30, LogStreamWrapper.Level.Warn);
+            assertEquals(3, page.getMessages().size());
+            assertEquals("message 20", page.getMessages().get(2).getMessage());
+            assertEquals(page.getSize(), page.getNextOffset());
+        } finally {
+            journal.delete();
+        }
+    }
+
+    @Test
+    void rejectsOffsetsInsideRecords() throws Exception {
+        LogJournal journal = LogJournal.create("test");
+        try {
+            log(journal, 150);
+            long offset = journal.read(0, 1, null).getNextOffset();
+            assertThrows(IllegalArgumentException.class, () -> journal.read(offset - 1, 10, null));
+            assertThrows(IllegalArgumentException.class, () -> journal.read(offset + 5, 10, null));
+
+            // Past the first indexed offset, the records are walked from the nearest checkpoint
+            long later = journal.read(0, 70, null).getNextOffset();
+            assertEquals(70, journal.read(later, 1, null).getMessages().get(0).getSequence());
+            assertThrows(IllegalArgumentException.class, () -> journal.read(later + 3, 10, null));
+        } finally {
+            journal.delete();
+        }
+    }
+
+    @Test
+    void rejectsOffsetsOutsideTheJournal() throws Exception {
+        LogJournal journal = LogJournal.create("test");
+        try {
+            log(journal, 5);
+            long size = journal.read(0, 10, null).getSize();
+            assertThrows(IllegalArgumentException.class, () -> journal.read(-1, 10, null));
+            assertThrows(IllegalArgumentException.class, () -> journal.read(size + 1, 10, null));
+        } finally {
+            journal.delete();
+        }
+    }
+
+    @Test
+    void exportsEveryRecordAsText() throws Exception {
+        LogJournal journal = LogJournal.create("test");
+        try {
+            log(journal, 3);
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            journal.export().writeTo(out);
+            String[] lines = out.toString(StandardCharsets.UTF_8.name()).split("\n");
+            assertEquals(3, lines.length);
+            assertTrue(lines[0].endsWith(" WARN  message 0"), lines[0]);
+            assertTrue(lines[2].endsWith(" INFO  message 2"), lines[2]);
+        } finally {
+            journal.delete();
+        }
+    }
+
+    @Test
+    void readsFailOnceDeleted() throws Exception {
+        LogJournal journal = LogJournal.create("test");
+        log(journal, 5);
+        journal.delete();
+        assertThrows(LogJournal.DeletedException.class, () -> journal.read(0, 10, null));
+        assertThrows(LogJournal.DeletedException.class, journal::export);
+    }
+}
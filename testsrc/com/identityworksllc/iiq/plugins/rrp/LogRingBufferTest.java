@@ -0,0 +1,106 @@
+package com.identityworksllc.iiq.plugins.rrp;
+
+import org.apache.commons.logging.impl.NoOpLog;
+import org.junit.jupiter.api.Test;
+
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Tests for {@link LogRingBuffer}, through the {@link LogStreamWrapper} that owns it
+ */
+class LogRingBufferTest {
+
+    private static LogStreamWrapper wrapper(int capacity) {
+        return new LogStreamWrapper(new NoOpLog(), capacity);
+    }
+
+    @Test
+    void capacityIsRoundedUpToAPowerOfTwo() {
+        LogStreamWrapper log = wrapper(20);
+        for(int i = 0; i < 40; i++) {
+            log.info("message " + i);
+        }
+        assertEquals(32, log.getRetainedMessageCount());
+        assertEquals(32, log.getPendingMessageCount());
+    }
+
+    @Test
+    void overflowDropsOldestUnreadMessagesAndCountsThemByLevel() {
+        LogStreamWrapper log = wrapper(16);
+        for(int i = 0; i < 4; i++) {
+            log.warn("warn " + i);
+        }
+        for(int i = 0; i < 16; i++) {
+            log.info("info " + i);
+        }
+        assertEquals(16, log.getRetainedMessageCount());
+        assertEquals(Collections.singletonMap("Warn", 4L), log.getDroppedMessageCounts());
+
+        LogStreamWrapper.MessageBatch batch = log.getMessagesAfter(null, -1);
+        List<LogMessageVO> messages = batch.getMessages();
+        assertEquals(16, messages.size());
+        assertEquals(4, messages.get(0).getSequence());
+        assertEquals("info 0", messages.get(0).getMessage());
+        assertEquals(19, batch.getLastSequence());
+        assertEquals(0, log.getPendingMessageCount());
+    }
+
+    @Test
+    void deliveredMessagesAreNotCountedAsDropped() {
+        LogStreamWrapper log = wrapper(16);
+        for(int i = 0; i < 16; i++) {
+            log.debug("first " + i);
+        }
+        log.getMessagesAfter(null, -1);
+        for(int i = 0; i < 16; i++) {
+            log.debug("second " + i);
+        }
+        assertEquals(Collections.emptyMap(), log.getDroppedMessageCounts());
+        assertEquals(16, log.getPendingMessageCount());
+    }
+
+    @Test
+    void resumesAfterSequenceNumber() {
+        LogStreamWrapper log = wrapper(16);
+        for(int i = 0; i < 10; i++) {
+            log.info("message " + i);
+        }
+        LogStreamWrapper.MessageBatch batch = log.getMessagesAfter(null, 6);
+        assertEquals(3, batch.getMessages().size());
+        assertEquals(7, batch.getMessages().get(0).getSequence());
+        assertEquals(9, batch.getLastSequence());
+
+        // Reading again from the same position, as a second client would, returns the same messages
+        assertEquals(3, log.getMessagesAfter(null, 6).getMessages().size());
+        assertEquals(0, log.getMessagesAfter(null, 9).getMessages().size());
+        assertEquals(9, log.getMessagesAfter(null, 9).getLastSequence());
+    }
+
+    @Test
+    void resumingFromAnOverwrittenSequenceSkipsToTheOldestRetained() {
+        LogStreamWrapper log = wrapper(16);
+        for(int i = 0; i < 40; i++) {
+            log.info("message " + i);
+        }
+        LogStreamWrapper.MessageBatch batch = log.getMessagesAfter(null, 5);
+        assertEquals(16, batch.getMessages().size());
+        assertEquals(24, batch.getMessages().get(0).getSequence());
+        assertEquals(39, batch.getLastSequence());
+    }
+
+    @Test
+    void levelFilterStillAdvancesTheSequence() {
+        LogStreamWrapper log = wrapper(16);
+        log.debug("debug");
+        log.error("error");
+        log.trace("trace");
+        LogStreamWrapper.MessageBatch batch = log.getMessagesAfter(LogStreamWrapper.Level.Info, -1);
+        assertEquals(1, batch.getMessages().size());
+        assertEquals("error", batch.getMessages().get(0).getMessage());
+        assertEquals(2, batch.getLastSequence());
+        assertEquals(2, log.getDeliveredSequence());
+    }
+}
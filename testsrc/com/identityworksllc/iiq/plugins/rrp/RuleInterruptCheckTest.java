@@ -0,0 +1,50 @@
+package com.identityworksllc.iiq.plugins.rrp;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CancellationException;
+
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Tests for {@link RuleInterruptCheck}
+ */
+class RuleInterruptCheckTest {
+
+	@Test
+	void loopChecksOnlyEveryNthIteration() throws Exception {
+		RuleInterruptCheck check = new RuleInterruptCheck(3);
+		Thread.currentThread().interrupt();
+		try {
+			assertTrue(check.loop());
+			assertTrue(check.loop());
+			assertThrows(InterruptedException.class, check::loop);
+		} finally {
+			Thread.interrupted();
+		}
+	}
+
+	@Test
+	void methodCheckAlwaysTestsTheFlag() throws Exception {
+		RuleInterruptCheck check = new RuleInterruptCheck(100);
+		check.check();
+		Thread.currentThread().interrupt();
+		try {
+			assertThrows(InterruptedException.class, check::check);
+		} finally {
+			Thread.interrupted();
+		}
+	}
+
+	@Test
+	void uncheckedVariantThrowsCancellation() {
+		RuleInterruptCheck check = new RuleInterruptCheck.Unchecked(1);
+		Thread.currentThread().interrupt();
+		try {
+			assertThrows(CancellationException.class, check::loop);
+		} finally {
+			Thread.interrupted();
+		}
+	}
+}
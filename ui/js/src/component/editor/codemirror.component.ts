@@ -111,6 +111,8 @@ export class CodeMirrorComponent {
             updateLinting(found, this.cm);
 
             this.eventBus.publish(EventType.EDITOR_LINTING_COMPLETE, errorObject);
+        }).catch(() => {
+            // Superseded (409) or busy (503) checks leave the previous lint results in place
         });
     }
 
@@ -50,6 +50,17 @@ export class OutputComponent {
         })
     }
 
+    /**
+     * @return The URL to download the full log of the running rule, or null if its log is not journaled
+     */
+    getLogDownloadUrl(): string | null {
+        const runningRule = this.state.lastUpdateObject;
+        if (!runningRule || !runningRule.journaled || !runningRule.uuid) {
+            return null;
+        }
+        return PluginHelper.getPluginRestUrl('IDWRuleRunnerPlugin/asyncLog/download') + "?uuid=" + encodeURIComponent(runningRule.uuid);
+    }
+
     private start() {
         this.state.reset();
         this.refresh();
@@ -39,6 +39,11 @@ export interface EditorState {
      */
     async: boolean;
 
+    /**
+     * If true, the script will be compiled and executed as Java when possible
+     */
+    compiled?: boolean;
+
     /**
      * The state of the checkbox indicating that we should lint with workflow variables included
      */
@@ -76,6 +81,7 @@ export function defaultEditorState(): EditorState {
         loadedRule: null,
         timeout: 10,
         async: true,
+        compiled: false,
         isWorkflowRuleLibrary: false,
         suppressRawTypeErrors: false,
         includeWebClasses: false,
@@ -83,6 +83,14 @@ export class RunningRule {
 
     public elapsed: number;
 
+    public queuePosition: number;
+
+    public droppedLogs: {[level: string]: number};
+
+    public logSequence: number;
+
+    public journaled: boolean;
+
     public output: RuleOutput;
 
     constructor(json: any) {
@@ -116,6 +124,26 @@ export class RunningRule {
          */
         this.elapsed = Math.floor((json.elapsed ?? -1) / 1000.0 );
 
+        /**
+         * @type {number} The position in the server's admission queue, or zero if the rule is not waiting
+         */
+        this.queuePosition = json.queuePosition ?? 0;
+
+        /**
+         * @type {Object} The number of log messages at each level dropped by the server because its buffer was full
+         */
+        this.droppedLogs = json.droppedLogs ?? {};
+
+        /**
+         * @type {number} The sequence number of the last log message received, to resume from on the next update
+         */
+        this.logSequence = json.logSequence ?? -1;
+
+        /**
+         * @type {boolean} True if the server keeps the full log in a journal, which can be downloaded
+         */
+        this.journaled = (json.journaled === true);
+
         /**
          * @type {RuleOutput}
          */
@@ -143,6 +171,13 @@ export class RunningRule {
         return (this.async === true || this.async === "true")
     }
 
+    /**
+     * @return The total number of log messages dropped by the server, at any level
+     */
+    getDroppedLogCount(): number {
+        return Object.values(this.droppedLogs).reduce((total, count) => total + count, 0);
+    }
+
     /**
      * @return {boolean} True if the running rule is done
      */
@@ -34,6 +34,34 @@ function stateMatches(state1: EditorState, state2: EditorState) {
     return (state1.source === state2.source && JSON.stringify(state1.libraries.sort()) === JSON.stringify(state2.libraries.sort()));
 }
 
+/**
+ * Computes the same hash of a script and its libraries that the server writes to each history
+ * summary (see HistorySummary.hash), so that the browser can tell which summaries are runs of
+ * scripts it already has. Each part is prefixed by its length in UTF-16 units and a colon.
+ *
+ * @param source The script
+ * @param libraries The names of the selected libraries
+ * @return The hex-encoded SHA-256 hash, or null if the browser cannot compute it (e.g., over plain HTTP)
+ */
+async function historyHash(source: string, libraries: string[]): Promise<string | null> {
+    if (!window.crypto?.subtle) {
+        return null
+    }
+    let encoder = new TextEncoder()
+    let chunks: Uint8Array[] = []
+    for (let part of [source, [...libraries].sort().join("\n")]) {
+        chunks.push(encoder.encode(part.length + ":"), encoder.encode(part))
+    }
+    let bytes = new Uint8Array(chunks.reduce((total, chunk) => total + chunk.length, 0))
+    let offset = 0
+    for (let chunk of chunks) {
+        bytes.set(chunk, offset)
+        offset += chunk.length
+    }
+    let digest = new Uint8Array(await window.crypto.subtle.digest("SHA-256", bytes))
+    return Array.from(digest, (b) => b.toString(16).padStart(2, "0")).join("")
+}
+
 /**
  * The key in localStorage where we store the execution history list
  */
@@ -44,6 +72,26 @@ const EXECUTION_HISTORY_ENTRY = "idw.rulerunner.executionhistory";
  */
 const LAST_SOURCE_ENTRY = "idw.rulerunner.last";
 
+/**
+ * The key in localStorage where we store the timestamp of the newest server history entry loaded
+ */
+const HISTORY_CURSOR_ENTRY = "idw.rulerunner.historycursor";
+
+/**
+ * The key in localStorage where we store the IDs of the server history entries at the cursor's timestamp
+ */
+const HISTORY_CURSOR_IDS_ENTRY = "idw.rulerunner.historycursorids";
+
+/**
+ * The number of history summaries requested from the server at a time
+ */
+const SERVER_HISTORY_PAGE_SIZE = 100;
+
+/**
+ * The most history entries loaded from the server in one bootstrap
+ */
+const MAX_SERVER_HISTORY_ENTRIES = 500;
+
 /**
  * The default value of the execution history if nothing is found
  */
@@ -95,55 +143,146 @@ export class RuleHistoryService {
         }
     }
     
+    /**
+     * Loads the server history newer than the newest entry already loaded, and merges it
+     * into the stored history. Only the newest run of each script is merged. A summary whose
+     * hash matches a stored entry just moves that entry to its timestamp; the full entries
+     * for the rest of each page, including summaries without a hash, are fetched in a single
+     * request.
+     */
     async loadServerHistory() {
         let history = await this.getOrBootstrapExecutionHistory(false)
         
-        return this.ruleRunnerService.getMyHistory().then((json) => {
-            
-            for (let row of json) {
-                let date = row.timestamp ? new Date(row.timestamp) : new Date();
-                let libraries: string[] = row.libraries || []
-                
-                let execution: EditorState = {
-                    timestamp: date.getTime(),
-                    date: date.toISOString(),
-                    source: row.source || "",
-                    libraries: libraries.map((item) => {
-                        return {title: item}
-                    }),
-                    loadedRule: null,
-                    timeout: 10,
-                    includeWebClasses: row.includeWebClasses || false,
-                    suppressRawTypeErrors: false,
-                    isWorkflowRuleLibrary: false,
-                    async: true
+        let since = (await this.browserStorageService.getItem(HISTORY_CURSOR_ENTRY) as number) ?? undefined
+        if (since === undefined && history.length > 0) {
+            since = Math.max(...history.map((item) => item.timestamp || 0))
+        }
+        // The server returns the entries at the cursor's timestamp again, so skip those already loaded
+        let cursorIds: string[] = JSON.parse((await this.browserStorageService.getItem(HISTORY_CURSOR_IDS_ENTRY) as string) || EMPTY_HISTORY_STRING)
+        
+        // The stored entries by hash, so that runs of scripts already held are not fetched again
+        let stored = new Map<string, EditorState>()
+        for (let item of history) {
+            let hash = await historyHash(item.source || "", (item.libraries || []).map((library) => library.title))
+            if (hash !== null) {
+                stored.set(hash, item)
+            }
+        }
+        
+        // Page backward through the summaries, which arrive newest first, by timestamp and then ID
+        let executions: Array<EditorState | null> = []
+        let seenHashes = new Set<string>()
+        let scanned = 0
+        let newestTimestamp: number | undefined = undefined
+        let newestIds: string[] = []
+        let before: number | undefined = undefined
+        let beforeId: string | undefined = undefined
+        while (scanned < MAX_SERVER_HISTORY_ENTRIES) {
+            let page = await this.ruleRunnerService.getMyHistory(since, before, beforeId, SERVER_HISTORY_PAGE_SIZE)
+            scanned += page.length
+            // Holds each new run's place, until its full entry is fetched
+            let pending = new Map<string, number>()
+            for (let summary of page) {
+                if (newestTimestamp === undefined) {
+                    newestTimestamp = summary.timestamp
+                }
+                if (summary.timestamp === newestTimestamp) {
+                    newestIds.push(summary.id)
+                }
+                if (summary.timestamp === since && cursorIds.indexOf(summary.id) >= 0) {
+                    continue
                 }
-                
-                this.removeMatchingHistoryEntries(history, execution);
-                
-                history.push(execution)
+                if (summary.hash) {
+                    if (seenHashes.has(summary.hash)) {
+                        // An older run of a script whose newest run is already merged
+                        continue
+                    }
+                    seenHashes.add(summary.hash)
+                    let match = stored.get(summary.hash)
+                    if (match) {
+                        if (summary.timestamp > (match.timestamp || 0)) {
+                            executions.push({...match, timestamp: summary.timestamp, date: new Date(summary.timestamp).toISOString()})
+                        }
+                        continue
+                    }
+                }
+                pending.set(summary.id, executions.length)
+                executions.push(null)
             }
+            if (pending.size > 0) {
+                for (let row of await this.ruleRunnerService.getHistoryEntries([...pending.keys()])) {
+                    let date = row.timestamp ? new Date(row.timestamp) : new Date();
+                    let libraries: string[] = row.libraries || []
+                    let index = pending.get(row.id)
+                    if (index === undefined) {
+                        continue
+                    }
+                    
+                    executions[index] = {
+                        timestamp: date.getTime(),
+                        date: date.toISOString(),
+                        source: row.source || "",
+                        libraries: libraries.map((item) => {
+                            return {title: item}
+                        }),
+                        loadedRule: null,
+                        timeout: 10,
+                        includeWebClasses: row.includeWebClasses || false,
+                        suppressRawTypeErrors: false,
+                        isWorkflowRuleLibrary: false,
+                        async: true
+                    }
+                }
+            }
+            if (page.length < SERVER_HISTORY_PAGE_SIZE) {
+                break
+            }
+            before = page[page.length - 1].timestamp
+            beforeId = page[page.length - 1].id
+        }
+        
+        // Entries that were not returned by the batch request are skipped
+        let merged = executions.filter((execution): execution is EditorState => execution !== null)
+        if (merged.length === 0) {
+            return history;
+        }
+        
+        // The history list ends with the newest entry, so add the oldest first
+        for (let execution of merged.reverse()) {
+            this.removeMatchingHistoryEntries(history, execution);
             
-            let filteredHistory = this.filterForLength(history);
-            
-            this.browserStorageService.setItem(EXECUTION_HISTORY_ENTRY, filteredHistory.json)
-            
-            return filteredHistory.history;
-        });
+            history.push(execution)
+        }
+        
+        let filteredHistory = this.filterForLength(history);
+        
+        await this.browserStorageService.setItem(EXECUTION_HISTORY_ENTRY, filteredHistory.json)
+        if (newestTimestamp !== undefined) {
+            if (newestTimestamp === since) {
+                newestIds.push(...cursorIds.filter((id) => newestIds.indexOf(id) < 0))
+            }
+            await this.browserStorageService.setItem(HISTORY_CURSOR_ENTRY, newestTimestamp)
+            await this.browserStorageService.setItem(HISTORY_CURSOR_IDS_ENTRY, JSON.stringify(newestIds))
+        }
+        
+        return filteredHistory.history;
     }
     
     /**
-     * @param {boolean} allowLoad True if we want to allow loading from the server (pass false from the load itself to avoid a recursive loop)
+     * @param {boolean} allowLoad True if we want to allow loading newer entries from the server (pass false from the load itself to avoid a recursive loop)
      * @return {Promise<string>} The execution history (or a new [])
      */
     async getOrBootstrapExecutionHistory(allowLoad: boolean = false): Promise<EditorState[]> {
         console.log("Reading execution history from browser storage")
         let storedHistory: string = (await this.browserStorageService.getItem(EXECUTION_HISTORY_ENTRY) as string)
-        if (storedHistory == null && allowLoad) {
-            return (await this.loadServerHistory())
-        } else {
-            return JSON.parse(storedHistory || EMPTY_HISTORY_STRING)
+        if (allowLoad) {
+            try {
+                return (await this.loadServerHistory())
+            } catch (e) {
+                console.warn("Unable to load the execution history from the server", e)
+            }
         }
+        return JSON.parse(storedHistory || EMPTY_HISTORY_STRING)
     }
     
     
@@ -24,12 +24,25 @@ declare var PluginHelper: IPluginHelper;
 export type RuleNameType = {[key: string]: string}
 
 export interface StoredHistoryItem {
+    id: string;
     includeWebClasses: boolean;
     libraries: string[];
     source: string;
     timestamp: number;
 }
 
+/**
+ * A summary of a history entry, without its source, as returned by the history endpoint.
+ * Entries audited before summaries were indexed have no hash, first line or libraries.
+ */
+export interface HistorySummary {
+    firstLine?: string;
+    hash?: string;
+    id: string;
+    libraries?: string[];
+    timestamp: number;
+}
+
 export interface FileUploadResponse {
     fileName: string;
     size: number;
@@ -41,10 +54,12 @@ export class RunRuleOptions {
     librariesList: SelectizeLibrary[] = [];
     includeWebClasses: boolean = false;
     async: boolean = true;
+    compiled: boolean = false;
     ruleTimeout: number = 10;
     variables: Variable[] = [];
     csvHasHeaaders: boolean = true;
     csvErrorOnShortLines: boolean = false;
+    logLevel: LogLevel = LOG_DEBUG;
 }
 
 /**
@@ -161,10 +176,12 @@ export class RuleRunnerService {
                 libraries: options.librariesList,
                 includeWebClasses: options.includeWebClasses,
                 async: options.async,
+                compiled: options.compiled,
                 ruleTimeout: options.ruleTimeout.toString(10),
                 variables: options.variables,
                 csvHasHeaders: options.csvHasHeaaders,
-                csvErrorOnShortLines: options.csvErrorOnShortLines
+                csvErrorOnShortLines: options.csvErrorOnShortLines,
+                logLevel: options.logLevel
             }).then(function(response) {
             //console.log(response.data)
             return response.data;
@@ -175,14 +192,16 @@ export class RuleRunnerService {
      * Executes the given source code with the given rule libraries and returns the result
      * @param {!string} uuid
      * @param logLevel
+     * @param after The sequence number of the last log message already received, if any
      * @returns {Promise<RunningRule>} The result of the rule execution (typically a string, XML, or JSON, which will be detected above)
      */
-    checkStatus(uuid, logLevel: LogLevel = LOG_DEBUG) {
+    checkStatus(uuid, logLevel: LogLevel = LOG_DEBUG, after?: number) {
         let PAGE_CONFIG_URL = PluginHelper.getPluginRestUrl('IDWRuleRunnerPlugin/asyncUpdate');
         let config = {
             params: {
                 uuid: uuid,
-                logLevel: logLevel
+                logLevel: logLevel,
+                after: after
             }
         }
         // TODO: Handle error output here
@@ -192,16 +211,37 @@ export class RuleRunnerService {
         });
     }
 
+    /**
+     * Opens a stream of Server-Sent Events for the given background rule, which pushes new
+     * log messages, progress, and finally the output, as partial RunningRule objects
+     * @param {!string} uuid
+     * @param logLevel
+     * @param after The sequence number of the last log message already received, if any
+     * @returns {EventSource | null} The event source, or null if this browser does not support them
+     */
+    openStatusStream(uuid: string, logLevel: LogLevel = LOG_DEBUG, after?: number): EventSource | null {
+        if (typeof EventSource === "undefined") {
+            return null;
+        }
+        let url = PluginHelper.getPluginRestUrl('IDWRuleRunnerPlugin/asyncStream') + "?uuid=" + encodeURIComponent(uuid) + "&logLevel=" + encodeURIComponent(logLevel);
+        if (after !== undefined && after !== null) {
+            url += "&after=" + after;
+        }
+        return new EventSource(url, {withCredentials: true});
+    }
+
     /**
      * Executes the given source code with the given rule libraries and returns the result
      * @param {!string} uuid
+     * @param after The sequence number of the last log message already received, if any
      * @returns {Promise<RunningRule>} The result of the rule execution (typically a string, XML, or JSON, which will be detected above)
      */
-    asyncAbort(uuid) {
+    asyncAbort(uuid, after?: number) {
         let PAGE_CONFIG_URL = PluginHelper.getPluginRestUrl('IDWRuleRunnerPlugin/asyncAbort');
         let params = {
             uuid: uuid,
-            logLevel: LOG_DEBUG
+            logLevel: LOG_DEBUG,
+            after: after
         }
         // TODO: Handle error output here
         return this.$http.post(PAGE_CONFIG_URL, params).then(function(response) {
@@ -210,15 +250,47 @@ export class RuleRunnerService {
         });
     }
 
-    getMyHistory() {
+    /**
+     * Gets one page of the user's history summaries, newest first
+     *
+     * @param since Only entries at or after this timestamp, if given
+     * @param before Only entries older than this timestamp, if given
+     * @param beforeId With before, also entries at that timestamp with a lower ID, if given
+     * @param limit The page size, if not the server default
+     * @return {Promise<HistorySummary[]>}
+     */
+    getMyHistory(since?: number, before?: number, beforeId?: string, limit?: number): IPromise<HistorySummary[]> {
         let PAGE_CONFIG_URL = PluginHelper.getPluginRestUrl('IDWRuleRunnerPlugin/history');
 
         // TODO: Handle error output here
-        return this.$http.get(PAGE_CONFIG_URL).then(function(response) {
-            //console.log(response.data)
+        return this.$http.get(PAGE_CONFIG_URL, {params: {since: since, before: before, beforeId: beforeId, limit: limit}}).then(function(response) {
+            return response.data as HistorySummary[];
+        });
+    }
+
+    /**
+     * Gets the full history entries, including their source, for the given IDs in one request
+     * @param ids The IDs from the entries' summaries
+     * @return {Promise<StoredHistoryItem[]>} The entries, newest first
+     */
+    getHistoryEntries(ids: string[]): IPromise<StoredHistoryItem[]> {
+        let PAGE_CONFIG_URL = PluginHelper.getPluginRestUrl('IDWRuleRunnerPlugin/history/batch');
+        return this.$http.post(PAGE_CONFIG_URL, {ids: ids}).then(function(response) {
             return response.data as StoredHistoryItem[];
         });
     }
+
+    /**
+     * Gets one full history entry, including its source
+     * @param id The ID from the entry's summary
+     * @return {Promise<StoredHistoryItem>}
+     */
+    getHistoryEntry(id: string): IPromise<StoredHistoryItem> {
+        let PAGE_CONFIG_URL = PluginHelper.getPluginRestUrl('IDWRuleRunnerPlugin/history/' + encodeURIComponent(id));
+        return this.$http.get(PAGE_CONFIG_URL).then(function(response) {
+            return response.data as StoredHistoryItem;
+        });
+    }
     
     /**
      * Uploads a file to the server
@@ -35,6 +35,11 @@ export class RunRuleService {
 
     lastUpdateObject: RunningRule | null = null;
 
+    /**
+     * The stream of status events for the running rule, if the browser is receiving them
+     */
+    private statusStream: EventSource | null = null;
+
     constructor(private ruleHistoryService: RuleHistoryService, private ruleRunnerService: RuleRunnerService, private applicationState: ApplicationState, private eventBus: EventBus, private $timeout: ITimeoutService) {
 
     }
@@ -57,8 +62,9 @@ export class RunRuleService {
             });
 
             this.applicationState.aborting = true;
+            this.closeStatusStream();
 
-            this.ruleRunnerService.asyncAbort(uuid).then((output: any) => {
+            this.ruleRunnerService.asyncAbort(uuid, this.lastUpdateObject.logSequence).then((output: any) => {
                 let runningRule = new RunningRule(output);
                 this.lastUpdateObject = null;
                 handleOutput(this.eventBus, runningRule).then(() => {
@@ -104,9 +110,11 @@ export class RunRuleService {
         let options = new RunRuleOptions()
         options.includeWebClasses = state.includeWebClasses ?? false
         options.async = state.async ?? true
+        options.compiled = state.compiled ?? false
         options.ruleTimeout = state.timeout ?? 10
         options.librariesList = state.libraries
         options.variables = state.variables ?? []
+        options.logLevel = this.logLevel
 
         return this.ruleRunnerService.runRule(state.source ?? "", options).then((output: any) => {
             let runningRule = new RunningRule(output);
@@ -121,9 +129,11 @@ export class RunRuleService {
             if (runningRule.isAsync()) {
                 if (!runningRule.isDone()) {
                     const uuid: string = runningRule.uuid ?? "";
-                    this.$timeout( () => {
-                        this.checkStatus(state, uuid)
-                    }, RUNNING_RULE_CHECK_TIMEOUT_MS)
+                    if (!this.streamStatus(state, uuid)) {
+                        this.$timeout( () => {
+                            this.checkStatus(state, uuid)
+                        }, RUNNING_RULE_CHECK_TIMEOUT_MS)
+                    }
                 } else {
                     this.notifyStopped(state, runningRule);
                 }
@@ -153,6 +163,101 @@ export class RunRuleService {
         });
     }
 
+    /**
+     * Receives the status of a running rule as a stream of events pushed by the server, rather
+     * than polling for it. Falls back to polling if the stream cannot be opened, or the server
+     * says it is busy. Once events have arrived, the browser reconnects a dropped stream on its
+     * own, resuming after the last log message received, unless the reconnection fails for
+     * good, in which case this falls back to polling as well.
+     *
+     * @param state The editor state containing the rule execution context.
+     * @param uuid The UUID of the running rule to watch.
+     * @return True if the stream was opened, false if the caller should poll instead
+     * @private
+     */
+    private streamStatus(state: EditorState, uuid: string): boolean {
+        const source = this.ruleRunnerService.openStatusStream(uuid, this.logLevel, this.lastUpdateObject?.logSequence);
+        if (!source) {
+            return false;
+        }
+        this.closeStatusStream();
+        this.statusStream = source;
+
+        let received = false;
+        const fallBack = () => this.checkStatus(state, uuid);
+
+        source.addEventListener("update", (event: MessageEvent) => {
+            received = true;
+            this.$timeout(() => this.handleStreamEvent(state, JSON.parse(event.data)));
+        });
+        source.addEventListener("done", (event: MessageEvent) => {
+            this.closeStatusStream();
+            this.$timeout(() => {
+                let runningRule = this.handleStreamEvent(state, JSON.parse(event.data));
+                if (runningRule && !runningRule.isDone()) {
+                    // The server could not send the output, so fetch it the old way
+                    this.checkStatus(state, uuid);
+                }
+            });
+        });
+        source.addEventListener("busy", () => {
+            this.$timeout(fallBack, RUNNING_RULE_CHECK_TIMEOUT_MS);
+            this.closeStatusStream();
+        });
+        source.onerror = () => {
+            if (!this.applicationState.running) {
+                this.closeStatusStream();
+            } else if ((!received || source.readyState === EventSource.CLOSED) && this.statusStream === source) {
+                // The browser gives up reconnecting on a failed response, such as an
+                // evicted worker or a restarted server, so poll instead of waiting forever
+                this.$timeout(fallBack, RUNNING_RULE_CHECK_TIMEOUT_MS);
+                this.closeStatusStream();
+            }
+        };
+        return true;
+    }
+
+    /**
+     * Applies one event from the status stream to the output. The server omits the stats
+     * when they have not changed, so the previous stats are carried forward.
+     *
+     * @param state The editor state containing the rule execution context.
+     * @param json The partial running rule received
+     * @return The updated running rule, or null if the rule is no longer running
+     * @private
+     */
+    private handleStreamEvent(state: EditorState, json: any): RunningRule | null {
+        if (!this.applicationState.running) {
+            this.closeStatusStream();
+            return null;
+        }
+        if (!json.stats && this.lastUpdateObject) {
+            json.stats = this.lastUpdateObject.stats;
+        }
+        let runningRule = new RunningRule(json);
+        this.lastUpdateObject = runningRule;
+        handleOutput(this.eventBus, runningRule).then((done) => {
+            if (done) {
+                this.saveHistory(state);
+            }
+        })
+        if (runningRule.isDone()) {
+            this.notifyStopped(state, runningRule);
+        }
+        return runningRule;
+    }
+
+    /**
+     * Closes the status stream, if one is open
+     * @private
+     */
+    private closeStatusStream() {
+        if (this.statusStream) {
+            this.statusStream.close();
+            this.statusStream = null;
+        }
+    }
+
     /**
      * Checks the status of a running rule by its UUID. This is invoked in a loop (via $timeout)
      * until the rule is done running.
@@ -163,7 +268,8 @@ export class RunRuleService {
      */
     private checkStatus(state: EditorState, uuid: string) {
         if (this.applicationState.running) {
-            this.ruleRunnerService.checkStatus(uuid, this.logLevel).then((output: any) => {
+            // Resume the logs after the last message received, so a lost response loses nothing
+            this.ruleRunnerService.checkStatus(uuid, this.logLevel, this.lastUpdateObject?.logSequence).then((output: any) => {
                 let runningRule = new RunningRule(output);
                 this.lastUpdateObject = runningRule;
                 handleOutput(this.eventBus, runningRule).then((done) => {